@@ -0,0 +1,240 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.benchmark;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import soundgood.integration.SoundgoodDBConfig;
+
+/**
+ * Loads benchmark data of a chosen size into the database configured by the
+ * <code>soundgood.*</code> system properties. For a scale of <i>n</i>, the
+ * fixture holds <i>n</i> students, <i>2n</i> instruments and <i>10n</i>
+ * terminated rentals. Every second student has one ongoing rental, of one of the
+ * first <i>n</i> instruments. The other students, and the last <i>n</i>
+ * instruments, are free, and are used by benchmarks that create rentals.
+ *
+ * All fixture rows are marked, and are deleted before a new fixture is loaded.
+ * Other rows are left as they are, but the benchmarks shall still use a database
+ * of their own, since other rows change the measured plans.
+ */
+public class BenchmarkFixture {
+    public static final String[] INSTRUMENT_TYPES = {"guitar", "piano", "drums", "violin", "flute", "saxophone"};
+    private static final String STUDENT_MARKER = "bench-";
+    private static final String INSTRUMENT_MARKER = "bench";
+    private static final int HISTORY_PER_STUDENT = 10;
+    private static final String INSTRUCTOR_MARKER = "bench-instructor-";
+    private static final String LESSON_PRICE_MARKER = "1900-01-01";
+    private static final int INSTRUCTORS = 50;
+    private static final int LESSONS_PER_DAY = 100;
+
+    private static final String DELETE_RENTALS = "DELETE FROM rental WHERE student_id IN "
+            + "(SELECT student_id FROM student WHERE personal_number LIKE '" + STUDENT_MARKER + "%') "
+            + "OR instrument_id IN (SELECT instrument_id FROM instrument WHERE location = '"
+            + INSTRUMENT_MARKER + "')";
+    private static final String DELETE_STUDENTS = "DELETE FROM student WHERE personal_number LIKE '"
+            + STUDENT_MARKER + "%'";
+    private static final String DELETE_INSTRUMENTS = "DELETE FROM instrument WHERE location = '"
+            + INSTRUMENT_MARKER + "'";
+    private static final String INSERT_STUDENTS = "INSERT INTO student (personal_number, name) "
+            + "SELECT '" + STUDENT_MARKER + "' || g, 'Benchmark student ' || g FROM generate_series(1, ?) g";
+    private static final String INSERT_INSTRUMENTS = "INSERT INTO instrument (type, brand, location, price) "
+            + "SELECT (?::VARCHAR[])[1 + g % ?], 'Bench', '" + INSTRUMENT_MARKER + "', 100 + g % 400 "
+            + "FROM generate_series(1, ?) g";
+    private static final String NUMBERED_ROWS = "WITH s AS (SELECT student_id, "
+            + "row_number() OVER (ORDER BY student_id) AS rn FROM student WHERE personal_number LIKE '"
+            + STUDENT_MARKER + "%'), "
+            + "i AS (SELECT instrument_id, row_number() OVER (ORDER BY instrument_id) AS rn "
+            + "FROM instrument WHERE location = '" + INSTRUMENT_MARKER + "') ";
+    private static final String INSERT_HISTORY = NUMBERED_ROWS
+            + "INSERT INTO rental (rental_start_date, rental_end_date, duration, terminated, student_id, instrument_id) "
+            + "SELECT NOW() - (g % 700) * INTERVAL '1 day', NOW() - (g % 700) * INTERVAL '1 day' + INTERVAL '30 days', "
+            + "30, 1, s.student_id, i.instrument_id FROM generate_series(0, ? - 1) g "
+            + "JOIN s ON s.rn = 1 + g % ? JOIN i ON i.rn = 1 + (g * 7) % ?";
+    private static final String INSERT_ONGOING = NUMBERED_ROWS
+            + "INSERT INTO rental (rental_start_date, rental_end_date, duration, terminated, student_id, instrument_id) "
+            + "SELECT NOW(), NOW() + INTERVAL '30 days', 30, 0, s.student_id, i.instrument_id "
+            + "FROM s JOIN i ON i.rn = s.rn WHERE s.rn % 2 = 0";
+    private static final String DELETE_LESSONS = "DELETE FROM lesson WHERE instructor_id IN "
+            + "(SELECT instructor_id FROM instructor WHERE personal_number LIKE '" + INSTRUCTOR_MARKER + "%') "
+            + "OR lesson_price_id IN (SELECT lesson_price_id FROM lesson_price WHERE valid_from = '"
+            + LESSON_PRICE_MARKER + "')";
+    private static final String DELETE_INSTRUCTORS = "DELETE FROM instructor WHERE personal_number LIKE '"
+            + INSTRUCTOR_MARKER + "%'";
+    private static final String DELETE_LESSON_PRICES = "DELETE FROM lesson_price WHERE valid_from = '"
+            + LESSON_PRICE_MARKER + "'";
+    private static final String INSERT_INSTRUCTORS = "INSERT INTO instructor (personal_number, name) "
+            + "SELECT '" + INSTRUCTOR_MARKER + "' || g, 'Benchmark instructor ' || g FROM generate_series(1, "
+            + INSTRUCTORS + ") g";
+    private static final String INSERT_LESSON_PRICES = "INSERT INTO lesson_price "
+            + "(skill_level, lesson_type, price, valid_from, valid_to) "
+            + "SELECT level, type, 100, '" + LESSON_PRICE_MARKER + "', '9999-12-31' "
+            + "FROM unnest(ARRAY['beginner', 'intermediate', 'advanced']) level, "
+            + "unnest(ARRAY['individual', 'group', 'ensemble']) type";
+    private static final String INSERT_LESSONS = "WITH p AS (SELECT lesson_price_id, "
+            + "row_number() OVER (ORDER BY lesson_price_id) AS rn FROM lesson_price WHERE valid_from = '"
+            + LESSON_PRICE_MARKER + "'), "
+            + "t AS (SELECT instructor_id, row_number() OVER (ORDER BY instructor_id) AS rn "
+            + "FROM instructor WHERE personal_number LIKE '" + INSTRUCTOR_MARKER + "%') "
+            + "INSERT INTO lesson (lesson_start, lesson_end, num_of_students, students_maximum, students_minimum, "
+            + "genre, instrument_type, lesson_price_id, instructor_id) "
+            + "SELECT NOW() - g * INTERVAL '1 day' / " + LESSONS_PER_DAY + ", "
+            + "NOW() - g * INTERVAL '1 day' / " + LESSONS_PER_DAY + " + INTERVAL '1 hour', 0, 10, 1, NULL, "
+            + "(?::VARCHAR[])[1 + g % ?], p.lesson_price_id, t.instructor_id FROM generate_series(0, ? - 1) g "
+            + "JOIN p ON p.rn = 1 + g % 9 JOIN t ON t.rn = 1 + (g * 7) % " + INSTRUCTORS;
+    private static final String FIND_FREE_STUDENTS = "SELECT student_id FROM student "
+            + "WHERE personal_number LIKE '" + STUDENT_MARKER + "%' AND active_rentals = 0 ORDER BY student_id";
+    private static final String FIND_FREE_INSTRUMENTS = "SELECT instrument_id FROM instrument i "
+            + "WHERE location = '" + INSTRUMENT_MARKER + "' AND NOT EXISTS (SELECT 1 FROM rental r "
+            + "WHERE r.instrument_id = i.instrument_id AND r.terminated = 0) ORDER BY instrument_id";
+    private static final String FIND_STUDENTS = "SELECT student_id FROM student WHERE personal_number LIKE '"
+            + STUDENT_MARKER + "%' ORDER BY student_id";
+    private static final String FIND_INSTRUMENTS = "SELECT instrument_id FROM instrument WHERE location = '"
+            + INSTRUMENT_MARKER + "' ORDER BY instrument_id";
+
+    private final SoundgoodDBConfig config = SoundgoodDBConfig.fromSystemProperties();
+
+    /**
+     * Deletes any previous fixture and loads a new one of the specified size.
+     *
+     * @param scale The number of students.
+     * @throws SQLException If unable to load the fixture.
+     */
+    public void load(int scale) throws SQLException {
+        try (Connection conn = connect(); Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate(DELETE_RENTALS);
+            stmt.executeUpdate(DELETE_STUDENTS);
+            stmt.executeUpdate(DELETE_INSTRUMENTS);
+            try (PreparedStatement insertStudents = conn.prepareStatement(INSERT_STUDENTS)) {
+                insertStudents.setInt(1, scale);
+                insertStudents.executeUpdate();
+            }
+            try (PreparedStatement insertInstruments = conn.prepareStatement(INSERT_INSTRUMENTS)) {
+                insertInstruments.setArray(1, conn.createArrayOf("varchar", INSTRUMENT_TYPES));
+                insertInstruments.setInt(2, INSTRUMENT_TYPES.length);
+                insertInstruments.setInt(3, 2 * scale);
+                insertInstruments.executeUpdate();
+            }
+            try (PreparedStatement insertHistory = conn.prepareStatement(INSERT_HISTORY)) {
+                insertHistory.setInt(1, HISTORY_PER_STUDENT * scale);
+                insertHistory.setInt(2, scale);
+                insertHistory.setInt(3, 2 * scale);
+                insertHistory.executeUpdate();
+            }
+            stmt.executeUpdate(INSERT_ONGOING);
+            stmt.execute("ANALYZE student");
+            stmt.execute("ANALYZE instrument");
+            stmt.execute("ANALYZE rental");
+            conn.commit();
+        }
+    }
+
+    /**
+     * Deletes any previous lesson fixture and loads <code>count</code> lessons,
+     * starting {@value #LESSONS_PER_DAY} per day back in time from now, given by
+     * {@value #INSTRUCTORS} fixture instructors at fixture lesson prices. The
+     * lesson fixture is independent of the rental fixture loaded by
+     * <code>load</code>.
+     *
+     * @param count The number of lessons.
+     * @throws SQLException If unable to load the fixture.
+     */
+    public void loadLessons(int count) throws SQLException {
+        try (Connection conn = connect(); Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate(DELETE_LESSONS);
+            stmt.executeUpdate(DELETE_INSTRUCTORS);
+            stmt.executeUpdate(DELETE_LESSON_PRICES);
+            stmt.executeUpdate(INSERT_INSTRUCTORS);
+            stmt.executeUpdate(INSERT_LESSON_PRICES);
+            try (PreparedStatement insertLessons = conn.prepareStatement(INSERT_LESSONS)) {
+                insertLessons.setArray(1, conn.createArrayOf("varchar", INSTRUMENT_TYPES));
+                insertLessons.setInt(2, INSTRUMENT_TYPES.length);
+                insertLessons.setInt(3, count);
+                insertLessons.executeUpdate();
+            }
+            stmt.execute("ANALYZE instructor");
+            stmt.execute("ANALYZE lesson_price");
+            stmt.execute("ANALYZE lesson");
+            conn.commit();
+        }
+    }
+
+    /**
+     * @return The IDs of all fixture students.
+     * @throws SQLException If unable to read the fixture.
+     */
+    public int[] findStudentIDs() throws SQLException {
+        return findIDs(FIND_STUDENTS);
+    }
+
+    /**
+     * @return The IDs of all fixture instruments.
+     * @throws SQLException If unable to read the fixture.
+     */
+    public int[] findInstrumentIDs() throws SQLException {
+        return findIDs(FIND_INSTRUMENTS);
+    }
+
+    /**
+     * @return The IDs of the fixture students that have no ongoing rental.
+     * @throws SQLException If unable to read the fixture.
+     */
+    public int[] findFreeStudentIDs() throws SQLException {
+        return findIDs(FIND_FREE_STUDENTS);
+    }
+
+    /**
+     * @return The IDs of the fixture instruments that are not rented.
+     * @throws SQLException If unable to read the fixture.
+     */
+    public int[] findFreeInstrumentIDs() throws SQLException {
+        return findIDs(FIND_FREE_INSTRUMENTS);
+    }
+
+    private int[] findIDs(String sql) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        try (Connection conn = connect();
+                Statement stmt = conn.createStatement();
+                ResultSet result = stmt.executeQuery(sql)) {
+            while (result.next()) {
+                ids.add(result.getInt(1));
+            }
+            conn.commit();
+        }
+        return ids.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private Connection connect() throws SQLException {
+        Connection conn = DriverManager.getConnection(config.getUrl(), config.getUser(), config.getPassword());
+        conn.setAutoCommit(false);
+        return conn;
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.benchmark;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import soundgood.controller.AsyncController;
+import soundgood.controller.Controller;
+import soundgood.integration.SoundgoodDBConfig;
+import soundgood.integration.SoundgoodDBException;
+
+/**
+ * Puts the controller under a steady load of rent, terminate and list
+ * operations by many simulated students at once, and reports throughput,
+ * latency percentiles, lock waits, deadlocks and rejections.
+ *
+ * Operations are started at a fixed rate, whether or not earlier operations
+ * have finished, like requests from independent front desks. They run through
+ * <code>AsyncController</code>, on virtual threads on Java 21 or later. Latency
+ * is measured from the time an operation was scheduled to start, so time spent
+ * waiting for one of the <code>-concurrency</code> slots is included. Options
+ * are given as
+ * <code>-name value</code>:
+ * <ul>
+ * <li><code>-rate</code> Operations started per second, default 200.</li>
+ * <li><code>-duration</code> Seconds to run, default 30.</li>
+ * <li><code>-concurrency</code> Operations in progress at most, default 200.</li>
+ * <li><code>-scale</code> Students in the fixture, see
+ * <code>BenchmarkFixture</code>, default 1000.</li>
+ * <li><code>-mix</code> Relative weights of the operations, default
+ * <code>rent=45,terminate=45,list=10</code>.</li>
+ * <li><code>-path</code> <code>locking</code> rents with
+ * <code>createRental</code>, <code>conditional</code> with
+ * <code>rentInstrument</code>, default <code>locking</code>.</li>
+ * </ul>
+ */
+public class LoadGenerator {
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(1);
+    private static final long SAMPLE_INTERVAL_MILLIS = 100;
+    private static final String END_DATE = LocalDate.now().plusMonths(1).toString();
+    private static final String DEADLOCK_DETECTED = "40P01";
+    private static final String SERIALIZATION_FAILURE = "40001";
+    private static final String LOCK_NOT_AVAILABLE = "55P03";
+    private static final String UNIQUE_VIOLATION = "23505";
+    private static final String RENT_QUOTA_REACHED = "SG001";
+
+    private enum Operation {
+        RENT, TERMINATE, LIST
+    }
+
+    private enum Outcome {
+        OK, QUOTA_REJECTED, ALREADY_RENTED, DEADLOCK, LOCK_CONFLICT, FAILED
+    }
+
+    private final Controller ctrl;
+    private final boolean lockingPath;
+    private final int[] studentIDs;
+    private final int[] instrumentIDs;
+    private final Queue<Integer> studentsWithRentals = new ConcurrentLinkedQueue<>();
+    private final Map<Operation, Histogram> latencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, Map<Outcome, LongAdder>> outcomes = new EnumMap<>(Operation.class);
+
+    private LoadGenerator(Controller ctrl, boolean lockingPath, int[] studentIDs, int[] instrumentIDs) {
+        this.ctrl = ctrl;
+        this.lockingPath = lockingPath;
+        this.studentIDs = studentIDs;
+        this.instrumentIDs = instrumentIDs;
+        for (Operation op : Operation.values()) {
+            latencies.put(op, new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3));
+            Map<Outcome, LongAdder> counts = new EnumMap<>(Outcome.class);
+            for (Outcome outcome : Outcome.values()) {
+                counts.put(outcome, new LongAdder());
+            }
+            outcomes.put(op, counts);
+        }
+    }
+
+    /**
+     * Loads the fixture, runs the load and prints the report.
+     *
+     * @param args Options, see the class comment.
+     */
+    public static void main(String[] args) throws SQLException, SoundgoodDBException, InterruptedException {
+        Map<String, String> options = parseOptions(args);
+        int rate = Integer.parseInt(options.getOrDefault("rate", "200"));
+        int durationSeconds = Integer.parseInt(options.getOrDefault("duration", "30"));
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "200"));
+        int scale = Integer.parseInt(options.getOrDefault("scale", "1000"));
+        Map<Operation, Integer> mix = parseMix(options.getOrDefault("mix", "rent=45,terminate=45,list=10"));
+        boolean lockingPath = !"conditional".equals(options.getOrDefault("path", "locking"));
+
+        BenchmarkFixture fixture = new BenchmarkFixture();
+        fixture.load(scale);
+        Controller ctrl = new Controller();
+        try {
+            LoadGenerator generator = new LoadGenerator(ctrl, lockingPath, fixture.findStudentIDs(),
+                    fixture.findInstrumentIDs());
+            generator.run(rate, durationSeconds, concurrency, mix);
+        } finally {
+            ctrl.close();
+        }
+    }
+
+    private void run(int rate, int durationSeconds, int concurrency, Map<Operation, Integer> mix)
+            throws SQLException, InterruptedException {
+        LockWaitSampler sampler = new LockWaitSampler(SoundgoodDBConfig.fromSystemProperties(),
+                SAMPLE_INTERVAL_MILLIS);
+        Thread samplerThread = new Thread(sampler, "soundgood-lock-sampler");
+        samplerThread.start();
+        AsyncController async = new AsyncController(ctrl);
+        Semaphore inProgress = new Semaphore(concurrency);
+
+        long periodNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+        for (long i = 0;; i++) {
+            long scheduled = start + i * periodNanos;
+            if (scheduled >= end) {
+                break;
+            }
+            long delay = scheduled - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+            }
+            Operation op = pick(mix);
+            inProgress.acquire();
+            perform(async, op).whenComplete((result, failure) -> {
+                record(op, scheduled, failure == null ? Outcome.OK : classify(failure));
+                inProgress.release();
+            });
+        }
+        inProgress.acquire(concurrency);
+        async.close();
+        long elapsed = System.nanoTime() - start;
+
+        sampler.stop();
+        samplerThread.join();
+        printReport(rate, elapsed, sampler);
+    }
+
+    private CompletableFuture<?> perform(AsyncController async, Operation op) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        switch (op) {
+            case RENT:
+                int studentID = studentIDs[random.nextInt(studentIDs.length)];
+                int instrumentID = instrumentIDs[random.nextInt(instrumentIDs.length)];
+                CompletableFuture<?> rented = lockingPath ? async.createRental(studentID, instrumentID, END_DATE)
+                        : async.rentInstrument(studentID, instrumentID, END_DATE);
+                return rented.thenRun(() -> studentsWithRentals.add(studentID));
+            case TERMINATE:
+                Integer withRentals = studentsWithRentals.poll();
+                return async.terminateRentalsOfStudent(
+                        withRentals != null ? withRentals : studentIDs[random.nextInt(studentIDs.length)]);
+            default:
+                return async.findInstrumentsByAvailability();
+        }
+    }
+
+    private void record(Operation op, long scheduled, Outcome outcome) {
+        long latencyMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - scheduled);
+        latencies.get(op).recordValue(Math.min(latencyMicros, HIGHEST_TRACKABLE_MICROS));
+        outcomes.get(op).get(outcome).increment();
+    }
+
+    private static Outcome classify(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException) {
+                String sqlState = ((SQLException) cause).getSQLState();
+                if (DEADLOCK_DETECTED.equals(sqlState)) {
+                    return Outcome.DEADLOCK;
+                }
+                if (SERIALIZATION_FAILURE.equals(sqlState) || LOCK_NOT_AVAILABLE.equals(sqlState)) {
+                    return Outcome.LOCK_CONFLICT;
+                }
+                if (UNIQUE_VIOLATION.equals(sqlState)) {
+                    return Outcome.ALREADY_RENTED;
+                }
+                if (RENT_QUOTA_REACHED.equals(sqlState)) {
+                    return Outcome.QUOTA_REJECTED;
+                }
+            }
+            if ("Rent quota reached".equals(cause.getMessage())) {
+                return Outcome.QUOTA_REJECTED;
+            }
+            if ("Instrument already rented".equals(cause.getMessage())) {
+                return Outcome.ALREADY_RENTED;
+            }
+        }
+        return Outcome.FAILED;
+    }
+
+    private void printReport(int rate, long elapsedNanos, LockWaitSampler sampler) {
+        double elapsedSeconds = elapsedNanos / 1_000_000_000.0;
+        long total = 0;
+        for (Histogram histogram : latencies.values()) {
+            total += histogram.getTotalCount();
+        }
+        System.out.printf("%d operations in %.1f s, %.1f ops/s (target %d ops/s), %s path%n", total,
+                elapsedSeconds, total / elapsedSeconds, rate, lockingPath ? "locking" : "conditional");
+        System.out.println();
+        System.out.printf("%-10s %8s %10s %10s %10s %10s%n", "operation", "count", "p50 ms", "p99 ms",
+                "p999 ms", "max ms");
+        for (Operation op : Operation.values()) {
+            Histogram histogram = latencies.get(op);
+            System.out.printf("%-10s %8d %10.2f %10.2f %10.2f %10.2f%n", op, histogram.getTotalCount(),
+                    histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(99) / 1000.0,
+                    histogram.getValueAtPercentile(99.9) / 1000.0, histogram.getMaxValue() / 1000.0);
+        }
+        System.out.println();
+        System.out.printf("%-10s", "operation");
+        for (Outcome outcome : Outcome.values()) {
+            System.out.printf(" %15s", outcome.toString().toLowerCase());
+        }
+        System.out.println();
+        for (Operation op : Operation.values()) {
+            System.out.printf("%-10s", op);
+            for (Outcome outcome : Outcome.values()) {
+                System.out.printf(" %15d", outcomes.get(op).get(outcome).sum());
+            }
+            System.out.println();
+        }
+        System.out.println();
+        System.out.printf("Lock wait: %d ms in total, at most %d sessions waiting at once%n",
+                sampler.getLockWaitMillis(), sampler.getMaxWaiting());
+        System.out.printf("Deadlocks detected by the database: %d%n", sampler.getDeadlocks());
+    }
+
+    private Operation pick(Map<Operation, Integer> mix) {
+        int total = 0;
+        for (int weight : mix.values()) {
+            total += weight;
+        }
+        int choice = ThreadLocalRandom.current().nextInt(total);
+        for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+            choice -= entry.getValue();
+            if (choice < 0) {
+                return entry.getKey();
+            }
+        }
+        return Operation.LIST;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("-")) {
+                throw new IllegalArgumentException("Expected an option, found " + args[i]);
+            }
+            options.put(args[i].substring(1), args[i + 1]);
+        }
+        return options;
+    }
+
+    private static Map<Operation, Integer> parseMix(String mix) {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String part : mix.split(",")) {
+            String[] weight = part.split("=");
+            weights.put(Operation.valueOf(weight[0].trim().toUpperCase()), Integer.parseInt(weight[1].trim()));
+        }
+        return weights;
+    }
+}
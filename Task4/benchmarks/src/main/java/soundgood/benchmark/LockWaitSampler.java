@@ -0,0 +1,129 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.benchmark;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import soundgood.integration.SoundgoodDBConfig;
+
+/**
+ * Samples, at a fixed interval, how many sessions of the current database are
+ * waiting for a lock. The sum of the samples times the interval estimates the
+ * total time spent waiting for locks. The deadlock counter of the database is
+ * read when sampling starts and ends, to count the deadlocks in between.
+ *
+ * Run the sampler on a thread of its own, call <code>stop</code> and join the
+ * thread before reading the results.
+ */
+class LockWaitSampler implements Runnable {
+    private static final String COUNT_LOCK_WAITERS = "SELECT count(*) FROM pg_stat_activity "
+            + "WHERE wait_event_type = 'Lock' AND datname = current_database()";
+    private static final String COUNT_DEADLOCKS = "SELECT deadlocks FROM pg_stat_database "
+            + "WHERE datname = current_database()";
+    private final Connection conn;
+    private final long intervalMillis;
+    private volatile boolean running = true;
+    private long waitingSamples = 0;
+    private int maxWaiting = 0;
+    private long deadlocks = 0;
+
+    /**
+     * Creates a new instance with a connection of its own.
+     *
+     * @param config         The database to sample.
+     * @param intervalMillis The time between two samples.
+     * @throws SQLException If unable to connect.
+     */
+    LockWaitSampler(SoundgoodDBConfig config, long intervalMillis) throws SQLException {
+        this.conn = DriverManager.getConnection(config.getUrl(), config.getUser(), config.getPassword());
+        this.intervalMillis = intervalMillis;
+    }
+
+    @Override
+    public void run() {
+        try (conn; Statement stmt = conn.createStatement()) {
+            long deadlocksAtStart = countDeadlocks(stmt);
+            while (running) {
+                try (ResultSet result = stmt.executeQuery(COUNT_LOCK_WAITERS)) {
+                    result.next();
+                    int waiting = result.getInt(1);
+                    synchronized (this) {
+                        waitingSamples += waiting;
+                        maxWaiting = Math.max(maxWaiting, waiting);
+                    }
+                }
+                Thread.sleep(intervalMillis);
+            }
+            // Statistics reach pg_stat_database with a delay of up to a second.
+            Thread.sleep(1_000);
+            long deadlocksAtEnd = countDeadlocks(stmt);
+            synchronized (this) {
+                deadlocks = deadlocksAtEnd - deadlocksAtStart;
+            }
+        } catch (SQLException | InterruptedException e) {
+            // Sampling ends, the report shows what was sampled until now.
+        }
+    }
+
+    private static long countDeadlocks(Statement stmt) throws SQLException {
+        try (ResultSet result = stmt.executeQuery(COUNT_DEADLOCKS)) {
+            return result.next() ? result.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * @return The number of deadlocks detected in the database while sampling.
+     */
+    synchronized long getDeadlocks() {
+        return deadlocks;
+    }
+
+    /**
+     * @return The estimated time, in milliseconds, that sessions spent waiting for
+     *         locks while sampling.
+     */
+    synchronized long getLockWaitMillis() {
+        return waitingSamples * intervalMillis;
+    }
+
+    /**
+     * @return The highest number of sessions that were waiting for locks at the
+     *         same time.
+     */
+    synchronized int getMaxWaiting() {
+        return maxWaiting;
+    }
+
+    /**
+     * Stops sampling. The connection is closed by the sampling thread when it has
+     * read the final deadlock count.
+     */
+    void stop() {
+        running = false;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.benchmark;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import soundgood.integration.SoundgoodDAO;
+import soundgood.integration.SoundgoodDBException;
+
+/**
+ * Checks that the planner chooses an index for each selective hot statement of
+ * <code>SoundgoodDAO</code>, with its default settings, on a loaded and analyzed
+ * fixture. This complements <code>--check-plans</code>, which only shows that a
+ * usable index exists. Statements that read most of a table are printed, but not
+ * checked, since a sequential scan may be the best plan for them. Exits with
+ * status 1 if a checked statement is not served by an index. Options are given
+ * as <code>-name value</code>:
+ * <ul>
+ * <li><code>-scale</code> Students in the fixture, see
+ * <code>BenchmarkFixture</code>, default 100000.</li>
+ * <li><code>-lessons</code> Lessons in the lesson fixture, default 100000.</li>
+ * </ul>
+ */
+public class PlanCheck {
+    private static final String INDEX_SCAN_MARKER = "Index";
+    private static final Set<String> WHOLE_TABLE_STATEMENTS = Set.of("findInstrumentsByAvailability",
+            "findInstrumentsByAvailabilityAndType", "findRentedInstrumentIDs");
+
+    /**
+     * Loads the fixture, explains the statements and prints the plans.
+     *
+     * @param args Options, see the class comment.
+     */
+    public static void main(String[] args) throws SQLException, SoundgoodDBException {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].substring(1), args[i + 1]);
+        }
+        int scale = Integer.parseInt(options.getOrDefault("scale", "100000"));
+        int lessons = Integer.parseInt(options.getOrDefault("lessons", "100000"));
+
+        BenchmarkFixture fixture = new BenchmarkFixture();
+        fixture.load(scale);
+        fixture.loadLessons(lessons);
+        SoundgoodDAO dao = new SoundgoodDAO();
+        boolean allIndexed = true;
+        try {
+            for (Map.Entry<String, String> plan : dao.explainHotQueries(false).entrySet()) {
+                String status;
+                if (WHOLE_TABLE_STATEMENTS.contains(plan.getKey())) {
+                    status = "INFO     ";
+                } else if (plan.getValue().contains(INDEX_SCAN_MARKER)) {
+                    status = "OK       ";
+                } else {
+                    status = "NO INDEX ";
+                    allIndexed = false;
+                }
+                System.out.println(status + plan.getKey());
+                System.out.println(plan.getValue());
+            }
+        } finally {
+            dao.close();
+        }
+        System.exit(allIndexed ? 0 : 1);
+    }
+}
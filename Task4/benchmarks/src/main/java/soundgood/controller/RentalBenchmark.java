@@ -0,0 +1,123 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.controller;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import soundgood.benchmark.BenchmarkFixture;
+import soundgood.integration.SoundgoodDBException;
+import soundgood.model.InstrumentException;
+
+/**
+ * Measures renting and returning an instrument through the controller, with
+ * several threads at once. Each thread rents its own instrument to its own
+ * student, so the threads only compete for connections and for the shared
+ * indexes, not for rows.
+ *
+ * <code>lockingRentAndReturn</code> uses <code>createRental</code>, which locks
+ * the student and the rentals of the instrument before inserting, and
+ * <code>conditionalRentAndReturn</code> uses <code>rentInstrument</code>, which
+ * checks and inserts with one statement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class RentalBenchmark {
+    private static final String END_DATE = LocalDate.now().plusMonths(1).toString();
+
+    @Param({"1000"})
+    public int scale;
+
+    private Controller ctrl;
+    private int[] freeStudentIDs;
+    private int[] freeInstrumentIDs;
+    private final AtomicInteger nextThread = new AtomicInteger();
+
+    /**
+     * The student and instrument used by one benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class Renter {
+        private int studentID;
+        private int instrumentID;
+
+        @Setup(Level.Trial)
+        public void pickRows(RentalBenchmark benchmark) {
+            int thread = benchmark.nextThread.getAndIncrement();
+            if (thread >= benchmark.freeStudentIDs.length || thread >= benchmark.freeInstrumentIDs.length) {
+                throw new IllegalStateException("The fixture is too small for " + (thread + 1) + " threads.");
+            }
+            studentID = benchmark.freeStudentIDs[thread];
+            instrumentID = benchmark.freeInstrumentIDs[thread];
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void loadFixture() throws SQLException, SoundgoodDBException {
+        BenchmarkFixture fixture = new BenchmarkFixture();
+        fixture.load(scale);
+        freeStudentIDs = fixture.findFreeStudentIDs();
+        freeInstrumentIDs = fixture.findFreeInstrumentIDs();
+        ctrl = new Controller();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        ctrl.close();
+    }
+
+    @Benchmark
+    public void lockingRentAndReturn(Renter renter) throws InstrumentException, SoundgoodDBException {
+        ctrl.createRental(renter.studentID, renter.instrumentID, END_DATE);
+        ctrl.terminateRentalsOfStudent(renter.studentID);
+    }
+
+    @Benchmark
+    public void conditionalRentAndReturn(Renter renter) throws InstrumentException {
+        int rentalID = ctrl.rentInstrument(renter.studentID, renter.instrumentID, END_DATE);
+        ctrl.markRentalAsTerminated(rentalID);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.integration;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import soundgood.benchmark.BenchmarkFixture;
+import soundgood.model.Instrument;
+import soundgood.model.Rental;
+import soundgood.model.RentalBatch;
+
+/**
+ * Measures each query of <code>SoundgoodDAO</code> against a fixture of the
+ * size given by the <code>scale</code> parameter, see
+ * <code>BenchmarkFixture</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DAOQueryBenchmark {
+    @Param({"1000", "10000"})
+    public int scale;
+
+    private SoundgoodDAO dao;
+    private int[] studentIDs;
+    private int[] instrumentIDs;
+
+    @Setup(Level.Trial)
+    public void loadFixture() throws SQLException, SoundgoodDBException {
+        BenchmarkFixture fixture = new BenchmarkFixture();
+        fixture.load(scale);
+        studentIDs = fixture.findStudentIDs();
+        instrumentIDs = fixture.findInstrumentIDs();
+        dao = new SoundgoodDAO();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        dao.close();
+    }
+
+    @Benchmark
+    public List<Instrument> availableInstruments() throws SoundgoodDBException {
+        return dao.findInstrumentsByAvailability();
+    }
+
+    @Benchmark
+    public List<Instrument> availableInstrumentsByType() throws SoundgoodDBException {
+        String type = BenchmarkFixture.INSTRUMENT_TYPES[ThreadLocalRandom.current()
+                .nextInt(BenchmarkFixture.INSTRUMENT_TYPES.length)];
+        return dao.findInstrumentsByAvailabilityAndType(type);
+    }
+
+    @Benchmark
+    public List<Rental> history() throws SoundgoodDBException {
+        return dao.findRentals();
+    }
+
+    @Benchmark
+    public RentalBatch historyColumnar() throws SoundgoodDBException {
+        return dao.findRentalsColumnar();
+    }
+
+    @Benchmark
+    public List<Rental> currentRentalsByStudent() throws SoundgoodDBException {
+        return dao.findCurrentRentalsByStudent(pick(studentIDs), false);
+    }
+
+    @Benchmark
+    public List<Rental> rentalsByInstrument() throws SoundgoodDBException {
+        return dao.findRentalsByInstrument(pick(instrumentIDs), false);
+    }
+
+    private static int pick(int[] ids) {
+        return ids[ThreadLocalRandom.current().nextInt(ids.length)];
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.integration;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import soundgood.benchmark.BenchmarkFixture;
+import soundgood.model.Report;
+
+/**
+ * Measures the lesson reports of the last 30 days against a fixture of
+ * <code>lessons</code> lessons, see <code>BenchmarkFixture.loadLessons</code>.
+ * The range reports of <code>SoundgoodDAO</code> are compared with the same
+ * counts filtered by <code>EXTRACT</code> on the lesson start, as in the
+ * original <code>queries.sql</code>, which can not use an index on
+ * <code>lesson_start</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LessonReportBenchmark {
+    private static final int PERIOD_DAYS = 30;
+    private static final String EXTRACT_LESSON_REPORT = "SELECT TO_CHAR(l.lesson_start, 'YYYY-MM'), "
+            + "COUNT(*), COUNT(*) FILTER (WHERE p.lesson_type = 'individual'), "
+            + "COUNT(*) FILTER (WHERE p.lesson_type = 'group'), "
+            + "COUNT(*) FILTER (WHERE p.lesson_type = 'ensemble') "
+            + "FROM lesson l JOIN lesson_price p ON p.lesson_price_id = l.lesson_price_id "
+            + "WHERE EXTRACT(YEAR FROM l.lesson_start) * 10000 + EXTRACT(MONTH FROM l.lesson_start) * 100 "
+            + "+ EXTRACT(DAY FROM l.lesson_start) BETWEEN ? AND ? "
+            + "GROUP BY 1 ORDER BY 1";
+
+    @Param({"10000", "100000", "1000000"})
+    public int lessons;
+
+    private SoundgoodDAO dao;
+    private Connection legacyConnection;
+    private PreparedStatement legacyLessonReport;
+    private LocalDate from;
+    private LocalDate to;
+
+    @Setup(Level.Trial)
+    public void loadFixture() throws SQLException, SoundgoodDBException {
+        new BenchmarkFixture().loadLessons(lessons);
+        to = LocalDate.now().plusDays(1);
+        from = to.minusDays(PERIOD_DAYS);
+        dao = new SoundgoodDAO();
+        SoundgoodDBConfig config = SoundgoodDBConfig.fromSystemProperties();
+        legacyConnection = DriverManager.getConnection(config.getUrl(), config.getUser(), config.getPassword());
+        legacyLessonReport = legacyConnection.prepareStatement(EXTRACT_LESSON_REPORT);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws SQLException {
+        dao.close();
+        legacyLessonReport.close();
+        legacyConnection.close();
+    }
+
+    @Benchmark
+    public Report lessonReport() throws SoundgoodDBException {
+        return dao.findLessonReport(from, to);
+    }
+
+    @Benchmark
+    public Report instructorLessonReport() throws SoundgoodDBException {
+        return dao.findInstructorLessonReport(from, to, 1);
+    }
+
+    @Benchmark
+    public void lessonReportByExtract(Blackhole hole) throws SQLException {
+        legacyLessonReport.setInt(1, asNumber(from));
+        legacyLessonReport.setInt(2, asNumber(to.minusDays(1)));
+        try (ResultSet result = legacyLessonReport.executeQuery()) {
+            while (result.next()) {
+                hole.consume(result.getString(1));
+                hole.consume(result.getLong(2));
+            }
+        }
+    }
+
+    private static int asNumber(LocalDate date) {
+        return date.getYear() * 10000 + date.getMonthValue() * 100 + date.getDayOfMonth();
+    }
+}
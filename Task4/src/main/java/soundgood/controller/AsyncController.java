@@ -0,0 +1,196 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.controller;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+import soundgood.model.InstrumentDTO;
+import soundgood.model.RentalDTO;
+
+/**
+ * A non-blocking facade over <code>Controller</code>. Every method returns at
+ * once with a future, and the operation runs on a thread of its own, see
+ * <code>TaskExecutors</code>. On Java 21 or later that is a virtual thread. Each
+ * operation gets its own database transaction, bound to the thread it runs on,
+ * so any number of operations can be in flight, limited only by the size of the
+ * connection pool.
+ */
+public class AsyncController implements AutoCloseable {
+    private final Controller ctrl;
+    private final ExecutorService executor;
+
+    /**
+     * An operation on the controller.
+     *
+     * @param <T> The result of the operation.
+     */
+    @FunctionalInterface
+    private interface Operation<T> {
+        T run() throws Exception;
+    }
+
+    /**
+     * Creates a new instance that runs all operations on the specified controller.
+     * 
+     * @param ctrl The controller performing the operations.
+     */
+    public AsyncController(Controller ctrl) {
+        this.ctrl = ctrl;
+        this.executor = TaskExecutors.newThreadPerTaskExecutor("soundgood-async");
+    }
+
+    /**
+     * @see Controller#rentInstrument(Integer, Integer, String)
+     * @return A future completed with the ID of the new rental.
+     */
+    public CompletableFuture<Integer> rentInstrument(Integer student_id, Integer instrument_id, String end_date) {
+        return submit(() -> ctrl.rentInstrument(student_id, instrument_id, end_date));
+    }
+
+    /**
+     * @see Controller#createRental(Integer, Integer, String)
+     * @return A future completed when the rental is created.
+     */
+    public CompletableFuture<Void> createRental(Integer student_id, Integer instrument_id, String end_date) {
+        return submit(() -> {
+            ctrl.createRental(student_id, instrument_id, end_date);
+            return null;
+        });
+    }
+
+    /**
+     * @see Controller#markRentalAsTerminated(Integer)
+     * @return A future completed when the rental is terminated.
+     */
+    public CompletableFuture<Void> markRentalAsTerminated(Integer rental_id) {
+        return submit(() -> {
+            ctrl.markRentalAsTerminated(rental_id);
+            return null;
+        });
+    }
+
+    /**
+     * @see Controller#terminateRentals(List)
+     * @return A future completed with the IDs of the terminated rentals.
+     */
+    public CompletableFuture<List<Integer>> terminateRentals(List<Integer> rental_ids) {
+        return submit(() -> ctrl.terminateRentals(rental_ids));
+    }
+
+    /**
+     * @see Controller#terminateRentalsOfStudent(int)
+     * @return A future completed with the IDs of the terminated rentals.
+     */
+    public CompletableFuture<List<Integer>> terminateRentalsOfStudent(int student_id) {
+        return submit(() -> ctrl.terminateRentalsOfStudent(student_id));
+    }
+
+    /**
+     * @see Controller#findInstrumentsByAvailability()
+     * @return A future completed with all available instruments.
+     */
+    public CompletableFuture<List<? extends InstrumentDTO>> findInstrumentsByAvailability() {
+        return submit(ctrl::findInstrumentsByAvailability);
+    }
+
+    /**
+     * @see Controller#findInstrumentsByAvailabilityAndType(String)
+     * @return A future completed with all available instruments of the type.
+     */
+    public CompletableFuture<List<? extends InstrumentDTO>> findInstrumentsByAvailabilityAndType(String type) {
+        return submit(() -> ctrl.findInstrumentsByAvailabilityAndType(type));
+    }
+
+    /**
+     * Streams the whole rental history to the specified action, on the thread of
+     * the operation. Rows are read through the cursor of
+     * <code>Controller.streamRentals</code>, so the history is never loaded into
+     * memory. If the action throws, the stream is closed and the future fails.
+     *
+     * @param action Called with each rental, ordered by rental ID.
+     * @return A future completed with the number of streamed rentals.
+     */
+    public CompletableFuture<Long> streamRentals(Consumer<? super RentalDTO> action) {
+        return submit(() -> {
+            CompletableFuture<Long> streamed = new CompletableFuture<>();
+            ctrl.streamRentals().subscribe(new Flow.Subscriber<RentalDTO>() {
+                private long count = 0;
+
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(RentalDTO rental) {
+                    action.accept(rental);
+                    count++;
+                }
+
+                @Override
+                public void onError(Throwable cause) {
+                    streamed.completeExceptionally(cause);
+                }
+
+                @Override
+                public void onComplete() {
+                    streamed.complete(count);
+                }
+            });
+            // The publisher reads all rows on this thread, within request.
+            return streamed.join();
+        });
+    }
+
+    /**
+     * Stops accepting new operations. Operations already submitted are completed.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private <T> CompletableFuture<T> submit(Operation<T> operation) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    result.complete(operation.run());
+                } catch (Exception e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    ctrl.endOngoingTransaction();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+}
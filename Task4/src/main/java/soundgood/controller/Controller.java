@@ -23,17 +23,41 @@
 
 package soundgood.controller;
 
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 // import javax.security.auth.login.AccountException;
 
+import soundgood.integration.CommitListener;
 import soundgood.integration.SoundgoodDAO;
 import soundgood.integration.SoundgoodDBException;
+import soundgood.model.BookingResult;
+import soundgood.model.Instrument;
+import soundgood.model.InstrumentAvailabilityIndex;
 import soundgood.model.InstrumentDTO;
 import soundgood.model.InstrumentException;
+import soundgood.model.LessonException;
+import soundgood.model.LessonSeatCounter;
 import soundgood.model.RentalDTO;
 import soundgood.model.RentalException;
 import soundgood.model.Rental;
+import soundgood.model.RentalBatch;
+import soundgood.model.RentalRequest;
+import soundgood.model.RentalResult;
+import soundgood.model.Report;
+import soundgood.util.MetricsMXBean;
+import soundgood.util.MetricsRegistry;
+import soundgood.util.OperationMetrics;
 
 /**
  * This is the application's only controller, all calls to the model pass here.
@@ -42,15 +66,72 @@ import soundgood.model.Rental;
  * the data, and finally tells the DAO to store the updated data (if any).
  */
 public class Controller {
+    private static final long RECONCILE_INTERVAL_SECONDS =
+            Long.getLong("soundgood.availability.reconcileSeconds", 60);
+    private static final long SEAT_COUNT_TTL_SECONDS = Long.getLong("soundgood.lessons.seatCountTtlSeconds", 30);
+    private static final int MAX_RENTAL_MONTHS = 12;
+    private static final int HISTORY_BATCH_SIZE = Integer.getInteger("soundgood.history.batchSize", 1000);
+    private static final String STUDENT_TABLE = "student";
+    private static final long REPORT_REFRESH_SECONDS = Long.getLong("soundgood.reports.refreshSeconds", 600);
+    private static final String LESSONS_REPORT = "lessons";
+    private static final String SIBLINGS_REPORT = "siblings";
+    private static final String INSTRUCTORS_REPORT = "instructors";
+    private static final String ENSEMBLES_REPORT = "ensembles";
+    private static final long LESSONS_REPORT_TTL_SECONDS = reportTtlSeconds(LESSONS_REPORT, 300);
+    private static final long SIBLINGS_REPORT_TTL_SECONDS = reportTtlSeconds(SIBLINGS_REPORT, 300);
+    private static final long INSTRUCTORS_REPORT_TTL_SECONDS = reportTtlSeconds(INSTRUCTORS_REPORT, 60);
+    private static final long ENSEMBLES_REPORT_TTL_SECONDS = reportTtlSeconds(ENSEMBLES_REPORT, 10);
+    private static final OperationMetrics CREATE_RENTAL = metricsOf("createRental");
+    private static final OperationMetrics RENT_INSTRUMENT = metricsOf("rentInstrument");
+    private static final OperationMetrics CREATE_RENTALS = metricsOf("createRentals");
+    private static final OperationMetrics MARK_RENTAL_AS_TERMINATED = metricsOf("markRentalAsTerminated");
+    private static final OperationMetrics TERMINATE_RENTALS = metricsOf("terminateRentals");
+    private static final OperationMetrics TERMINATE_RENTALS_IN_RANGES = metricsOf("terminateRentalsInRanges");
+    private static final OperationMetrics TERMINATE_RENTALS_OF_STUDENT = metricsOf("terminateRentalsOfStudent");
+    private static final OperationMetrics FIND_INSTRUMENTS_BY_AVAILABILITY = metricsOf("findInstrumentsByAvailability");
+    private static final OperationMetrics FIND_RENTALS = metricsOf("findRentals");
+    private static final OperationMetrics FIND_RENTALS_COLUMNAR = metricsOf("findRentalsColumnar");
+    private static final OperationMetrics FIND_INSTRUMENTS_BY_AVAILABILITY_AND_TYPE =
+            metricsOf("findInstrumentsByAvailabilityAndType");
+    private static final OperationMetrics RELOAD_AVAILABILITY = metricsOf("reloadAvailability");
+    private static final OperationMetrics IMPORT_CSV = metricsOf("importCsv");
+    private static final OperationMetrics EXPORT_CSV = metricsOf("exportCsv");
+    private static final OperationMetrics REFRESH_LESSON_HISTORY = metricsOf("refreshLessonHistory");
+    private static final OperationMetrics FIND_REPORT = metricsOf("findReport");
+    private static final OperationMetrics REFRESH_REPORTS = metricsOf("refreshReports");
+    private static final OperationMetrics BOOK_LESSON = metricsOf("bookLesson");
     private final SoundgoodDAO soundgoodDB;
+    private final InstrumentAvailabilityIndex availability = new InstrumentAvailabilityIndex();
+    private final LessonSeatCounter seats = new LessonSeatCounter();
+    private final ScheduledExecutorService reconciler;
+    private final RetryPolicy retryPolicy = new RetryPolicy();
+    private final ReportCache reportCache = new ReportCache();
 
     /**
-     * Creates a new instance, and retrieves a connection to the database.
+     * Creates a new instance, retrieves a connection to the database and loads the
+     * instrument availability index.
      * 
      * @throws SoundgoodDBException If unable to connect to the database.
      */
     public Controller() throws SoundgoodDBException {
+        MetricsRegistry.getInstance().registerMBean();
         soundgoodDB = new SoundgoodDAO();
+        reloadAvailability();
+        reconciler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "soundgood-availability-reconciler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reconciler.scheduleWithFixedDelay(this::reconcileAvailability, RECONCILE_INTERVAL_SECONDS,
+                RECONCILE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        if (SEAT_COUNT_TTL_SECONDS > 0) {
+            reconciler.scheduleWithFixedDelay(seats::clear, SEAT_COUNT_TTL_SECONDS, SEAT_COUNT_TTL_SECONDS,
+                    TimeUnit.SECONDS);
+        }
+        if (REPORT_REFRESH_SECONDS > 0) {
+            reconciler.scheduleWithFixedDelay(this::refreshReportsInBackground, REPORT_REFRESH_SECONDS,
+                    REPORT_REFRESH_SECONDS, TimeUnit.SECONDS);
+        }
     }
 
     /**
@@ -59,91 +140,695 @@ public class Controller {
      * @param student_id    The student ID.
      * @param instrument_id The instrument ID.
      * @throws InstrumentException  If unable to rent instrument.
-     * @throws SoundgoodDBException
      */
     public void createRental(Integer student_id, Integer instrument_id, String end_date)
-            throws InstrumentException, SoundgoodDBException {
-        String failureMsg = "Could not create rental for student_id: " + student_id + " and instrument: "
-                + instrument_id + ".";
+            throws InstrumentException {
+        timed(CREATE_RENTAL, () -> retrying(() -> {
+            String failureMsg = "Could not create rental for student_id: " + student_id + " and instrument: "
+                    + instrument_id + ".";
 
-        if (student_id == null || instrument_id == null) {
-            throw new InstrumentException(failureMsg);
-        }
-        // checks if student is already renting 2 instruments
-        List<Rental> rentals = soundgoodDB.findCurrentRentalsByStudent(student_id, true);
-        if (rentals.size() >= 2) {
-            throw new InstrumentException("Rent quota reached");
-        }
-        // checks if instrument is already rented
-        rentals = soundgoodDB.findRentalsByInstrument(instrument_id, true);
-        for (Rental r : rentals) {
-            if (!r.getRentalTerminated()) {
-                throw new InstrumentException("Instrument already rented");
+            if (student_id == null || instrument_id == null) {
+                throw new InstrumentException(failureMsg);
             }
-        }
+            if (parseDate(end_date) == null) {
+                throw new InstrumentException("Invalid end date");
+            }
+            try {
+                // checks if student is already renting 2 instruments
+                Integer currentRentals = soundgoodDB.countCurrentRentalsByStudent(student_id, true);
+                if (currentRentals == null) {
+                    rollbackOngoingTransaction(failureMsg);
+                    throw new InstrumentException("No such student");
+                }
+                if (currentRentals >= 2) {
+                    rollbackOngoingTransaction(failureMsg);
+                    throw new InstrumentException("Rent quota reached");
+                }
+                // locks the instrument, and checks if it is already rented
+                Boolean rented = soundgoodDB.lockInstrumentAndCheckIfRented(instrument_id);
+                if (rented == null) {
+                    rollbackOngoingTransaction(failureMsg);
+                    throw new InstrumentException("No such instrument");
+                }
+                if (rented) {
+                    rollbackOngoingTransaction(failureMsg);
+                    throw new InstrumentException("Instrument already rented");
+                }
 
-        try {
-            soundgoodDB.createRental(student_id, instrument_id, end_date);
-        } catch (SoundgoodDBException e) {
-            throw new InstrumentException(failureMsg, e);
-        }  catch (Exception d) {
-            commitOngoingTransaction(failureMsg);
-            throw d;
-        }
+                soundgoodDB.createRental(student_id, instrument_id, end_date);
+                commitRented(List.of(instrument_id));
+            } catch (SoundgoodDBException e) {
+                throw new InstrumentException(failureMsg, e);
+            }
+            return null;
+        }));
+    }
+
+    /**
+     * Creates a new rental for the specified instrument and student ID. Unlike
+     * <code>createRental</code>, the quota check, the availability check and the
+     * insert are done with one statement, without first locking any rows.
+     * 
+     * @param student_id    The student ID.
+     * @param instrument_id The instrument ID.
+     * @param end_date      The date, formatted <code>yyyy-MM-dd</code>, when the
+     *                      instrument shall be returned.
+     * @return The ID of the new rental.
+     * @throws InstrumentException If the rental was rejected, the message tells
+     *                             why, or if it could not be stored.
+     */
+    public int rentInstrument(Integer student_id, Integer instrument_id, String end_date) throws InstrumentException {
+        return timed(RENT_INSTRUMENT, () -> retrying(() -> {
+            String failureMsg = "Could not create rental for student_id: " + student_id + " and instrument: "
+                    + instrument_id + ".";
+
+            if (student_id == null || instrument_id == null || end_date == null) {
+                throw new InstrumentException(failureMsg);
+            }
+            RentalResult result;
+            try {
+                result = soundgoodDB.createRentalIfAllowed(new RentalRequest(student_id, instrument_id, end_date));
+                if (result.isCreated()) {
+                    commitRented(List.of(instrument_id));
+                }
+            } catch (SoundgoodDBException e) {
+                throw new InstrumentException(failureMsg, e);
+            }
+            if (!result.isCreated()) {
+                throw new InstrumentException(result.getFailureReason());
+            }
+            return result.getRentalID();
+        }));
+    }
+
+    /**
+     * Creates many rentals in one transaction. The rent quota and the availability
+     * of all instruments are checked for the whole batch with a fixed number of
+     * queries, all accepted rentals are inserted with one batch, and everything is
+     * committed once. Requests are handled in list order, so that if two requests
+     * compete for the same instrument or the last quota slot, the first one wins.
+     * 
+     * @param requests The rentals to create.
+     * @return One result per request, in the same order as the requests, telling
+     *         if the rental was created or why it was rejected.
+     * @throws InstrumentException If the batch could not be stored, in which case
+     *                             no rental was created.
+     */
+    public List<RentalResult> createRentals(List<RentalRequest> requests) throws InstrumentException {
+        return timed(CREATE_RENTALS, () -> retrying(() -> {
+            String failureMsg = "Could not create " + requests.size() + " rentals.";
+            Set<Integer> studentIDs = new HashSet<>();
+            Set<Integer> instrumentIDs = new HashSet<>();
+            for (RentalRequest request : requests) {
+                studentIDs.add(request.getStudentID());
+                instrumentIDs.add(request.getInstrumentID());
+            }
+
+            RentalResult[] results = new RentalResult[requests.size()];
+            List<RentalRequest> accepted = new ArrayList<>();
+            List<Integer> acceptedPositions = new ArrayList<>();
+            try {
+                Set<Integer> existingStudents = soundgoodDB.lockStudents(studentIDs);
+                Set<Integer> existingInstruments = soundgoodDB.lockInstruments(instrumentIDs);
+                Map<Integer, Integer> currentRentals = soundgoodDB.countCurrentRentalsByStudents(studentIDs);
+                Set<Integer> rentedInstruments = soundgoodDB.findRentedInstruments(instrumentIDs);
+
+                LocalDate today = LocalDate.now();
+                for (int i = 0; i < requests.size(); i++) {
+                    RentalRequest request = requests.get(i);
+                    LocalDate endDate = parseDate(request.getRentalEndDate());
+                    String rejection = null;
+                    if (!existingStudents.contains(request.getStudentID())) {
+                        rejection = "No such student";
+                    } else if (!existingInstruments.contains(request.getInstrumentID())) {
+                        rejection = "No such instrument";
+                    } else if (endDate == null) {
+                        rejection = "Invalid end date";
+                    } else if (!endDate.isAfter(today)) {
+                        // The rental starts now, and ends at the start of the end date.
+                        rejection = "End date is before the start date";
+                    } else if (endDate.isAfter(today.plusMonths(MAX_RENTAL_MONTHS))) {
+                        rejection = "End date is more than 12 months after the start date";
+                    } else if (currentRentals.getOrDefault(request.getStudentID(), 0) >= 2) {
+                        rejection = "Rent quota reached";
+                    } else if (!rentedInstruments.add(request.getInstrumentID())) {
+                        rejection = "Instrument already rented";
+                    }
+
+                    if (rejection != null) {
+                        results[i] = RentalResult.rejected(request, rejection);
+                    } else {
+                        currentRentals.merge(request.getStudentID(), 1, Integer::sum);
+                        accepted.add(request);
+                        acceptedPositions.add(i);
+                    }
+                }
+
+                if (accepted.isEmpty()) {
+                    soundgoodDB.rollback();
+                } else {
+                    List<Integer> rentalIDs = soundgoodDB.createRentals(accepted);
+                    List<Integer> newlyRented = new ArrayList<>(accepted.size());
+                    for (int i = 0; i < accepted.size(); i++) {
+                        results[acceptedPositions.get(i)] = RentalResult.created(accepted.get(i), rentalIDs.get(i));
+                        newlyRented.add(accepted.get(i).getInstrumentID());
+                    }
+                    commitRented(newlyRented);
+                }
+            } catch (SoundgoodDBException e) {
+                throw new InstrumentException(failureMsg, e);
+            }
+            return List.of(results);
+        }));
     }
 
     /**
      * Terminates rental with the specified rental ID.
      * 
      * @param rental_id The ID of the rental that shall be terminated.
-     * @throws InstrumentException If failed to terminate the specified rental.
+     * @throws InstrumentException If there is no such ongoing rental, or failed to
+     *                             terminate it.
      */
     public void markRentalAsTerminated(Integer rental_id) throws InstrumentException {
-        String failureMsg = "Could not terminate rental: " + rental_id;
+        timed(MARK_RENTAL_AS_TERMINATED, () -> retrying(() -> {
+            String failureMsg = "Could not terminate rental: " + rental_id;
 
-        if (rental_id == null) {
-            throw new InstrumentException(failureMsg);
-        }
+            if (rental_id == null) {
+                throw new InstrumentException(failureMsg);
+            }
 
-        try {
-            soundgoodDB.markRentalAsTerminated(rental_id);
+            Rental terminated;
+            try {
+                terminated = soundgoodDB.markRentalAsTerminated(rental_id);
+                if (terminated == null) {
+                    soundgoodDB.rollback();
+                } else {
+                    commitReturned(List.of(terminated));
+                }
             } catch (Exception e) {
                 throw new InstrumentException(failureMsg, e);
+            }
+            if (terminated == null) {
+                throw new InstrumentException("No such active rental");
+            }
+            return null;
+        }));
+    }
+
+    /**
+     * Terminates all the specified rentals in one transaction. Rentals that do not
+     * exist or are already terminated are skipped.
+     * 
+     * @param rental_ids The IDs of the rentals that shall be terminated.
+     * @return The IDs of the rentals that were actually terminated.
+     * @throws InstrumentException If failed to terminate the rentals, in which
+     *                             case none of them is terminated.
+     */
+    public List<Integer> terminateRentals(List<Integer> rental_ids) throws InstrumentException {
+        return timed(TERMINATE_RENTALS, () -> retrying(() -> {
+            String failureMsg = "Could not terminate rentals: " + rental_ids;
+
+            if (rental_ids == null || rental_ids.contains(null)) {
+                throw new InstrumentException(failureMsg);
+            }
+
+            try {
+                return commitReturned(soundgoodDB.terminateRentals(rental_ids));
+            } catch (Exception e) {
+                throw new InstrumentException(failureMsg, e);
+            }
+        }));
+    }
+
+    /**
+     * Terminates all rentals with IDs in any of the specified ranges, inclusive, in
+     * one transaction. Rentals that are already terminated are skipped. The ranges
+     * are sent to the database as they are, so their size does not matter.
+     * 
+     * @param first_rental_ids The lowest ID of each range.
+     * @param last_rental_ids  The highest ID of each range, in the same order as
+     *                         <code>first_rental_ids</code>.
+     * @return The IDs of the rentals that were actually terminated.
+     * @throws InstrumentException If failed to terminate the rentals, in which
+     *                             case none of them is terminated.
+     */
+    public List<Integer> terminateRentalsInRanges(int[] first_rental_ids, int[] last_rental_ids)
+            throws InstrumentException {
+        return timed(TERMINATE_RENTALS_IN_RANGES, () -> retrying(() -> {
+            String failureMsg = "Could not terminate rentals in " + first_rental_ids.length + " ranges";
+
+            if (first_rental_ids.length != last_rental_ids.length) {
+                throw new InstrumentException(failureMsg);
+            }
+            for (int i = 0; i < first_rental_ids.length; i++) {
+                if (first_rental_ids[i] > last_rental_ids[i]) {
+                    throw new InstrumentException(failureMsg);
                 }
+            }
+
+            try {
+                return commitReturned(soundgoodDB.terminateRentalsInRanges(first_rental_ids, last_rental_ids));
+            } catch (Exception e) {
+                throw new InstrumentException(failureMsg, e);
+            }
+        }));
+    }
+
+    /**
+     * Terminates all ongoing rentals of the specified student in one transaction.
+     * 
+     * @param student_id The student whose rentals shall be terminated.
+     * @return The IDs of the rentals that were actually terminated.
+     * @throws InstrumentException If failed to terminate the rentals, in which
+     *                             case none of them is terminated.
+     */
+    public List<Integer> terminateRentalsOfStudent(int student_id) throws InstrumentException {
+        return timed(TERMINATE_RENTALS_OF_STUDENT, () -> retrying(() -> {
+            try {
+                return commitReturned(soundgoodDB.terminateRentalsByStudent(student_id));
+            } catch (Exception e) {
+                throw new InstrumentException("Could not terminate rentals of student: " + student_id, e);
+            }
+        }));
+    }
+
+    /**
+     * Lists all instruments that are not rented. The answer comes from the
+     * in-memory availability index, without calling the database.
+     * 
+     * @return A list containing all available instruments, ordered by instrument
+     *         ID. The list is empty if there are no such instruments.
+     */
+    public List<? extends InstrumentDTO> findInstrumentsByAvailability() {
+        return timed(FIND_INSTRUMENTS_BY_AVAILABILITY, () -> availability.findAvailable());
+    }
+
+    // Returns whole rental history
+    public List<? extends RentalDTO> findRentals() throws RentalException {
+        return timed(FIND_RENTALS, () -> {
+            try {
+                return soundgoodDB.findRentals();
+            } catch (Exception e) {
+                throw new RentalException("Unable to show rentals", e);
+            }
+        });
+    }
+
+    /**
+     * Loads the whole rental history into a compact, columnar batch, for bulk
+     * processing and analytics that need all rentals in memory at once.
+     * 
+     * @return All rentals, ordered by rental ID.
+     * @throws RentalException If unable to read the rentals.
+     */
+    public RentalBatch findRentalsColumnar() throws RentalException {
+        return timed(FIND_RENTALS_COLUMNAR, () -> {
+            try {
+                return soundgoodDB.findRentalsColumnar();
+            } catch (Exception e) {
+                throw new RentalException("Unable to show rentals", e);
+            }
+        });
+    }
+
+    /**
+     * Streams the whole rental history. Rows are delivered as the subscriber
+     * requests them, without loading the history into memory.
+     * 
+     * @return A publisher of all rentals, ordered by rental ID.
+     */
+    public Flow.Publisher<RentalDTO> streamRentals() {
+        return soundgoodDB.streamRentals();
+    }
+
+    /**
+     * Lists all instruments of the specified type that are not rented. The answer
+     * comes from the in-memory availability index, without calling the database.
+     * 
+     * @param type The instrument type, matched without regard to case.
+     * @return A list containing all available instruments of the type, ordered by
+     *         instrument ID. The list is empty if there are no such instruments.
+     */
+    public List<? extends InstrumentDTO> findInstrumentsByAvailabilityAndType(String type) {
+        return timed(FIND_INSTRUMENTS_BY_AVAILABILITY_AND_TYPE, () -> availability.findAvailableByType(type));
+    }
+
+    /**
+     * Reloads the availability index from the database, to pick up instruments and
+     * rentals that were changed without passing this controller.
+     * 
+     * @throws SoundgoodDBException If unable to read the database.
+     */
+    public void reloadAvailability() throws SoundgoodDBException {
+        timed(RELOAD_AVAILABILITY, () -> {
+            availability.beginReload();
+            try {
+                List<Instrument> instruments = soundgoodDB.findAllInstruments();
+                List<Integer> rentedInstrumentIDs = soundgoodDB.findRentedInstrumentIDs();
+                availability.reload(instruments, rentedInstrumentIDs);
+            } finally {
+                availability.endReload();
+            }
+            return null;
+        });
+    }
+
+    /**
+     * @return The names of the tables that can be imported from and exported to
+     *         CSV files.
+     */
+    public Set<String> findCsvTables() {
+        return soundgoodDB.findCsvTables();
+    }
+
+    /**
+     * Inserts all rows of a CSV file into the specified table, in one transaction.
+     * The file shall start with a header line naming the columns it contains. If
+     * instruments or rentals are imported, the availability index is reloaded.
+     *
+     * @param table    The table to insert into.
+     * @param fileName The file to read.
+     * @return The number of inserted rows.
+     * @throws SoundgoodDBException If the file could not be imported, in which case
+     *                              no row is inserted.
+     */
+    public long importCsv(String table, String fileName) throws SoundgoodDBException {
+        return timed(IMPORT_CSV, () -> {
+            long rows = soundgoodDB.importCsv(table, Path.of(fileName));
+            IMPORT_CSV.addRows(rows);
+            if (!table.equals(STUDENT_TABLE)) {
+                reloadAvailability();
+            }
+            return rows;
+        });
+    }
+
+    /**
+     * Writes all rows of the specified table to a CSV file, which is replaced if it
+     * exists.
+     *
+     * @param table    The table to export.
+     * @param fileName The file to write.
+     * @return The number of written rows.
+     * @throws SoundgoodDBException If the table could not be exported.
+     */
+    public long exportCsv(String table, String fileName) throws SoundgoodDBException {
+        return timed(EXPORT_CSV, () -> {
+            long rows = soundgoodDB.exportCsv(table, Path.of(fileName));
+            EXPORT_CSV.addRows(rows);
+            return rows;
+        });
+    }
+
+    /**
+     * Appends the enrollments made since the last refresh to the lesson history,
+     * in batches of <code>soundgood.history.batchSize</code> enrollments, each
+     * committed on its own. If the refresh is interrupted, the next one continues
+     * after the last committed batch. Enrollments made while refreshing are left
+     * for the next refresh.
+     *
+     * @return The number of enrollments appended to the history.
+     * @throws SoundgoodDBException If a batch could not be appended. Batches
+     *                              appended before the failing one are kept.
+     */
+    public long refreshLessonHistory() throws SoundgoodDBException {
+        return timed(REFRESH_LESSON_HISTORY, () -> {
+            long lastEnrollment = soundgoodDB.findLastEnrollment();
+            long appended = 0;
+            int batch;
+            do {
+                batch = soundgoodDB.appendEnrollmentsToHistory(lastEnrollment, HISTORY_BATCH_SIZE);
+                appended += batch;
+                REFRESH_LESSON_HISTORY.addRows(batch);
+            } while (batch > 0);
+            return appended;
+        });
+    }
+
+    /**
+     * Books a seat on the specified lesson for the specified student. A lesson
+     * that is known to be full is rejected by the in-memory seat counter, without
+     * calling the database. Otherwise the seat is taken and the student enrolled
+     * with one conditional statement, which never overbooks the lesson. The
+     * seat counter only learns the outcome when the booking is committed, which
+     * in batch mode is when the batch is, and forgets all lessons every
+     * <code>soundgood.lessons.seatCountTtlSeconds</code>.
+     *
+     * @param studentID The student to enroll.
+     * @param lessonID  The lesson to book.
+     * @return The number of free seats left on the lesson.
+     * @throws LessonException If the booking was rejected, the message tells why,
+     *                         or if it could not be stored.
+     */
+    public int bookLesson(Integer studentID, Integer lessonID) throws LessonException {
+        return timed(BOOK_LESSON, () -> {
+            String failureMsg = "Could not book lesson: " + lessonID + " for student_id: " + studentID + ".";
+
+            if (studentID == null || lessonID == null) {
+                throw new LessonException(failureMsg);
+            }
+            LessonSeatCounter.Reservation reservation = seats.reserve(lessonID);
+            if (reservation == LessonSeatCounter.Reservation.FULL) {
+                throw new LessonException(BookingResult.LESSON_FULL);
+            }
+            BookingResult result;
+            try {
+                result = soundgoodDB.bookLesson(studentID, lessonID);
+            } catch (SoundgoodDBException e) {
+                seats.cancel(lessonID, reservation);
+                throw new LessonException(failureMsg, e);
+            }
+            if (!result.isBooked()) {
+                seats.cancel(lessonID, reservation);
+                if (result.isLessonFull()) {
+                    soundgoodDB.afterCommit(lessonID, () -> seats.markFull(lessonID));
+                }
+                throw new LessonException(result.getFailureReason());
+            }
+            soundgoodDB.afterCommit(lessonID, new CommitListener() {
+                @Override
+                public void committed() {
+                    seats.markBooked(lessonID, reservation, result.getSeatsLeft());
+                    reportCache.invalidate(ENSEMBLES_REPORT);
+                }
+
+                @Override
+                public void rolledBack() {
+                    seats.cancel(lessonID, reservation);
+                }
+            });
+            try {
+                soundgoodDB.commit();
+            } catch (SoundgoodDBException e) {
+                throw new LessonException(failureMsg, e);
+            }
+            return result.getSeatsLeft();
+        });
+    }
+
+    /**
+     * Counts the lessons of each month of the specified year, by lesson type. The
+     * report is cached for <code>soundgood.report.lessons.ttlSeconds</code>.
+     *
+     * @param year The year.
+     * @return The report.
+     * @throws SoundgoodDBException If unable to read the report.
+     */
+    public Report getMonthlyLessonReport(int year) throws SoundgoodDBException {
+        return cachedReport(LESSONS_REPORT + " " + year, LESSONS_REPORT_TTL_SECONDS,
+                () -> soundgoodDB.findMonthlyLessonReport(year));
+    }
+
+    /**
+     * Counts the students with each number of siblings, up to the specified
+     * number. The report is cached for
+     * <code>soundgood.report.siblings.ttlSeconds</code>.
+     *
+     * @param maxSiblings The highest number of siblings included.
+     * @return The report.
+     * @throws SoundgoodDBException If unable to read the report.
+     */
+    public Report getSiblingReport(int maxSiblings) throws SoundgoodDBException {
+        return cachedReport(SIBLINGS_REPORT + " " + maxSiblings, SIBLINGS_REPORT_TTL_SECONDS,
+                () -> soundgoodDB.findSiblingReport(maxSiblings));
+    }
+
+    /**
+     * Counts the lessons of each instructor with at least one lesson in the
+     * specified month. The report is cached for
+     * <code>soundgood.report.instructors.ttlSeconds</code>.
+     *
+     * @param year  The year.
+     * @param month The month, 1-12.
+     * @return The report.
+     * @throws SoundgoodDBException If unable to read the report.
+     */
+    public Report getInstructorLessonReport(int year, int month) throws SoundgoodDBException {
+        return cachedReport(INSTRUCTORS_REPORT + " " + year + "-" + month, INSTRUCTORS_REPORT_TTL_SECONDS,
+                () -> soundgoodDB.findInstructorLessonReport(year, month, 1));
+    }
+
+    /**
+     * Counts the lessons that start in the specified period, by month and lesson
+     * type. Unlike the yearly report, this one is computed from the lessons, not
+     * from a materialized view. The report is cached for
+     * <code>soundgood.report.lessons.ttlSeconds</code>.
+     *
+     * @param from The first day of the period.
+     * @param to   The day after the last day of the period.
+     * @return The report.
+     * @throws SoundgoodDBException If unable to read the report.
+     */
+    public Report getLessonReport(LocalDate from, LocalDate to) throws SoundgoodDBException {
+        return cachedReport(LESSONS_REPORT + " " + from + " " + to, LESSONS_REPORT_TTL_SECONDS,
+                () -> soundgoodDB.findLessonReport(from, to));
+    }
+
+    /**
+     * Counts the lessons of each instructor that start in the specified period.
+     * Unlike the monthly report, this one is computed from the lessons, not from
+     * a materialized view. The report is cached for
+     * <code>soundgood.report.instructors.ttlSeconds</code>.
+     *
+     * @param from The first day of the period.
+     * @param to   The day after the last day of the period.
+     * @return The report.
+     * @throws SoundgoodDBException If unable to read the report.
+     */
+    public Report getInstructorLessonReport(LocalDate from, LocalDate to) throws SoundgoodDBException {
+        return cachedReport(INSTRUCTORS_REPORT + " " + from + " " + to, INSTRUCTORS_REPORT_TTL_SECONDS,
+                () -> soundgoodDB.findInstructorLessonReport(from, to, 1));
+    }
+
+    /**
+     * Tells how many seats are left on the ensemble lessons of the coming week.
+     * The report is cached for <code>soundgood.report.ensembles.ttlSeconds</code>.
+     *
+     * @return The report.
+     * @throws SoundgoodDBException If unable to read the report.
+     */
+    public Report getEnsembleSeatReport() throws SoundgoodDBException {
+        return cachedReport(ENSEMBLES_REPORT, ENSEMBLES_REPORT_TTL_SECONDS, soundgoodDB::findEnsembleSeatReport);
+    }
+
+    /**
+     * Recomputes the materialized views behind the reports, and empties the report
+     * cache. This is also done every <code>soundgood.reports.refreshSeconds</code>.
+     *
+     * @throws SoundgoodDBException If unable to refresh the views.
+     */
+    public void refreshReports() throws SoundgoodDBException {
+        timed(REFRESH_REPORTS, () -> {
+            soundgoodDB.refreshReportViews();
+            reportCache.invalidateAll();
+            return null;
+        });
+    }
+
+    /**
+     * Empties the report cache, so that the next request for each report reads it
+     * from the database.
+     */
+    public void invalidateReports() {
+        reportCache.invalidateAll();
+    }
+
+
+    /**
+     * Shows how the database executes each of the frequently used statements, with
+     * sequential scans disabled, to verify that an index exists that can serve
+     * each of them. It does not tell whether the planner would choose that index
+     * for the current table sizes and statistics, see
+     * <code>SoundgoodDAO.explainHotQueries(boolean)</code>.
+     * 
+     * @return The plan of each statement, by statement name.
+     * @throws SoundgoodDBException If unable to explain the statements.
+     */
+    public Map<String, String> explainHotQueries() throws SoundgoodDBException {
+        return soundgoodDB.explainHotQueries();
+    }
+
+    /**
+     * @return The metrics of all measured database statements and controller
+     *         operations.
+     */
+    public MetricsMXBean getMetrics() {
+        return MetricsRegistry.getInstance();
+    }
+
+    /**
+     * Starts batch mode on the calling thread. Until <code>endBatch</code> is
+     * called, operations on this thread are not committed one by one, but together
+     * when <code>commitBatch</code> is called. Each operation shall be preceded by
+     * a call to <code>beginBatchedOperation</code>, so that a failed operation
+     * only undoes its own changes.
+     */
+    public void beginBatch() {
+        soundgoodDB.beginBatch();
+    }
+
+    /**
+     * Marks the start of an operation in the calling thread's batch.
+     * 
+     * @throws InstrumentException If unable to mark the start of the operation.
+     */
+    public void beginBatchedOperation() throws InstrumentException {
+        try {
+            soundgoodDB.beginBatchedOperation();
+        } catch (SoundgoodDBException e) {
+            throw new InstrumentException("Could not start batched operation.", e);
         }
+    }
 
     /**
-     * Lists all students who are not allowed to rent more instruments.
+     * Commits all operations performed in the calling thread's batch since it was
+     * started or last committed.
      * 
-     * @return A list containing all students who rent two instruments. The list
-     *         is empty if there are no such students.
-     * @throws InstrumentException If unable to retrieve accounts.
+     * @throws InstrumentException If unable to commit, in which case none of the
+     *                             operations of the batch is stored.
      */
-    public List<? extends InstrumentDTO> findInstrumentsByAvailability() throws InstrumentException {
+    public void commitBatch() throws InstrumentException {
         try {
-            return soundgoodDB.findInstrumentsByAvailability();
-        } catch (Exception e) {
-            throw new InstrumentException("Unable to retrieve instruments.", e);
+            soundgoodDB.commitBatch();
+        } catch (SoundgoodDBException e) {
+            throw new InstrumentException("Could not commit batch.", e);
         }
     }
 
-    // Returns whole rental history
-    public List<? extends RentalDTO> findRentals() throws RentalException {
+    /**
+     * Leaves batch mode on the calling thread. Operations that have not been
+     * committed are rolled back.
+     */
+    public void endBatch() {
         try {
-            return soundgoodDB.findRentals();
-        } catch (Exception e) {
-            throw new RentalException("Unable to show rentals", e);
+            soundgoodDB.endBatch();
+        } catch (SoundgoodDBException e) {
+            // The connection is discarded by the pool.
         }
     }
 
-    public List<? extends InstrumentDTO> findInstrumentsByAvailabilityAndType(String type) throws InstrumentException {
+    /**
+     * Rolls back any transaction that an operation left open on the calling thread,
+     * and returns its connection to the pool. Used by callers that run
+     * operations on shared threads, so that one operation can never see the
+     * transaction of another.
+     */
+    public void endOngoingTransaction() {
         try {
-            return soundgoodDB.findInstrumentsByAvailabilityAndType(type);
-        } catch (Exception e) {
-            throw new InstrumentException("Unable to retrieve instruments.", e);
+            soundgoodDB.rollback();
+        } catch (SoundgoodDBException e) {
+            // The connection is discarded by the pool.
         }
     }
 
+    /**
+     * Releases all database resources held by this controller. The controller can
+     * not be used after this method has been called.
+     */
+    public void close() {
+        reconciler.shutdownNow();
+        soundgoodDB.close();
+    }
 
     /*private void commitOngoingTransaction(String failureMsg) throws AccountException {
         try {
@@ -153,11 +838,143 @@ public class Controller {
         }
     }*/
 
-    private void commitOngoingTransaction(String failureMsg) throws InstrumentException {
+    /**
+     * Commits the ongoing transaction, and marks the specified instruments as
+     * rented in the availability index when the transaction, or in batch mode the
+     * batch, is committed. The index is updated under the lock of each instrument,
+     * so updates of the same instrument are applied in commit order.
+     */
+    private void commitRented(List<Integer> instrumentIDs) throws SoundgoodDBException {
+        for (int instrumentID : instrumentIDs) {
+            soundgoodDB.afterCommit(instrumentID, () -> availability.markRented(instrumentID));
+        }
+        soundgoodDB.commit();
+    }
+
+    /**
+     * Commits the ongoing transaction, and marks the instruments of the specified
+     * rentals as returned in the availability index when it is committed, like
+     * <code>commitRented</code>.
+     *
+     * @return The IDs of the specified rentals.
+     */
+    private List<Integer> commitReturned(List<Rental> terminated) throws SoundgoodDBException {
+        List<Integer> rentalIDs = new ArrayList<>(terminated.size());
+        for (Rental rental : terminated) {
+            int instrumentID = rental.getRentalInstrumentID();
+            soundgoodDB.afterCommit(instrumentID, () -> availability.markReturned(instrumentID));
+            rentalIDs.add(rental.getRentalID());
+        }
+        soundgoodDB.commit();
+        return rentalIDs;
+    }
+
+    /**
+     * One operation of this controller, whose duration and outcome are measured.
+     */
+    @FunctionalInterface
+    private interface Operation<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    /**
+     * Runs the specified operation, and records its duration and outcome in the
+     * specified metrics.
+     */
+    private static <T, E extends Exception> T timed(OperationMetrics metrics, Operation<T, E> operation) throws E {
+        OperationMetrics.Timer timer = metrics.start();
+        boolean succeeded = false;
+        try {
+            T result = operation.run();
+            succeeded = true;
+            return result;
+        } finally {
+            if (!succeeded) {
+                timer.fail();
+            }
+            timer.stop();
+        }
+    }
+
+    /**
+     * One attempt of an operation that is retried if it fails because of
+     * concurrent transactions.
+     */
+    @FunctionalInterface
+    private interface Transaction<T> {
+        T run() throws InstrumentException;
+    }
+
+    /**
+     * Runs the specified transaction, and runs it again as long as it fails
+     * because of concurrent transactions and the retry policy allows another
+     * attempt. In batch mode, the transaction is run only once, since such a
+     * failure rolls back the whole batch.
+     */
+    private <T> T retrying(Transaction<T> transaction) throws InstrumentException {
+        if (soundgoodDB.isInBatch()) {
+            return transaction.run();
+        }
+        for (int attempt = 1;; attempt++) {
+            try {
+                return transaction.run();
+            } catch (InstrumentException e) {
+                if (!retryPolicy.awaitRetry(e, attempt)) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private Report cachedReport(String key, long ttlSeconds, ReportCache.Loader loader)
+            throws SoundgoodDBException {
+        return timed(FIND_REPORT, () -> reportCache.get(key, ttlSeconds, loader));
+    }
+
+    private static long reportTtlSeconds(String report, long defaultSeconds) {
+        return Long.getLong("soundgood.report." + report + ".ttlSeconds", defaultSeconds);
+    }
+
+    private static OperationMetrics metricsOf(String operation) {
+        return MetricsRegistry.getInstance().operation("ctrl." + operation);
+    }
+
+    private void reconcileAvailability() {
+        try {
+            reloadAvailability();
+        } catch (SoundgoodDBException e) {
+            // The index stays as it is until the next attempt.
+        }
+    }
+
+    private void refreshReportsInBackground() {
+        try {
+            refreshReports();
+        } catch (SoundgoodDBException e) {
+            // The reports stay as they are until the next attempt.
+        }
+    }
+
+    /**
+     * @return The specified <code>yyyy-MM-dd</code> date, or <code>null</code> if
+     *         it is missing or not a valid date.
+     */
+    private static LocalDate parseDate(String date) {
+        if (date == null) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(date);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private void rollbackOngoingTransaction(String failureMsg) throws InstrumentException {
         try {
-            soundgoodDB.commit();
+            soundgoodDB.rollback();
         } catch (SoundgoodDBException bdbe) {
             throw new InstrumentException(failureMsg, bdbe);
         }
     }
-}
+}
\ No newline at end of file
@@ -0,0 +1,123 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.controller;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import soundgood.integration.SoundgoodDBException;
+import soundgood.model.Report;
+
+/**
+ * Keeps read reports for a time to live, which is given per report, so that
+ * clients polling a report do not read the database on every request. A report
+ * is read again when its time to live has passed, or after it has been
+ * invalidated.
+ *
+ * Clients that ask for the same expired report at the same time may all read
+ * it. That costs some extra reads of precomputed rows, and saves a lock on every
+ * cache hit. Storing a read report and invalidating share one lock, so that a
+ * report read before an invalidation is never stored after it.
+ */
+class ReportCache {
+    private final Map<String, CachedReport> reports = new ConcurrentHashMap<>();
+    // changed by every invalidation, so that a report read before it is not cached after it
+    private long generation = 0;
+
+    /**
+     * Reads a report.
+     */
+    interface Loader {
+        Report load() throws SoundgoodDBException;
+    }
+
+    private static class CachedReport {
+        private final Report report;
+        private final long expiresAtNanos;
+
+        CachedReport(Report report, long expiresAtNanos) {
+            this.report = report;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+
+    /**
+     * Returns the cached report with the specified key, or reads and caches it if
+     * there is none, or if it has expired.
+     *
+     * @param key        Identifies the report, including its parameters.
+     * @param ttlSeconds How long a read report is kept. Zero or less means that it
+     *                   is never cached.
+     * @param loader     Reads the report.
+     * @return The report.
+     * @throws SoundgoodDBException If the report was not cached, and could not be
+     *                              read.
+     */
+    Report get(String key, long ttlSeconds, Loader loader) throws SoundgoodDBException {
+        long now = System.nanoTime();
+        CachedReport cached = reports.get(key);
+        if (cached != null && now - cached.expiresAtNanos < 0) {
+            return cached.report;
+        }
+        long readGeneration = currentGeneration();
+        Report report = loader.load();
+        if (ttlSeconds > 0) {
+            store(key, new CachedReport(report, now + TimeUnit.SECONDS.toNanos(ttlSeconds)), readGeneration);
+        }
+        return report;
+    }
+
+    /**
+     * Removes all cached reports whose key starts with the specified prefix.
+     *
+     * @param keyPrefix The prefix, for example the name of a report.
+     */
+    synchronized void invalidate(String keyPrefix) {
+        generation++;
+        reports.keySet().removeIf(key -> key.startsWith(keyPrefix));
+    }
+
+    /**
+     * Removes all cached reports.
+     */
+    synchronized void invalidateAll() {
+        generation++;
+        reports.clear();
+    }
+
+    private synchronized long currentGeneration() {
+        return generation;
+    }
+
+    /**
+     * Stores the specified report, unless the cache has been invalidated since it
+     * was read.
+     */
+    private synchronized void store(String key, CachedReport report, long readGeneration) {
+        if (generation == readGeneration) {
+            reports.put(key, report);
+        }
+    }
+}
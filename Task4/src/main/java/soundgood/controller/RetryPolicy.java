@@ -0,0 +1,114 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.controller;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import soundgood.integration.SoundgoodDBException;
+import soundgood.util.MetricsRegistry;
+import soundgood.util.OperationMetrics;
+
+/**
+ * Decides if a failed transaction shall be tried again, and waits before the
+ * next attempt. Only transactions that failed because of concurrent
+ * transactions, such as deadlocks, serialization failures and lock timeouts, are
+ * retried. The wait grows exponentially with each attempt, and is randomized
+ * so that the transactions that collided do not collide again.
+ *
+ * The settings are read from the system properties
+ * <code>soundgood.retry.maxAttempts</code>,
+ * <code>soundgood.retry.baseDelayMillis</code> and
+ * <code>soundgood.retry.maxDelayMillis</code>.
+ */
+class RetryPolicy {
+    private static final OperationMetrics BACKOFF = MetricsRegistry.getInstance().operation("retry.backoff");
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    /**
+     * Creates a new instance with the settings in the system properties.
+     */
+    RetryPolicy() {
+        this(Integer.getInteger("soundgood.retry.maxAttempts", 5),
+                Long.getLong("soundgood.retry.baseDelayMillis", 10),
+                Long.getLong("soundgood.retry.maxDelayMillis", 1_000));
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param maxAttempts     The highest number of times a transaction is tried,
+     *                        including the first attempt.
+     * @param baseDelayMillis The longest wait before the second attempt.
+     * @param maxDelayMillis  The longest wait before any attempt.
+     */
+    RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMillis = Math.max(1, baseDelayMillis);
+        this.maxDelayMillis = Math.max(this.baseDelayMillis, maxDelayMillis);
+    }
+
+    /**
+     * Decides if the transaction that failed with the specified exception shall
+     * be tried again, and if so, waits until it is time for the next attempt.
+     *
+     * @param failure The exception thrown by the transaction.
+     * @param attempt The number of the failed attempt, the first attempt is
+     *                number one.
+     * @return <code>true</code> if the transaction shall be tried again.
+     */
+    boolean awaitRetry(Exception failure, int attempt) {
+        if (!isTransient(failure)) {
+            return false;
+        }
+        if (attempt >= maxAttempts) {
+            MetricsRegistry.getInstance().recordRetriesExhausted();
+            return false;
+        }
+        long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 20));
+        long delayNanos = TimeUnit.MILLISECONDS.toNanos(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        MetricsRegistry.getInstance().recordRetry();
+        long startTime = System.nanoTime();
+        try {
+            TimeUnit.NANOSECONDS.sleep(delayNanos);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            BACKOFF.record(System.nanoTime() - startTime, true);
+        }
+        return true;
+    }
+
+    private static boolean isTransient(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SoundgoodDBException) {
+                return ((SoundgoodDBException) cause).isTransient();
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.integration;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread safe pool of database connections. The pool keeps at least the
+ * configured minimum number of connections open, and never opens more than the
+ * configured maximum. Connections that have been idle for a while are validated
+ * before they are handed out, and connections above the minimum are closed when
+ * they have been idle longer than the idle timeout.
+ */
+class ConnectionPool implements AutoCloseable {
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final SoundgoodDBConfig config;
+    private final Map<String, String> statementNames;
+    private final SlowStatementLog slowLog;
+    private final Semaphore permits;
+    private final Deque<PooledConnection> idleConnections = new ArrayDeque<>();
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed = false;
+
+    /**
+     * Creates a new pool and opens the minimum number of connections.
+     *
+     * @param config         The connection and pool settings.
+     * @param statementNames The names of statements in metrics, by their SQL.
+     * @throws SQLException If unable to open the initial connections.
+     */
+    ConnectionPool(SoundgoodDBConfig config, Map<String, String> statementNames) throws SQLException {
+        this.config = config;
+        this.statementNames = statementNames;
+        this.slowLog = new SlowStatementLog(config);
+        this.permits = new Semaphore(config.getPoolMaxSize(), true);
+        fillToMinimum();
+        evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "soundgood-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1_000, config.getIdleTimeoutMillis() / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdleConnections, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Takes a connection from the pool, opening a new one if no idle connection is
+     * available and the maximum size is not reached. Blocks until a connection is
+     * available or the borrow timeout expires.
+     *
+     * @return A connection that must be handed back with <code>release</code>.
+     * @throws SQLException If no connection could be obtained.
+     */
+    PooledConnection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("The connection pool is closed.");
+        }
+        try {
+            if (!permits.tryAcquire(config.getBorrowTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+                throw new SQLTimeoutException("Timed out waiting for a database connection.");
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection.", ie);
+        }
+        try {
+            PooledConnection conn;
+            while ((conn = pollIdleConnection()) != null) {
+                if (isUsable(conn)) {
+                    return conn;
+                }
+                discard(conn);
+            }
+            return openConnection();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Hands back a connection taken with <code>borrow</code>. The connection must
+     * not have an ongoing transaction.
+     *
+     * @param conn The connection to hand back.
+     */
+    void release(PooledConnection conn) {
+        try {
+            if (closed || conn.isBroken()) {
+                discard(conn);
+            } else {
+                conn.markIdle();
+                synchronized (idleConnections) {
+                    idleConnections.push(conn);
+                }
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Closes all idle connections. Connections that are currently borrowed are
+     * closed when they are released.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        List<PooledConnection> toClose;
+        synchronized (idleConnections) {
+            toClose = new ArrayList<>(idleConnections);
+            idleConnections.clear();
+        }
+        toClose.forEach(this::discard);
+    }
+
+    private PooledConnection pollIdleConnection() {
+        synchronized (idleConnections) {
+            return idleConnections.poll();
+        }
+    }
+
+    private boolean isUsable(PooledConnection conn) {
+        long idleMillis = System.currentTimeMillis() - conn.getIdleSince();
+        if (idleMillis < config.getValidationIntervalMillis()) {
+            return !conn.isBroken();
+        }
+        return conn.isValid(VALIDATION_TIMEOUT_SECONDS);
+    }
+
+    private PooledConnection openConnection() throws SQLException {
+        Connection connection = DriverManager.getConnection(config.getUrl(), config.getUser(),
+                config.getPassword());
+        connection.setAutoCommit(false);
+        connection.setTransactionIsolation(config.getIsolationLevel());
+        openConnections.incrementAndGet();
+        return new PooledConnection(connection, config.getStatementCacheSize(), statementNames, slowLog);
+    }
+
+    private void discard(PooledConnection conn) {
+        openConnections.decrementAndGet();
+        conn.closeQuietly();
+    }
+
+    private void fillToMinimum() throws SQLException {
+        while (!closed && openConnections.get() < config.getPoolMinSize()) {
+            PooledConnection conn = openConnection();
+            synchronized (idleConnections) {
+                idleConnections.addLast(conn);
+            }
+        }
+    }
+
+    private void evictIdleConnections() {
+        List<PooledConnection> evicted = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        synchronized (idleConnections) {
+            while (openConnections.get() - evicted.size() > config.getPoolMinSize()
+                    && !idleConnections.isEmpty()
+                    && now - idleConnections.peekLast().getIdleSince() >= config.getIdleTimeoutMillis()) {
+                evicted.add(idleConnections.pollLast());
+            }
+        }
+        evicted.forEach(this::discard);
+        try {
+            fillToMinimum();
+        } catch (SQLException sqle) {
+            // The database is unreachable right now, the next run tries again.
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.integration;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * Moves whole tables between CSV files and the database with the COPY command of
+ * PostgreSQL, which streams all rows in one statement instead of executing one
+ * statement per row. Only the tables and columns listed here can be copied, so
+ * no table or column name from a file ever reaches SQL unchecked.
+ *
+ * Files are UTF-8 encoded CSV, as specified by RFC 4180, with a header line
+ * naming the columns. An imported file may leave out columns, for example the
+ * ID, which is then generated by the database.
+ */
+class CsvCopier {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_HEADER_LENGTH = 4 * 1024;
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+    private static final String CSV_OPTIONS = " WITH (FORMAT csv, HEADER true, ENCODING 'UTF8')";
+    /*
+     * The columns of each table that can be copied, the first one is the primary
+     * key. The number of active rentals of a student is left out, since it is
+     * maintained by a trigger when rentals are imported.
+     */
+    private static final Map<String, List<String>> COLUMNS_BY_TABLE = new LinkedHashMap<>();
+
+    static {
+        COLUMNS_BY_TABLE.put("instrument", List.of("instrument_id", "type", "brand", "location", "price"));
+        COLUMNS_BY_TABLE.put("student",
+                List.of("student_id", "personal_number", "name", "email", "street", "zip", "city"));
+        COLUMNS_BY_TABLE.put("rental", List.of("rental_id", "rental_start_date", "rental_end_date", "duration",
+                "terminated", "student_id", "instrument_id"));
+    }
+
+    /**
+     * @return The names of the tables that can be copied.
+     */
+    static Set<String> tables() {
+        return Collections.unmodifiableSet(COLUMNS_BY_TABLE.keySet());
+    }
+
+    /**
+     * Inserts all rows of the specified file into the specified table. The header
+     * line of the file is validated before anything is sent to the database. If
+     * the primary key is imported, its sequence is moved past the highest key, so
+     * that rows created later do not collide with imported rows. The transaction
+     * is not ended by this method.
+     *
+     * @param conn  The connection of the ongoing transaction.
+     * @param table The table to insert into.
+     * @param file  The CSV file to read.
+     * @return The number of inserted rows.
+     * @throws CsvFormatException If the table is unknown, or the header names an
+     *                            unknown or duplicate column.
+     * @throws SQLException       If the database rejected a row. The message tells
+     *                            the line and column of the row.
+     * @throws IOException        If unable to read the file.
+     */
+    long copyIn(PooledConnection conn, String table, Path file) throws SQLException, IOException {
+        List<String> knownColumns = columnsOf(table);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                InputStream in = new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE)) {
+            List<String> columns = readHeader(in, table, knownColumns);
+            String sql = "COPY " + table + " (" + String.join(", ", columns) + ") FROM STDIN" + CSV_OPTIONS;
+            long rows = copyManager(conn).copyIn(sql, in, BUFFER_SIZE);
+            String primaryKey = knownColumns.get(0);
+            if (columns.contains(primaryKey)) {
+                advanceSequence(conn, table, primaryKey);
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * Writes all rows of the specified table to the specified file, ordered by
+     * primary key. The file is replaced if it exists. The rows are read from one
+     * snapshot of the table. The transaction is not ended by this method.
+     *
+     * @param conn  The connection of the ongoing transaction.
+     * @param table The table to read.
+     * @param file  The CSV file to write.
+     * @return The number of written rows.
+     * @throws CsvFormatException If the table is unknown.
+     * @throws SQLException       If unable to read the table.
+     * @throws IOException        If unable to write the file.
+     */
+    long copyOut(PooledConnection conn, String table, Path file) throws SQLException, IOException {
+        List<String> columns = columnsOf(table);
+        String sql = "COPY (SELECT " + String.join(", ", columns) + " FROM " + table + " ORDER BY "
+                + columns.get(0) + ") TO STDOUT" + CSV_OPTIONS;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+                OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE)) {
+            return copyManager(conn).copyOut(sql, out);
+        }
+    }
+
+    private List<String> columnsOf(String table) throws CsvFormatException {
+        List<String> columns = COLUMNS_BY_TABLE.get(table);
+        if (columns == null) {
+            throw new CsvFormatException("Unknown table " + table + ", expected one of " + tables());
+        }
+        return columns;
+    }
+
+    /**
+     * Reads and validates the header line, then rewinds the stream, so that the
+     * database counts the header as line one and reports the same line numbers
+     * as an editor would.
+     */
+    private List<String> readHeader(InputStream in, String table, List<String> knownColumns)
+            throws IOException {
+        in.mark(MAX_HEADER_LENGTH);
+        byte[] line = new byte[MAX_HEADER_LENGTH];
+        int length = 0;
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (length == line.length) {
+                throw new CsvFormatException("Line 1: the header is longer than " + MAX_HEADER_LENGTH + " bytes");
+            }
+            line[length++] = (byte) b;
+        }
+        in.reset();
+        String header = new String(line, 0, length, StandardCharsets.UTF_8).strip();
+        // the database skips the whole header line, so a byte order mark does no harm there
+        if (!header.isEmpty() && header.charAt(0) == BYTE_ORDER_MARK) {
+            header = header.substring(1).strip();
+        }
+        if (header.isEmpty()) {
+            throw new CsvFormatException("Line 1: missing header naming the columns of " + table);
+        }
+        List<String> columns = new ArrayList<>();
+        for (String name : header.split(",", -1)) {
+            String column = unquote(name.strip());
+            if (!knownColumns.contains(column)) {
+                throw new CsvFormatException("Line 1: unknown column '" + column + "' of " + table
+                        + ", expected some of " + knownColumns);
+            }
+            if (columns.contains(column)) {
+                throw new CsvFormatException("Line 1: column " + column + " appears twice");
+            }
+            columns.add(column);
+        }
+        return columns;
+    }
+
+    private static String unquote(String name) {
+        if (name.length() >= 2 && name.startsWith("\"") && name.endsWith("\"")) {
+            return name.substring(1, name.length() - 1);
+        }
+        return name;
+    }
+
+    private void advanceSequence(PooledConnection conn, String table, String primaryKey) throws SQLException {
+        String sql = "SELECT setval(pg_get_serial_sequence('" + table + "', '" + primaryKey + "'), "
+                + "(SELECT COALESCE(MAX(" + primaryKey + "), 0) + 1 FROM " + table + "), false)";
+        try (PreparedStatement stmt = conn.unwrap().prepareStatement(sql)) {
+            stmt.execute();
+        }
+    }
+
+    private static CopyManager copyManager(PooledConnection conn) throws SQLException {
+        return conn.unwrap().unwrap(PGConnection.class).getCopyAPI();
+    }
+
+    /**
+     * Thrown when a file can not be copied because it, or the table it is copied
+     * to, does not have the expected form.
+     */
+    static class CsvFormatException extends IOException {
+        CsvFormatException(String msg) {
+            super(msg);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.integration;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import soundgood.util.OperationMetrics;
+
+/**
+ * Wraps a prepared statement, and records the duration, outcome and row count
+ * of each execution in the metrics of the statement. The duration of a query
+ * lasts until its result set is closed, so that it includes fetching the rows.
+ * Executions that are slow according to the slow statement log are logged
+ * with their bind values, which are remembered as they are set. All other
+ * calls are passed unchanged to the wrapped statement.
+ */
+class InstrumentedStatement implements InvocationHandler {
+    private static final Object[] NO_BINDS = {};
+    private static final Pattern EXPLAINABLE = Pattern.compile("(?is)^\\s*(SELECT|INSERT|UPDATE|DELETE|WITH)\\b.*");
+    private final PreparedStatement target;
+    private final String sql;
+    private final String name;
+    private final OperationMetrics metrics;
+    private final SlowStatementLog slowLog;
+    private Object[] binds = NO_BINDS;
+
+    private InstrumentedStatement(PreparedStatement target, String sql, String name, OperationMetrics metrics,
+            SlowStatementLog slowLog) {
+        this.target = target;
+        this.sql = sql;
+        this.name = name;
+        this.metrics = metrics;
+        this.slowLog = slowLog;
+    }
+
+    /**
+     * Wraps the specified statement.
+     *
+     * @param stmt    The statement to wrap.
+     * @param sql     The SQL of the statement.
+     * @param name    The name of the statement in metrics and logs.
+     * @param metrics Where executions of the statement are recorded.
+     * @param slowLog Where slow executions are logged.
+     * @return A statement that behaves like <code>stmt</code>, and records its
+     *         executions.
+     */
+    static PreparedStatement wrap(PreparedStatement stmt, String sql, String name, OperationMetrics metrics,
+            SlowStatementLog slowLog) {
+        return (PreparedStatement) Proxy.newProxyInstance(InstrumentedStatement.class.getClassLoader(),
+                new Class<?>[] {PreparedStatement.class},
+                new InstrumentedStatement(stmt, sql, name, metrics, slowLog));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String methodName = method.getName();
+        switch (methodName) {
+            case "executeQuery":
+                return executeQuery(method, args);
+            case "executeUpdate":
+            case "executeLargeUpdate":
+            case "executeBatch":
+            case "executeLargeBatch":
+            case "execute":
+                return executeUpdate(method, args);
+            case "clearParameters":
+                Arrays.fill(binds, null);
+                return call(target, method, args);
+            default:
+                if (methodName.startsWith("set") && args != null && args.length >= 2
+                        && args[0] instanceof Integer) {
+                    bind((Integer) args[0], "setNull".equals(methodName) ? null : args[1]);
+                }
+                return call(target, method, args);
+        }
+    }
+
+    private Object executeQuery(Method method, Object[] args) throws Throwable {
+        long startTime = System.nanoTime();
+        try {
+            ResultSet result = (ResultSet) call(target, method, args);
+            return new CountingResultSet(result,
+                    (rows, succeeded) -> recordExecution(System.nanoTime() - startTime, rows, succeeded));
+        } catch (Throwable failure) {
+            recordExecution(System.nanoTime() - startTime, 0, false);
+            throw failure;
+        }
+    }
+
+    private Object executeUpdate(Method method, Object[] args) throws Throwable {
+        long startTime = System.nanoTime();
+        boolean succeeded = false;
+        long rows = 0;
+        try {
+            Object result = call(target, method, args);
+            rows = countRows(result);
+            succeeded = true;
+            return result;
+        } finally {
+            recordExecution(System.nanoTime() - startTime, rows, succeeded);
+        }
+    }
+
+    private void recordExecution(long nanos, long rows, boolean succeeded) {
+        metrics.addRows(rows);
+        metrics.record(nanos, succeeded);
+        if (slowLog.isSlow(nanos)) {
+            String plan = succeeded && slowLog.isExplainEnabled() && EXPLAINABLE.matcher(sql).matches()
+                    ? explain()
+                    : null;
+            slowLog.log(name, binds, rows, nanos, succeeded, plan);
+        }
+    }
+
+    /**
+     * Captures the plan of the statement with the current bind values. The plan
+     * is read in the ongoing transaction, so that it sees the same data as the
+     * execution. A failed <code>EXPLAIN</code> would abort that transaction, so it
+     * runs after a savepoint, which is rolled back to if it fails.
+     */
+    private String explain() {
+        StringBuilder plan = new StringBuilder();
+        Connection conn = null;
+        Savepoint savepoint = null;
+        try {
+            conn = target.getConnection();
+            if (!conn.getAutoCommit()) {
+                savepoint = conn.setSavepoint();
+            }
+            try (PreparedStatement stmt = conn.prepareStatement("EXPLAIN " + sql)) {
+                for (int i = 0; i < binds.length; i++) {
+                    stmt.setObject(i + 1, binds[i]);
+                }
+                try (ResultSet result = stmt.executeQuery()) {
+                    while (result.next()) {
+                        plan.append(result.getString(1)).append(System.lineSeparator());
+                    }
+                }
+            }
+            if (savepoint != null) {
+                conn.releaseSavepoint(savepoint);
+            }
+        } catch (SQLException sqle) {
+            plan.append("Could not explain: ").append(sqle.getMessage());
+            rollbackTo(conn, savepoint);
+        }
+        return plan.toString();
+    }
+
+    private static void rollbackTo(Connection conn, Savepoint savepoint) {
+        if (savepoint == null) {
+            return;
+        }
+        try {
+            conn.rollback(savepoint);
+        } catch (SQLException sqle) {
+            // The caller's next statement reports the aborted transaction.
+        }
+    }
+
+    private void bind(int index, Object value) {
+        if (index < 1) {
+            return;
+        }
+        if (index > binds.length) {
+            binds = Arrays.copyOf(binds, index);
+        }
+        binds[index - 1] = value;
+    }
+
+    private static long countRows(Object updateCounts) {
+        if (updateCounts instanceof Number) {
+            return Math.max(0, ((Number) updateCounts).longValue());
+        }
+        long rows = 0;
+        if (updateCounts instanceof int[]) {
+            for (int count : (int[]) updateCounts) {
+                rows += Math.max(0, count);
+            }
+        } else if (updateCounts instanceof long[]) {
+            for (long count : (long[]) updateCounts) {
+                rows += Math.max(0, count);
+            }
+        }
+        return rows;
+    }
+
+    private static Object call(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException ite) {
+            throw ite.getCause();
+        }
+    }
+}
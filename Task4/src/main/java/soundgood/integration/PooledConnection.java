@@ -0,0 +1,223 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.integration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import soundgood.util.MetricsRegistry;
+import soundgood.util.OperationMetrics;
+
+/**
+ * A database connection owned by a <code>ConnectionPool</code>. Each connection
+ * caches the prepared statements created on it, so that a statement is only
+ * parsed and planned once per connection. A pooled connection is used by one
+ * thread at a time, and is therefore not thread safe.
+ *
+ * Executions of cached statements are recorded in the metrics of the
+ * statement, named after the statement, and slow executions are logged.
+ */
+class PooledConnection {
+    private static final String UNNAMED_STATEMENT = "other";
+    private static final String STATEMENT_METRICS_PREFIX = "db.";
+    private final Connection connection;
+    private final Map<String, String> statementNames;
+    private final SlowStatementLog slowLog;
+    private final Map<String, PreparedStatement> statementCache;
+    private long idleSince;
+    private boolean broken = false;
+
+    /**
+     * Creates a new instance wrapping the specified connection.
+     *
+     * @param connection         The physical connection, with auto commit off.
+     * @param statementCacheSize The maximum number of cached statements.
+     * @param statementNames     The names used in metrics and logs, by the SQL of
+     *                           the statement.
+     * @param slowLog            Where slow statement executions are logged.
+     */
+    PooledConnection(Connection connection, int statementCacheSize, Map<String, String> statementNames,
+            SlowStatementLog slowLog) {
+        this.connection = connection;
+        this.statementNames = statementNames;
+        this.slowLog = slowLog;
+        this.statementCache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= statementCacheSize) {
+                    return false;
+                }
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+        this.idleSince = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns a prepared statement for the specified SQL, reusing a cached
+     * statement if there is one. Parameters of a reused statement are cleared.
+     *
+     * @param sql The SQL of the statement.
+     * @return A prepared statement for the specified SQL.
+     * @throws SQLException If unable to prepare the statement.
+     */
+    PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement stmt = statementCache.get(sql);
+        if (stmt == null || stmt.isClosed()) {
+            stmt = instrument(connection.prepareStatement(sql), sql);
+            statementCache.put(sql, stmt);
+        } else {
+            stmt.clearParameters();
+        }
+        return stmt;
+    }
+
+    /**
+     * Returns a prepared statement for the specified SQL that makes the values of
+     * the specified columns of inserted rows available as generated keys. The
+     * statement is cached like those created by <code>prepare(String)</code>.
+     *
+     * @param sql        The SQL of the statement.
+     * @param keyColumns The columns returned as generated keys.
+     * @return A prepared statement for the specified SQL.
+     * @throws SQLException If unable to prepare the statement.
+     */
+    PreparedStatement prepare(String sql, String... keyColumns) throws SQLException {
+        String cacheKey = sql + " RETURNING " + String.join(", ", keyColumns);
+        PreparedStatement stmt = statementCache.get(cacheKey);
+        if (stmt == null || stmt.isClosed()) {
+            stmt = instrument(connection.prepareStatement(sql, keyColumns), sql);
+            statementCache.put(cacheKey, stmt);
+        } else {
+            stmt.clearParameters();
+        }
+        return stmt;
+    }
+
+    /**
+     * @return The physical connection, for operations that can not use a cached
+     *         statement.
+     */
+    Connection unwrap() {
+        return connection;
+    }
+
+    /**
+     * Commits the current transaction.
+     *
+     * @throws SQLException If the commit failed.
+     */
+    void commit() throws SQLException {
+        try {
+            connection.commit();
+            MetricsRegistry.getInstance().recordCommit();
+        } catch (SQLException sqle) {
+            broken = !isValid(1);
+            throw sqle;
+        }
+    }
+
+    /**
+     * Rolls back the current transaction. A connection that can not be rolled
+     * back is marked as broken, and will not be reused by the pool.
+     *
+     * @throws SQLException If the rollback failed.
+     */
+    void rollback() throws SQLException {
+        try {
+            connection.rollback();
+            MetricsRegistry.getInstance().recordRollback();
+        } catch (SQLException sqle) {
+            broken = true;
+            throw sqle;
+        }
+    }
+
+    /**
+     * @param timeoutSeconds The maximum time to wait for the database to answer.
+     * @return <code>true</code> if the connection is still usable.
+     */
+    boolean isValid(int timeoutSeconds) {
+        try {
+            return !broken && connection.isValid(timeoutSeconds);
+        } catch (SQLException sqle) {
+            return false;
+        }
+    }
+
+    /**
+     * @return <code>true</code> if this connection shall not be reused.
+     */
+    boolean isBroken() {
+        return broken;
+    }
+
+    /**
+     * @return The time, in milliseconds, when this connection was last returned to
+     *         the pool.
+     */
+    long getIdleSince() {
+        return idleSince;
+    }
+
+    /**
+     * Records that this connection was returned to the pool now.
+     */
+    void markIdle() {
+        idleSince = System.currentTimeMillis();
+    }
+
+    /**
+     * Closes all cached statements and the physical connection, ignoring errors.
+     */
+    void closeQuietly() {
+        for (PreparedStatement stmt : statementCache.values()) {
+            closeQuietly(stmt);
+        }
+        statementCache.clear();
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+            // The connection is discarded anyway.
+        }
+    }
+
+    private PreparedStatement instrument(PreparedStatement stmt, String sql) {
+        String name = statementNames.getOrDefault(sql, UNNAMED_STATEMENT);
+        OperationMetrics metrics = MetricsRegistry.getInstance().operation(STATEMENT_METRICS_PREFIX + name);
+        return InstrumentedStatement.wrap(stmt, sql, name, metrics, slowLog);
+    }
+
+    private static void closeQuietly(PreparedStatement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException ignored) {
+            // The statement is discarded anyway.
+        }
+    }
+}
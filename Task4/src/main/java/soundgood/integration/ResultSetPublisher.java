@@ -0,0 +1,190 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.integration;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.Flow;
+
+/**
+ * Publishes the rows of a query one at a time, as they are requested by the
+ * subscriber. The query runs through a server side cursor, so only one fetch of
+ * rows is held in memory regardless of the size of the result. Every
+ * subscription uses its own pooled connection, which is returned to the pool
+ * when the result is exhausted, the subscription is cancelled or an error
+ * occurs.
+ *
+ * Rows are read on the thread calling <code>request</code>.
+ *
+ * @param <T> The type of object each row is converted to.
+ */
+class ResultSetPublisher<T> implements Flow.Publisher<T> {
+    private final ConnectionPool pool;
+    private final String sql;
+    private final int fetchSize;
+    private final RowMapper<? extends T> mapper;
+
+    /**
+     * Converts the current row of a result set to an object.
+     *
+     * @param <T> The type of the created object.
+     */
+    @FunctionalInterface
+    interface RowMapper<T> {
+        T map(ResultSet row) throws SQLException;
+    }
+
+    /**
+     * Creates a new publisher that will run the specified query once per
+     * subscription.
+     *
+     * @param pool      The pool connections are taken from.
+     * @param sql       The query, which must not have parameters.
+     * @param fetchSize The number of rows fetched per round trip.
+     * @param mapper    Converts each row to the published object.
+     */
+    ResultSetPublisher(ConnectionPool pool, String sql, int fetchSize, RowMapper<? extends T> mapper) {
+        this.pool = pool;
+        this.sql = sql;
+        this.fetchSize = fetchSize;
+        this.mapper = mapper;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        subscriber.onSubscribe(new CursorSubscription(subscriber));
+    }
+
+    private class CursorSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super T> subscriber;
+        private PooledConnection conn;
+        private ResultSet result;
+        private long demand = 0;
+        private boolean draining = false;
+        private boolean done = false;
+
+        CursorSubscription(Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public synchronized void request(long n) {
+            if (done) {
+                return;
+            }
+            if (n <= 0) {
+                fail(new IllegalArgumentException("Requested " + n + " rows, must request at least one."));
+                return;
+            }
+            demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            if (draining) {
+                return;
+            }
+            draining = true;
+            try {
+                drain();
+            } finally {
+                draining = false;
+            }
+        }
+
+        @Override
+        public synchronized void cancel() {
+            done = true;
+            if (!draining) {
+                closeCursor(false);
+            }
+        }
+
+        /**
+         * Publishes rows while there is demand. If reading, mapping or publishing a
+         * row fails, the cursor is closed and the subscriber gets the error, so that
+         * the connection is always returned to the pool.
+         */
+        private void drain() {
+            boolean exhausted = false;
+            try {
+                if (result == null) {
+                    openCursor();
+                }
+                while (demand > 0 && !done) {
+                    if (!result.next()) {
+                        done = true;
+                        exhausted = true;
+                        closeCursor(true);
+                        break;
+                    }
+                    demand--;
+                    subscriber.onNext(mapper.map(result));
+                }
+                if (done) {
+                    closeCursor(false);
+                }
+            } catch (SQLException sqle) {
+                fail(new SoundgoodDBException("Could not read rows.", sqle));
+            } catch (RuntimeException re) {
+                fail(re);
+            }
+            if (exhausted) {
+                subscriber.onComplete();
+            }
+        }
+
+        private void openCursor() throws SQLException {
+            conn = pool.borrow();
+            PreparedStatement stmt = conn.prepare(sql);
+            stmt.setFetchSize(fetchSize);
+            result = stmt.executeQuery();
+        }
+
+        private void fail(Throwable cause) {
+            done = true;
+            closeCursor(false);
+            subscriber.onError(cause);
+        }
+
+        private void closeCursor(boolean commit) {
+            if (conn == null) {
+                return;
+            }
+            try {
+                if (result != null) {
+                    result.close();
+                }
+                if (commit) {
+                    conn.commit();
+                } else {
+                    conn.rollback();
+                }
+            } catch (SQLException ignored) {
+                // A connection that could not end its transaction is marked broken.
+            } finally {
+                result = null;
+                pool.release(conn);
+                conn = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.integration;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Brings the database schema up to date by applying the SQL scripts in
+ * <code>db/migration</code> on the class path. Every script is applied once, in
+ * version order, in its own transaction, and the applied versions are recorded
+ * in the <code>schema_version</code> table. A database lock makes sure that only
+ * one process migrates at a time.
+ */
+class SchemaMigrator {
+    private static final String MIGRATION_DIRECTORY = "db/migration/";
+    /*
+     * All migrations, in the order they are applied. A script is named
+     * V<version>__<description>.sql, and must never change once released.
+     */
+    private static final String[] MIGRATIONS = {
+        "V1__active_rental_indexes.sql",
+        "V2__student_active_rental_counter.sql",
+        "V3__historical_lessons_watermark.sql",
+        "V4__report_views.sql",
+        "V5__lesson_start_index.sql",
+        "V6__rental_rule_error_codes.sql",
+    };
+    private static final long MIGRATION_LOCK_KEY = 1351_0007L;
+
+    private static final String CREATE_VERSION_TABLE = "CREATE TABLE IF NOT EXISTS schema_version ("
+            + "version INT PRIMARY KEY, "
+            + "description VARCHAR(250) NOT NULL, "
+            + "applied_at TIMESTAMP NOT NULL DEFAULT NOW())";
+    private static final String FIND_APPLIED_VERSIONS = "SELECT version FROM schema_version";
+    private static final String RECORD_VERSION = "INSERT INTO schema_version (version, description) VALUES (?, ?)";
+
+    /**
+     * Applies all migrations that have not yet been applied to the database.
+     *
+     * @param conn The connection used for the migrations. No transaction may be
+     *             ongoing on it.
+     * @return The number of applied migrations.
+     * @throws SQLException If a migration failed. Migrations applied before the
+     *                      failing one are kept.
+     * @throws IOException  If a migration script could not be read.
+     */
+    int migrate(PooledConnection conn) throws SQLException, IOException {
+        Connection connection = conn.unwrap();
+        int applied = 0;
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("SELECT pg_advisory_lock(" + MIGRATION_LOCK_KEY + ")");
+            try {
+                stmt.execute(CREATE_VERSION_TABLE);
+                conn.commit();
+                Set<Integer> appliedVersions = findAppliedVersions(connection);
+                for (String migration : MIGRATIONS) {
+                    int version = versionOf(migration);
+                    if (appliedVersions.contains(version)) {
+                        continue;
+                    }
+                    apply(conn, migration, version);
+                    applied++;
+                }
+            } catch (SQLException | IOException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                stmt.execute("SELECT pg_advisory_unlock(" + MIGRATION_LOCK_KEY + ")");
+                conn.commit();
+            }
+        }
+        return applied;
+    }
+
+    private Set<Integer> findAppliedVersions(Connection connection) throws SQLException {
+        Set<Integer> versions = new HashSet<>();
+        try (Statement stmt = connection.createStatement();
+                ResultSet result = stmt.executeQuery(FIND_APPLIED_VERSIONS)) {
+            while (result.next()) {
+                versions.add(result.getInt(1));
+            }
+        }
+        return versions;
+    }
+
+    private void apply(PooledConnection conn, String migration, int version) throws SQLException, IOException {
+        Connection connection = conn.unwrap();
+        try (Statement stmt = connection.createStatement();
+                PreparedStatement record = connection.prepareStatement(RECORD_VERSION)) {
+            stmt.execute(readScript(migration));
+            record.setInt(1, version);
+            record.setString(2, descriptionOf(migration));
+            record.executeUpdate();
+        }
+        conn.commit();
+    }
+
+    private String readScript(String migration) throws IOException {
+        try (InputStream in = SchemaMigrator.class.getClassLoader()
+                .getResourceAsStream(MIGRATION_DIRECTORY + migration)) {
+            if (in == null) {
+                throw new IOException("Missing migration script " + migration);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static int versionOf(String migration) {
+        return Integer.parseInt(migration.substring(1, migration.indexOf("__")));
+    }
+
+    private static String descriptionOf(String migration) {
+        return migration.substring(migration.indexOf("__") + 2, migration.lastIndexOf('.')).replace('_', ' ');
+    }
+}
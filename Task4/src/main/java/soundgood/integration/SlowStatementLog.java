@@ -0,0 +1,123 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.integration;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.logging.FileHandler;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Writes statement executions that took longer than a threshold to a rolling
+ * log file, with the bind values, the number of rows and, if enabled, the plan
+ * of the statement. If the log file can not be opened, slow statements are
+ * logged to the console instead.
+ */
+class SlowStatementLog {
+    private static final Logger LOGGER = Logger.getLogger("soundgood.slowStatements");
+    private static final int FILE_SIZE_LIMIT = 10 * 1024 * 1024;
+    private static final int FILE_COUNT = 5;
+    private final long thresholdNanos;
+    private final boolean explain;
+
+    /**
+     * Creates a new instance, and opens the log file if slow statements shall be
+     * logged.
+     *
+     * @param config The threshold, the log file and if plans shall be logged.
+     */
+    SlowStatementLog(SoundgoodDBConfig config) {
+        long thresholdMillis = config.getSlowStatementThresholdMillis();
+        this.thresholdNanos = thresholdMillis < 0 ? Long.MAX_VALUE : thresholdMillis * 1_000_000;
+        this.explain = config.isExplainSlowStatements();
+        if (thresholdMillis >= 0) {
+            openLogFile(config.getSlowStatementLogPattern());
+        }
+    }
+
+    /**
+     * @param nanos The duration of an execution.
+     * @return <code>true</code> if the execution shall be logged.
+     */
+    boolean isSlow(long nanos) {
+        return nanos >= thresholdNanos;
+    }
+
+    /**
+     * @return <code>true</code> if the plan of slow statements shall be logged.
+     */
+    boolean isExplainEnabled() {
+        return explain;
+    }
+
+    /**
+     * Logs one slow execution.
+     *
+     * @param name      The name of the statement.
+     * @param binds     The bind values, by parameter index minus one.
+     * @param rows      The number of rows read or written.
+     * @param nanos     The duration of the execution.
+     * @param succeeded <code>false</code> if the execution failed.
+     * @param plan      The plan of the statement, or <code>null</code> if it was
+     *                  not captured.
+     */
+    void log(String name, Object[] binds, long rows, long nanos, boolean succeeded, String plan) {
+        StringBuilder entry = new StringBuilder();
+        entry.append(name).append(' ').append(nanos / 1_000_000).append(" ms, ").append(rows).append(" rows");
+        if (!succeeded) {
+            entry.append(", failed");
+        }
+        entry.append(", binds ").append(Arrays.toString(binds));
+        if (plan != null) {
+            entry.append(System.lineSeparator()).append(plan);
+        }
+        LOGGER.warning(entry.toString());
+    }
+
+    private static synchronized void openLogFile(String pattern) {
+        if (LOGGER.getHandlers().length > 0) {
+            return;
+        }
+        try {
+            FileHandler handler = new FileHandler(pattern, FILE_SIZE_LIMIT, FILE_COUNT, true);
+            handler.setFormatter(new Formatter() {
+                @Override
+                public String format(LogRecord record) {
+                    return Instant.ofEpochMilli(record.getMillis()) + " " + record.getMessage()
+                            + System.lineSeparator();
+                }
+            });
+            handler.setLevel(Level.ALL);
+            LOGGER.addHandler(handler);
+            LOGGER.setUseParentHandlers(false);
+        } catch (IOException | SecurityException e) {
+            LOGGER.log(Level.WARNING, "Could not open slow statement log " + pattern
+                    + ", logging to the console.", e);
+        }
+    }
+}
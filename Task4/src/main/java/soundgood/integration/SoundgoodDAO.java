@@ -23,23 +23,53 @@
 
 package soundgood.integration;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Array;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.Flow;
+import java.util.concurrent.locks.ReentrantLock;
 import java.sql.Timestamp;
-import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 
+import soundgood.model.BookingResult;
 import soundgood.model.Instrument;
 import soundgood.model.Rental;
+import soundgood.model.RentalBatch;
+import soundgood.model.RentalDTO;
+import soundgood.model.RentalRequest;
+import soundgood.model.RentalResult;
+import soundgood.model.Report;
 
 /**
- * This data access object (DAO) encapsulates all database calls in the bank
- * application. No code outside this class shall have any knowledge about the
- * database.
+ * This data access object (DAO) encapsulates all database calls in the
+ * Soundgood music school application, which handles instrument rentals and
+ * lesson bookings. No code outside this class shall have any knowledge about
+ * the database.
+ *
+ * The DAO is thread safe. Connections are taken from a pool, and a connection is
+ * bound to the calling thread from the first statement of a transaction until
+ * the transaction is committed or rolled back. Methods that lock rows, rent or
+ * return instruments or book lessons leave the transaction open, and the caller
+ * ends it with <code>commit</code> or <code>rollback</code>. All other methods
+ * end it before returning, unless the thread is in batch mode, see
+ * <code>beginBatch</code>.
  */
 public class SoundgoodDAO {
     /* INSTRUMENT */
@@ -50,6 +80,11 @@ public class SoundgoodDAO {
     private static final String INSTRUMENT_LOCATION_COLUMN_NAME = "location";
     private static final String INSTRUMENT_PRICE_COLUMN_NAME = "price";
 
+    /* STUDENT */
+    private static final String STUDENT_TABLE_NAME = "student";
+    private static final String STUDENT_PK_COLUMN_NAME = "student_id";
+    private static final String STUDENT_ACTIVE_RENTALS_COLUMN_NAME = "active_rentals";
+
     /* RENTAL */
     private static final String RENTAL_TABLE_NAME = "rental";
     private static final String RENTAL_PK_COLUMN_NAME = "rental_id";
@@ -60,45 +95,442 @@ public class SoundgoodDAO {
     private static final String RENTAL_FK_STUDENT_COLUMN_NAME = "student_id";
     private static final String RENTAL_FK_INSTRUMENT_COLUMN_NAME = "instrument_id";
 
-    public Connection connection;
-    private PreparedStatement createRental;
-    private PreparedStatement markRentalAsTerminated;
-    private PreparedStatement findInstrumentsByAvailability;
-    private PreparedStatement findInstrumentsByAvailabilityAndType;
-    private PreparedStatement findRentalsByInstrument;
-    private PreparedStatement findRentalsByInstrumentForUpdate;
-    private PreparedStatement findRentals;
-    private PreparedStatement findRentalsByStudentAndStatus;
-    private PreparedStatement findRentalsByStudentAndStatusForUpdate;
+    /* STATEMENTS */
+    private static final String CREATE_RENTAL = "INSERT INTO " + RENTAL_TABLE_NAME
+            + "(" + RENTAL_FK_STUDENT_COLUMN_NAME + ", " + RENTAL_START_DATE_COLUMN_NAME
+            + ", " + RENTAL_END_DATE_COLUMN_NAME + ", " + RENTAL_DURATION_COLUMN_NAME
+            + ", " + RENTAL_TERMINATED_COLUMN_NAME + ", " + RENTAL_FK_INSTRUMENT_COLUMN_NAME
+            + ") VALUES (?, NOW(), ?, 0, 0, ?)";
+
+    private static final String MARK_RENTAL_AS_TERMINATED = "UPDATE " + RENTAL_TABLE_NAME
+            + " SET " + RENTAL_TERMINATED_COLUMN_NAME + " = 1"
+            + " WHERE " + RENTAL_PK_COLUMN_NAME + " = ? AND " + RENTAL_TERMINATED_COLUMN_NAME + " = 0"
+            + " RETURNING *";
+
+    private static final String TERMINATE_RENTALS = "UPDATE " + RENTAL_TABLE_NAME
+            + " SET " + RENTAL_TERMINATED_COLUMN_NAME + " = 1"
+            + " WHERE " + RENTAL_PK_COLUMN_NAME + " = ANY(?) AND " + RENTAL_TERMINATED_COLUMN_NAME + " = 0"
+            + " RETURNING *";
+
+    /*
+     * The ranges are passed as two arrays of bounds, so that any number of ranges
+     * of any size is one statement, and each range is one index range scan.
+     */
+    private static final String TERMINATE_RENTALS_IN_RANGES = "UPDATE " + RENTAL_TABLE_NAME
+            + " SET " + RENTAL_TERMINATED_COLUMN_NAME + " = 1"
+            + " WHERE " + RENTAL_PK_COLUMN_NAME + " IN (SELECT r." + RENTAL_PK_COLUMN_NAME + " FROM "
+            + RENTAL_TABLE_NAME + " r, unnest(?::INT[], ?::INT[]) AS bounds(first_id, last_id)"
+            + " WHERE r." + RENTAL_PK_COLUMN_NAME + " BETWEEN bounds.first_id AND bounds.last_id)"
+            + " AND " + RENTAL_TERMINATED_COLUMN_NAME + " = 0"
+            + " RETURNING *";
+
+    private static final String TERMINATE_RENTALS_BY_STUDENT = "UPDATE " + RENTAL_TABLE_NAME
+            + " SET " + RENTAL_TERMINATED_COLUMN_NAME + " = 1"
+            + " WHERE " + RENTAL_FK_STUDENT_COLUMN_NAME + " = ? AND " + RENTAL_TERMINATED_COLUMN_NAME + " = 0"
+            + " RETURNING *";
+
+    private static final String FIND_INSTRUMENTS = "SELECT * FROM " + INSTRUMENT_TABLE_NAME
+            + " ORDER BY " + INSTRUMENT_PK_COLUMN_NAME;
+
+    private static final String FIND_RENTED_INSTRUMENT_IDS = "SELECT " + RENTAL_FK_INSTRUMENT_COLUMN_NAME
+            + " FROM " + RENTAL_TABLE_NAME + " WHERE " + RENTAL_TERMINATED_COLUMN_NAME + " = 0";
+
+    private static final String FIND_INSTRUMENTS_BY_AVAILABILITY = "SELECT i.* "
+            + "FROM " + INSTRUMENT_TABLE_NAME + " AS i " + "LEFT JOIN " + RENTAL_TABLE_NAME + " AS r ON i."
+            + INSTRUMENT_PK_COLUMN_NAME + " = r." + RENTAL_FK_INSTRUMENT_COLUMN_NAME + " AND r."
+            + RENTAL_TERMINATED_COLUMN_NAME + " = 0 " + "WHERE r." + RENTAL_FK_INSTRUMENT_COLUMN_NAME + " IS NULL "
+            + "ORDER BY i." + INSTRUMENT_PK_COLUMN_NAME;
+
+    private static final String FIND_INSTRUMENTS_BY_AVAILABILITY_AND_TYPE = "SELECT i." + INSTRUMENT_PK_COLUMN_NAME
+            + ", i." + INSTRUMENT_TYPE_COLUMN_NAME + ", i." + INSTRUMENT_BRAND_COLUMN_NAME
+            + ", i." + INSTRUMENT_LOCATION_COLUMN_NAME + ", i." + INSTRUMENT_PRICE_COLUMN_NAME
+            + " FROM " + INSTRUMENT_TABLE_NAME + " AS i" + " WHERE NOT EXISTS (SELECT r." + RENTAL_FK_INSTRUMENT_COLUMN_NAME
+            + " FROM " + RENTAL_TABLE_NAME + " AS r" + " WHERE i." + INSTRUMENT_PK_COLUMN_NAME + " = r." + RENTAL_FK_INSTRUMENT_COLUMN_NAME
+            + " AND r." + RENTAL_TERMINATED_COLUMN_NAME + " = 0)"
+            + " AND LOWER(i." + INSTRUMENT_TYPE_COLUMN_NAME + ") = LOWER(?)"; // Make it case-insensitive
+
+    private static final String FIND_RENTALS_BY_STUDENT_AND_STATUS = "SELECT * FROM " + RENTAL_TABLE_NAME
+            + " WHERE " + RENTAL_FK_STUDENT_COLUMN_NAME + " = ? AND " + RENTAL_TERMINATED_COLUMN_NAME + " = 0";
+
+    private static final String FIND_RENTALS_BY_STUDENT_AND_STATUS_FOR_UPDATE =
+            FIND_RENTALS_BY_STUDENT_AND_STATUS + " FOR UPDATE";
+
+    private static final String FIND_RENTALS = "SELECT * FROM " + RENTAL_TABLE_NAME;
+
+    private static final String FIND_RENTALS_ORDERED = FIND_RENTALS + " ORDER BY " + RENTAL_PK_COLUMN_NAME;
+
+    /*
+     * Dates are converted to epoch milliseconds by the database, through the
+     * session time zone like getTimestamp does, so no Timestamp objects are
+     * created when reading them.
+     */
+    private static final String FIND_RENTALS_COLUMNAR = "SELECT " + RENTAL_PK_COLUMN_NAME
+            + ", " + RENTAL_FK_STUDENT_COLUMN_NAME + ", " + RENTAL_FK_INSTRUMENT_COLUMN_NAME
+            + ", (EXTRACT(EPOCH FROM " + RENTAL_START_DATE_COLUMN_NAME + "::TIMESTAMPTZ) * 1000)::BIGINT"
+            + ", (EXTRACT(EPOCH FROM " + RENTAL_END_DATE_COLUMN_NAME + "::TIMESTAMPTZ) * 1000)::BIGINT"
+            + ", " + RENTAL_DURATION_COLUMN_NAME + ", " + RENTAL_TERMINATED_COLUMN_NAME
+            + " FROM " + RENTAL_TABLE_NAME + " ORDER BY " + RENTAL_PK_COLUMN_NAME;
+
+    private static final String FIND_RENTALS_BY_INSTRUMENT = "SELECT * FROM " + RENTAL_TABLE_NAME
+            + " WHERE " + RENTAL_FK_INSTRUMENT_COLUMN_NAME + " = ?";
+
+    private static final String FIND_RENTALS_BY_INSTRUMENT_FOR_UPDATE = FIND_RENTALS_BY_INSTRUMENT + " FOR UPDATE";
+
+    private static final String LOCK_INSTRUMENT = "SELECT " + INSTRUMENT_PK_COLUMN_NAME + " FROM " + INSTRUMENT_TABLE_NAME
+            + " WHERE " + INSTRUMENT_PK_COLUMN_NAME + " = ? FOR UPDATE";
+
+    private static final String FIND_ACTIVE_RENTAL_BY_INSTRUMENT = "SELECT " + RENTAL_PK_COLUMN_NAME + " FROM "
+            + RENTAL_TABLE_NAME + " WHERE " + RENTAL_FK_INSTRUMENT_COLUMN_NAME + " = ? AND "
+            + RENTAL_TERMINATED_COLUMN_NAME + " = 0";
+
+    private static final String LOCK_STUDENTS = "SELECT " + STUDENT_PK_COLUMN_NAME + " FROM " + STUDENT_TABLE_NAME
+            + " WHERE " + STUDENT_PK_COLUMN_NAME + " = ANY(?) ORDER BY " + STUDENT_PK_COLUMN_NAME + " FOR UPDATE";
+
+    private static final String LOCK_INSTRUMENTS = "SELECT " + INSTRUMENT_PK_COLUMN_NAME + " FROM " + INSTRUMENT_TABLE_NAME
+            + " WHERE " + INSTRUMENT_PK_COLUMN_NAME + " = ANY(?) ORDER BY " + INSTRUMENT_PK_COLUMN_NAME + " FOR UPDATE";
+
+    private static final String COUNT_CURRENT_RENTALS_BY_STUDENTS = "SELECT " + STUDENT_PK_COLUMN_NAME
+            + ", " + STUDENT_ACTIVE_RENTALS_COLUMN_NAME + " FROM " + STUDENT_TABLE_NAME + " WHERE "
+            + STUDENT_PK_COLUMN_NAME + " = ANY(?) AND " + STUDENT_ACTIVE_RENTALS_COLUMN_NAME + " > 0";
+
+    private static final String COUNT_CURRENT_RENTALS_BY_STUDENT = "SELECT " + STUDENT_ACTIVE_RENTALS_COLUMN_NAME
+            + " FROM " + STUDENT_TABLE_NAME + " WHERE " + STUDENT_PK_COLUMN_NAME + " = ?";
+
+    private static final String COUNT_CURRENT_RENTALS_BY_STUDENT_FOR_UPDATE =
+            COUNT_CURRENT_RENTALS_BY_STUDENT + " FOR UPDATE";
+
+    private static final String FIND_RENTED_INSTRUMENTS = "SELECT DISTINCT " + RENTAL_FK_INSTRUMENT_COLUMN_NAME
+            + " FROM " + RENTAL_TABLE_NAME + " WHERE " + RENTAL_TERMINATED_COLUMN_NAME + " = 0 AND "
+            + RENTAL_FK_INSTRUMENT_COLUMN_NAME + " = ANY(?)";
+
+    private static final String HISTORY_JOB = "historical_lessons";
+
+    /*
+     * Waits for all transactions that insert enrollments to end, and keeps new
+     * ones from starting until the highest enrollment ID has been read, so no
+     * enrollment with a lower ID can be committed after that.
+     */
+    private static final String LOCK_ENROLLMENTS = "LOCK TABLE student_lesson IN SHARE MODE";
+
+    private static final String FIND_LAST_ENROLLMENT = "SELECT COALESCE(MAX(enrollment_id), 0) FROM student_lesson";
+
+    private static final String LOCK_WATERMARK = "SELECT high_water FROM etl_watermark WHERE job = ? FOR UPDATE";
+
+    private static final String FIND_ENROLLMENT_BATCH_END = "SELECT MAX(enrollment_id), COUNT(*) FROM ("
+            + "SELECT enrollment_id FROM student_lesson WHERE enrollment_id > ? AND enrollment_id <= ?"
+            + " ORDER BY enrollment_id LIMIT ?) batch";
+
+    private static final String COPY_ENROLLMENTS_TO_HISTORY = "INSERT INTO historical_lessons (lesson_type, genre,"
+            + " instrument, lesson_price, student_name, student_email, enrollment_id)"
+            + " SELECT lp.lesson_type,"
+            + " CASE WHEN lp.lesson_type = 'ensemble' THEN l.genre ELSE NULL END,"
+            + " CASE WHEN lp.lesson_type != 'ensemble' THEN l.instrument_type ELSE NULL END,"
+            + " lp.price, s.name, s.email, sl.enrollment_id"
+            + " FROM student_lesson sl"
+            + " JOIN lesson l ON l.lesson_id = sl.lesson_id"
+            + " JOIN lesson_price lp ON lp.lesson_price_id = l.lesson_price_id"
+            + " JOIN student s ON s.student_id = sl.student_id"
+            + " WHERE sl.enrollment_id > ? AND sl.enrollment_id <= ?"
+            + " ON CONFLICT (enrollment_id) DO NOTHING";
+
+    private static final String ADVANCE_WATERMARK = "UPDATE etl_watermark SET high_water = ?, updated_at = NOW()"
+            + " WHERE job = ?";
+
+    private static final String REPORT_MONTHLY_LESSONS = "SELECT TO_CHAR(month, 'FMMonth') AS month, total,"
+            + " individual, group_lessons AS \"group\", ensemble FROM report_monthly_lessons"
+            + " WHERE month >= MAKE_DATE(?, 1, 1) AND month < MAKE_DATE(?, 1, 1) ORDER BY month";
+
+    private static final String REPORT_SIBLING_COUNTS = "SELECT no_of_siblings AS siblings, student_count AS students"
+            + " FROM report_sibling_counts WHERE no_of_siblings <= ? ORDER BY no_of_siblings";
+
+    private static final String REPORT_INSTRUCTOR_LESSONS = "SELECT instructor_id, name, total_lessons AS lessons"
+            + " FROM report_instructor_lessons WHERE month = MAKE_DATE(?, ?, 1) AND total_lessons >= ?"
+            + " ORDER BY total_lessons DESC, instructor_id";
+
+    /*
+     * The period reports filter on a half-open range of lesson_start, which
+     * lesson_start_price_instructor_idx serves without reading the lesson rows.
+     */
+    private static final String REPORT_LESSONS_IN_PERIOD = "SELECT TO_CHAR(DATE_TRUNC('month', l.lesson_start),"
+            + " 'YYYY-MM') AS month, COUNT(*) AS total,"
+            + " COUNT(*) FILTER (WHERE lp.lesson_type = 'individual') AS individual,"
+            + " COUNT(*) FILTER (WHERE lp.lesson_type = 'group') AS \"group\","
+            + " COUNT(*) FILTER (WHERE lp.lesson_type = 'ensemble') AS ensemble"
+            + " FROM lesson l LEFT JOIN lesson_price lp ON l.lesson_price_id = lp.lesson_price_id"
+            + " WHERE l.lesson_start >= ? AND l.lesson_start < ?"
+            + " GROUP BY DATE_TRUNC('month', l.lesson_start) ORDER BY DATE_TRUNC('month', l.lesson_start)";
+
+    private static final String REPORT_INSTRUCTOR_LESSONS_IN_PERIOD = "SELECT i.instructor_id, i.name,"
+            + " COUNT(*) AS lessons FROM lesson l JOIN instructor i ON i.instructor_id = l.instructor_id"
+            + " WHERE l.lesson_start >= ? AND l.lesson_start < ?"
+            + " GROUP BY i.instructor_id, i.name HAVING COUNT(*) >= ? ORDER BY lessons DESC, i.instructor_id";
+
+    /*
+     * Seats change with every booking, so this report reads the lessons of the
+     * coming week directly instead of a materialized view.
+     */
+    private static final String REPORT_ENSEMBLE_SEATS = "SELECT TO_CHAR(l.lesson_start, 'FMDay') AS day, l.genre,"
+            + " CASE WHEN SUM(l.students_maximum - l.num_of_students) = 0 THEN 'No Seats'"
+            + " WHEN SUM(l.students_maximum - l.num_of_students) BETWEEN 1 AND 2 THEN '1 or 2 Seats'"
+            + " WHEN SUM(l.students_maximum - l.num_of_students) > 2 THEN 'Many Seats' END AS free_seats"
+            + " FROM lesson l JOIN lesson_price lp ON l.lesson_price_id = lp.lesson_price_id"
+            + " WHERE lp.lesson_type = 'ensemble'"
+            + " AND l.lesson_start >= CURRENT_DATE + 1 AND l.lesson_start < CURRENT_DATE + 8"
+            + " GROUP BY l.lesson_start, l.genre ORDER BY l.lesson_start, l.genre";
+
+    private static final String REFRESH_MONTHLY_LESSONS =
+            "REFRESH MATERIALIZED VIEW CONCURRENTLY report_monthly_lessons";
+
+    private static final String REFRESH_SIBLING_COUNTS =
+            "REFRESH MATERIALIZED VIEW CONCURRENTLY report_sibling_counts";
+
+    private static final String REFRESH_INSTRUCTOR_LESSONS =
+            "REFRESH MATERIALIZED VIEW CONCURRENTLY report_instructor_lessons";
+
+    /*
+     * Checks the quota and the availability, and inserts the rental if both allow
+     * it, all in one statement. The outer select always returns one row, telling
+     * the ID of the new rental or, if it is null, why no rental was inserted.
+     */
+    private static final String CREATE_RENTAL_IF_ALLOWED = "WITH student_status AS ("
+            + "SELECT EXISTS (SELECT 1 FROM " + STUDENT_TABLE_NAME + " WHERE " + STUDENT_PK_COLUMN_NAME + " = ?) AS known, "
+            + "COALESCE((SELECT " + STUDENT_ACTIVE_RENTALS_COLUMN_NAME + " FROM " + STUDENT_TABLE_NAME + " WHERE "
+            + STUDENT_PK_COLUMN_NAME + " = ?), 0) AS current_rentals), "
+            + "instrument_status AS ("
+            + "SELECT EXISTS (SELECT 1 FROM " + INSTRUMENT_TABLE_NAME + " WHERE " + INSTRUMENT_PK_COLUMN_NAME + " = ?) AS known, "
+            + "EXISTS (SELECT 1 FROM " + RENTAL_TABLE_NAME + " WHERE " + RENTAL_FK_INSTRUMENT_COLUMN_NAME + " = ? AND "
+            + RENTAL_TERMINATED_COLUMN_NAME + " = 0) AS rented), "
+            + "new_rental AS (INSERT INTO " + RENTAL_TABLE_NAME
+            + "(" + RENTAL_FK_STUDENT_COLUMN_NAME + ", " + RENTAL_START_DATE_COLUMN_NAME
+            + ", " + RENTAL_END_DATE_COLUMN_NAME + ", " + RENTAL_DURATION_COLUMN_NAME
+            + ", " + RENTAL_TERMINATED_COLUMN_NAME + ", " + RENTAL_FK_INSTRUMENT_COLUMN_NAME
+            + ") SELECT ?, NOW(), ?, 0, 0, ?"
+            + " FROM student_status, instrument_status WHERE student_status.known AND instrument_status.known"
+            + " AND student_status.current_rentals < 2 AND NOT instrument_status.rented"
+            + " RETURNING " + RENTAL_PK_COLUMN_NAME + ") "
+            + "SELECT (SELECT " + RENTAL_PK_COLUMN_NAME + " FROM new_rental), student_status.known,"
+            + " student_status.current_rentals, instrument_status.known, instrument_status.rented"
+            + " FROM student_status, instrument_status";
+
+    /*
+     * Takes a seat and enrolls the student in one statement. The seat is only
+     * taken if the lesson is not full, and since the update waits for concurrent
+     * bookings of the same lesson and then checks the seat count again, a lesson
+     * can never be overbooked. The outer select always returns one row, telling
+     * the seats left and whether the student was enrolled. If a seat was taken
+     * but the student was already enrolled, the caller must roll back.
+     */
+    private static final String BOOK_LESSON = "WITH seat AS (UPDATE lesson"
+            + " SET num_of_students = COALESCE(num_of_students, 0) + 1"
+            + " WHERE lesson_id = ? AND COALESCE(num_of_students, 0) < students_maximum"
+            + " RETURNING students_maximum - num_of_students AS seats_left), "
+            + "enrollment AS (INSERT INTO student_lesson (student_id, lesson_id) SELECT ?, ? FROM seat"
+            + " ON CONFLICT (student_id, lesson_id) DO NOTHING RETURNING lesson_id) "
+            + "SELECT (SELECT seats_left FROM seat), EXISTS (SELECT 1 FROM enrollment),"
+            + " EXISTS (SELECT 1 FROM lesson WHERE lesson_id = ?)";
+
+    /**
+     * The names of the statements in metrics and logs, by their SQL. A statement
+     * missing here is reported as <code>other</code>.
+     */
+    private static final Map<String, String> STATEMENT_NAMES = Map.ofEntries(
+            Map.entry(CREATE_RENTAL, "CREATE_RENTAL"),
+            Map.entry(MARK_RENTAL_AS_TERMINATED, "MARK_RENTAL_AS_TERMINATED"),
+            Map.entry(TERMINATE_RENTALS, "TERMINATE_RENTALS"),
+            Map.entry(TERMINATE_RENTALS_IN_RANGES, "TERMINATE_RENTALS_IN_RANGES"),
+            Map.entry(TERMINATE_RENTALS_BY_STUDENT, "TERMINATE_RENTALS_BY_STUDENT"),
+            Map.entry(FIND_INSTRUMENTS, "FIND_INSTRUMENTS"),
+            Map.entry(FIND_RENTED_INSTRUMENT_IDS, "FIND_RENTED_INSTRUMENT_IDS"),
+            Map.entry(FIND_INSTRUMENTS_BY_AVAILABILITY, "FIND_INSTRUMENTS_BY_AVAILABILITY"),
+            Map.entry(FIND_INSTRUMENTS_BY_AVAILABILITY_AND_TYPE, "FIND_INSTRUMENTS_BY_AVAILABILITY_AND_TYPE"),
+            Map.entry(FIND_RENTALS_BY_STUDENT_AND_STATUS, "FIND_RENTALS_BY_STUDENT_AND_STATUS"),
+            Map.entry(FIND_RENTALS_BY_STUDENT_AND_STATUS_FOR_UPDATE, "FIND_RENTALS_BY_STUDENT_AND_STATUS_FOR_UPDATE"),
+            Map.entry(FIND_RENTALS, "FIND_RENTALS"),
+            Map.entry(FIND_RENTALS_ORDERED, "FIND_RENTALS_ORDERED"),
+            Map.entry(FIND_RENTALS_COLUMNAR, "FIND_RENTALS_COLUMNAR"),
+            Map.entry(FIND_RENTALS_BY_INSTRUMENT, "FIND_RENTALS_BY_INSTRUMENT"),
+            Map.entry(FIND_RENTALS_BY_INSTRUMENT_FOR_UPDATE, "FIND_RENTALS_BY_INSTRUMENT_FOR_UPDATE"),
+            Map.entry(LOCK_INSTRUMENT, "LOCK_INSTRUMENT"),
+            Map.entry(FIND_ACTIVE_RENTAL_BY_INSTRUMENT, "FIND_ACTIVE_RENTAL_BY_INSTRUMENT"),
+            Map.entry(LOCK_STUDENTS, "LOCK_STUDENTS"),
+            Map.entry(LOCK_INSTRUMENTS, "LOCK_INSTRUMENTS"),
+            Map.entry(COUNT_CURRENT_RENTALS_BY_STUDENTS, "COUNT_CURRENT_RENTALS_BY_STUDENTS"),
+            Map.entry(COUNT_CURRENT_RENTALS_BY_STUDENT, "COUNT_CURRENT_RENTALS_BY_STUDENT"),
+            Map.entry(COUNT_CURRENT_RENTALS_BY_STUDENT_FOR_UPDATE, "COUNT_CURRENT_RENTALS_BY_STUDENT_FOR_UPDATE"),
+            Map.entry(FIND_RENTED_INSTRUMENTS, "FIND_RENTED_INSTRUMENTS"),
+            Map.entry(LOCK_ENROLLMENTS, "LOCK_ENROLLMENTS"),
+            Map.entry(FIND_LAST_ENROLLMENT, "FIND_LAST_ENROLLMENT"),
+            Map.entry(LOCK_WATERMARK, "LOCK_WATERMARK"),
+            Map.entry(FIND_ENROLLMENT_BATCH_END, "FIND_ENROLLMENT_BATCH_END"),
+            Map.entry(COPY_ENROLLMENTS_TO_HISTORY, "COPY_ENROLLMENTS_TO_HISTORY"),
+            Map.entry(ADVANCE_WATERMARK, "ADVANCE_WATERMARK"),
+            Map.entry(REPORT_MONTHLY_LESSONS, "REPORT_MONTHLY_LESSONS"),
+            Map.entry(REPORT_SIBLING_COUNTS, "REPORT_SIBLING_COUNTS"),
+            Map.entry(REPORT_INSTRUCTOR_LESSONS, "REPORT_INSTRUCTOR_LESSONS"),
+            Map.entry(REPORT_LESSONS_IN_PERIOD, "REPORT_LESSONS_IN_PERIOD"),
+            Map.entry(REPORT_INSTRUCTOR_LESSONS_IN_PERIOD, "REPORT_INSTRUCTOR_LESSONS_IN_PERIOD"),
+            Map.entry(REPORT_ENSEMBLE_SEATS, "REPORT_ENSEMBLE_SEATS"),
+            Map.entry(REFRESH_MONTHLY_LESSONS, "REFRESH_MONTHLY_LESSONS"),
+            Map.entry(REFRESH_SIBLING_COUNTS, "REFRESH_SIBLING_COUNTS"),
+            Map.entry(REFRESH_INSTRUCTOR_LESSONS, "REFRESH_INSTRUCTOR_LESSONS"),
+            Map.entry(CREATE_RENTAL_IF_ALLOWED, "CREATE_RENTAL_IF_ALLOWED"),
+            Map.entry(BOOK_LESSON, "BOOK_LESSON"));
+    private static final String UNIQUE_VIOLATION = "23505";
+    private static final String RENT_QUOTA_REACHED = "SG001";
+    private static final String END_DATE_BEFORE_START = "SG002";
+    private static final String END_DATE_TOO_LATE = "SG003";
+    private static final String FOREIGN_KEY_VIOLATION = "23503";
+    private static final int COMMIT_LOCK_STRIPES = 64;
+
+    private final SoundgoodDBConfig config;
+    private final ConnectionPool pool;
+    private final ThreadLocal<PooledConnection> transactions = new ThreadLocal<>();
+    private final ThreadLocal<Batch> batches = new ThreadLocal<>();
+    private final ThreadLocal<List<CommitAction>> commitActions = ThreadLocal.withInitial(ArrayList::new);
+    private final ReentrantLock[] commitLocks = new ReentrantLock[COMMIT_LOCK_STRIPES];
+    private final CsvCopier csvCopier = new CsvCopier();
+
+    /**
+     * The state of a thread's ongoing batch, see <code>beginBatch</code>.
+     */
+    private static class Batch {
+        private Savepoint savepoint;
+        private boolean aborted = false;
+        private final List<CommitAction> commitActions = new ArrayList<>();
+        private int commitActionsAtSavepoint = 0;
+    }
+
+    /**
+     * A listener registered with <code>afterCommit</code>, and the key of the
+     * lock it is called under.
+     */
+    private static class CommitAction {
+        private final int lockKey;
+        private final CommitListener listener;
+
+        CommitAction(int lockKey, CommitListener listener) {
+            this.lockKey = lockKey;
+            this.listener = listener;
+        }
+    }
+
     /**
-     * Constructs a new DAO object connected to the bank database.
+     * Constructs a new DAO object connected to the Soundgood database, using the
+     * settings in the system properties.
      */
     public SoundgoodDAO() throws SoundgoodDBException {
+        this(SoundgoodDBConfig.fromSystemProperties());
+    }
+
+    /**
+     * Constructs a new DAO object connected to the Soundgood database.
+     *
+     * @param config The connection and pool settings.
+     */
+    public SoundgoodDAO(SoundgoodDBConfig config) throws SoundgoodDBException {
+        this.config = config;
+        for (int i = 0; i < commitLocks.length; i++) {
+            commitLocks[i] = new ReentrantLock();
+        }
         try {
-            connectToSoundgoodDB();
-            prepareStatements();
-        } catch (ClassNotFoundException | SQLException exception) {
+            pool = new ConnectionPool(config, STATEMENT_NAMES);
+        } catch (SQLException exception) {
             throw new SoundgoodDBException("Could not connect to datasource.", exception);
         }
+        if (config.isMigrateOnStartup()) {
+            migrateSchema();
+        }
+    }
+
+    /**
+     * Applies all schema migrations that have not yet been applied.
+     *
+     * @return The number of applied migrations.
+     * @throws SoundgoodDBException If a migration failed.
+     */
+    public int migrateSchema() throws SoundgoodDBException {
+        String failureMsg = "Could not migrate the database schema.";
+        try {
+            int applied = new SchemaMigrator().migrate(connection());
+            releaseConnection();
+            return applied;
+        } catch (SQLException | IOException e) {
+            handleException(failureMsg, e);
+            return 0;
+        }
+    }
+
+    /**
+     * Shows how the database executes each of the frequently used statements.
+     * Sequential scans are disabled while the statements are explained, so the
+     * plans show whether a usable index exists even when the tables are still
+     * small. Since the planner is forced, the plans do not show which access path
+     * it would choose on its own for large tables, see
+     * <code>explainHotQueries(boolean)</code>. The statements are not executed.
+     *
+     * @return The plan of each statement, by statement name.
+     * @throws SoundgoodDBException If failed to explain a statement.
+     */
+    public Map<String, String> explainHotQueries() throws SoundgoodDBException {
+        return explainHotQueries(true);
+    }
+
+    /**
+     * Shows how the database executes each of the frequently used statements. The
+     * statements are not executed.
+     *
+     * @param forceIndexes <code>true</code> if sequential scans shall be disabled,
+     *                     so that the plans show whether a usable index exists.
+     *                     <code>false</code> if the planner shall choose with its
+     *                     default settings, which only shows the plans used in
+     *                     production if the tables are loaded and analyzed.
+     * @return The plan of each statement, by statement name.
+     * @throws SoundgoodDBException If failed to explain a statement.
+     */
+    public Map<String, String> explainHotQueries(boolean forceIndexes) throws SoundgoodDBException {
+        Map<String, String> plans = new LinkedHashMap<>();
+        try {
+            if (forceIndexes) {
+                connection().prepare("SET LOCAL enable_seqscan = off").execute();
+            }
+            plans.put("findInstrumentsByAvailability", explain(FIND_INSTRUMENTS_BY_AVAILABILITY));
+            plans.put("findInstrumentsByAvailabilityAndType",
+                    explain(FIND_INSTRUMENTS_BY_AVAILABILITY_AND_TYPE, "Guitar"));
+            plans.put("findRentalsByStudentAndStatus", explain(FIND_RENTALS_BY_STUDENT_AND_STATUS, 1));
+            plans.put("findRentalsByInstrument", explain(FIND_RENTALS_BY_INSTRUMENT, 1));
+            plans.put("findActiveRentalByInstrument", explain(FIND_ACTIVE_RENTAL_BY_INSTRUMENT, 1));
+            plans.put("findRentedInstrumentIDs", explain(FIND_RENTED_INSTRUMENT_IDS));
+            plans.put("terminateRentalsByStudent", explain(TERMINATE_RENTALS_BY_STUDENT, 1));
+            Timestamp monthStart = startOf(LocalDate.now().withDayOfMonth(1));
+            Timestamp nextMonthStart = startOf(LocalDate.now().withDayOfMonth(1).plusMonths(1));
+            plans.put("reportLessonsInPeriod", explain(REPORT_LESSONS_IN_PERIOD, monthStart, nextMonthStart));
+            plans.put("reportInstructorLessonsInPeriod",
+                    explain(REPORT_INSTRUCTOR_LESSONS_IN_PERIOD, monthStart, nextMonthStart, 1));
+        } catch (SQLException sqle) {
+            handleException("Could not explain queries.", sqle);
+        }
+        rollback();
+        return plans;
     }
 
     /**
      * Rents an instrument to a student and updates the information on the instruments availibility.
+     * The transaction is left for the caller to commit.
      *
      * @param student_id    ID of the student renting the instrument
      * @param instrument_id ID of the instrument
-     * @param rentDateDue   The date which the student has to return the instrument at
-     * @throws SoundgoodDBException If failed to create rental.
+     * @param rentDateDue   The date which the student has to return the instrument at, formatted
+     *                      <code>yyyy-MM-dd</code>
+     * @throws SoundgoodDBException If failed to create rental, or the date does not exist.
      */
     public void createRental(Integer student_id, Integer instrument_id, String rentDateDue) throws SoundgoodDBException {
         String failureMsg = "Unable to rent for student_id: " + student_id + " and instrument: " + instrument_id + " at the due date of: " + rentDateDue + ".";
         try {
-            // Convert the rentDateDue string to Timestamp
-            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
-            java.util.Date parsedDate = sdf.parse(rentDateDue);
-            Timestamp rentDateDueTimestamp = new Timestamp(parsedDate.getTime());
+            // Convert the rentDateDue string to Timestamp, rejecting dates that do not exist
+            Timestamp rentDateDueTimestamp = startOf(LocalDate.parse(rentDateDue));
 
             // Set values in the prepared statement
+            PreparedStatement createRental = connection().prepare(CREATE_RENTAL);
             createRental.setInt(1, student_id);
             createRental.setTimestamp(2, rentDateDueTimestamp); // Set the rental end date as a Timestamp
             createRental.setInt(3, instrument_id);
@@ -107,273 +539,1364 @@ public class SoundgoodDAO {
             if (updatedRows != 1) {
                 handleException(failureMsg, null);
             }
-            connection.commit();
-        } catch (SQLException | java.text.ParseException sqle) {
+        } catch (SQLException | DateTimeParseException sqle) {
             handleException(failureMsg, sqle);
         }
     }
 
-    public void markRentalAsTerminated(int rentalID) throws SoundgoodDBException {
-        String failureMsg = "Could not terminate rental: " + rentalID;
+    /**
+     * Rents an instrument to a student if the student has not reached the rent
+     * quota and the instrument is not rented, using a single statement. No locks
+     * are taken before the statement. If the rental was created, the transaction
+     * is left for the caller to commit, otherwise it is rolled back.
+     *
+     * @param request The rental to create.
+     * @return The ID of the new rental, or the reason it was not created.
+     * @throws SoundgoodDBException If failed to execute the statement.
+     */
+    public RentalResult createRentalIfAllowed(RentalRequest request) throws SoundgoodDBException {
+        String failureMsg = "Unable to rent for student_id: " + request.getStudentID() + " and instrument: "
+                + request.getInstrumentID() + " at the due date of: " + request.getRentalEndDate() + ".";
+        Timestamp rentDateDueTimestamp;
         try {
-            markRentalAsTerminated.setInt(1, rentalID);  // Set the rental ID parameter
-            int updatedRows = markRentalAsTerminated.executeUpdate();  // Execute the update statement
-        
-            if (updatedRows != 1) {
-                handleException(failureMsg, null);  // Handle case if rental is not found or not updated
+            rentDateDueTimestamp = startOf(LocalDate.parse(request.getRentalEndDate()));
+        } catch (DateTimeParseException e) {
+            return RentalResult.rejected(request, "Invalid end date");
+        }
+        ResultSet result = null;
+        RentalResult outcome = null;
+        try {
+            PreparedStatement createRental = connection().prepare(CREATE_RENTAL_IF_ALLOWED);
+            createRental.setInt(1, request.getStudentID());
+            createRental.setInt(2, request.getStudentID());
+            createRental.setInt(3, request.getInstrumentID());
+            createRental.setInt(4, request.getInstrumentID());
+            createRental.setInt(5, request.getStudentID());
+            createRental.setTimestamp(6, rentDateDueTimestamp);
+            createRental.setInt(7, request.getInstrumentID());
+            result = createRental.executeQuery();
+            result.next();
+            int rentalID = result.getInt(1);
+            if (!result.wasNull()) {
+                outcome = RentalResult.created(request, rentalID);
+            } else if (!result.getBoolean(2)) {
+                outcome = RentalResult.rejected(request, "No such student");
+            } else if (!result.getBoolean(4)) {
+                outcome = RentalResult.rejected(request, "No such instrument");
+            } else if (result.getInt(3) >= 2) {
+                outcome = RentalResult.rejected(request, "Rent quota reached");
+            } else {
+                outcome = RentalResult.rejected(request, "Instrument already rented");
+            }
+            closeResultSet(failureMsg, result);
+            result = null;
+            if (!outcome.isCreated()) {
+                rollback();
             }
-        
-            connection.commit();  // Commit the transaction if the update was successful
         } catch (SQLException sqle) {
-            handleException(failureMsg, sqle);  // Handle any SQL exceptions
+            // A concurrent rental won the race, and was caught by the unique index
+            // or by the quota trigger, or the end date broke one of the date
+            // triggers.
+            String reason = toRejectionReason(sqle);
+            if (reason != null) {
+                rollback();
+                outcome = RentalResult.rejected(request, reason);
+            } else {
+                handleException(failureMsg, sqle);
+            }
+        } finally {
+            closeResultSet(failureMsg, result);
         }
+        return outcome;
     }
-    
+
     /**
-     * Retrieves all available instruments.
+     * Books a seat on the specified lesson for the specified student, if the
+     * lesson is not full and the student is not already enrolled, using a single
+     * statement. If the lesson was booked, the transaction is left for the caller
+     * to commit, otherwise it is rolled back.
      *
-     * @return A list with all available instruments. The list is empty if there are
-     *         no
-     *         instruments available.
-     * @throws SoundgoodDBException If failed to search for available instruments.
-     * @throws SQLException
+     * @param studentID The student to enroll.
+     * @param lessonID  The lesson to book.
+     * @return The seats left on the lesson, or the reason it was not booked.
+     * @throws SoundgoodDBException If failed to execute the statement.
      */
-    public List<Instrument> findInstrumentsByAvailability() throws SoundgoodDBException {
-        List<Instrument> availableInstruments = new ArrayList<>();
+    public BookingResult bookLesson(int studentID, int lessonID) throws SoundgoodDBException {
+        String failureMsg = "Unable to book lesson: " + lessonID + " for student_id: " + studentID + ".";
         ResultSet result = null;
-        
+        BookingResult outcome = null;
         try {
-            // Execute the query using the prepared statement
-            result = findInstrumentsByAvailability.executeQuery();
-            
-            // Loop through the result set to populate the list of available instruments
-            while (result.next()) {
-                availableInstruments.add(new Instrument(result.getInt(INSTRUMENT_PK_COLUMN_NAME),
-                    result.getString(INSTRUMENT_TYPE_COLUMN_NAME),
-                    result.getString(INSTRUMENT_BRAND_COLUMN_NAME),
-                    result.getString(INSTRUMENT_LOCATION_COLUMN_NAME),
-                    result.getInt(INSTRUMENT_PRICE_COLUMN_NAME)));
+            PreparedStatement bookLesson = connection().prepare(BOOK_LESSON);
+            bookLesson.setInt(1, lessonID);
+            bookLesson.setInt(2, studentID);
+            bookLesson.setInt(3, lessonID);
+            bookLesson.setInt(4, lessonID);
+            result = bookLesson.executeQuery();
+            result.next();
+            int seatsLeft = result.getInt(1);
+            boolean seatTaken = !result.wasNull();
+            boolean enrolled = result.getBoolean(2);
+            boolean knownLesson = result.getBoolean(3);
+            closeResultSet(failureMsg, result);
+            result = null;
+            if (enrolled) {
+                outcome = BookingResult.booked(studentID, lessonID, seatsLeft);
+            } else {
+                rollback();
+                if (seatTaken) {
+                    outcome = BookingResult.rejected(studentID, lessonID, "Student already booked");
+                } else if (!knownLesson) {
+                    outcome = BookingResult.rejected(studentID, lessonID, "No such lesson");
+                } else {
+                    outcome = BookingResult.rejected(studentID, lessonID, BookingResult.LESSON_FULL);
+                }
+            }
+        } catch (SQLException sqle) {
+            // The seat was taken, so the lesson exists, and the enrollment
+            // referenced a student that does not.
+            if (FOREIGN_KEY_VIOLATION.equals(sqle.getSQLState())) {
+                rollback();
+                outcome = BookingResult.rejected(studentID, lessonID, "No such student");
+            } else {
+                handleException(failureMsg, sqle);
             }
-        } catch (SQLException e) {
-            throw new SoundgoodDBException("Error listing available instruments.", e);
         } finally {
-            closeResultSet("Could not list instruments.", result);
+            closeResultSet(failureMsg, result);
         }
-        
-        return availableInstruments;
+        return outcome;
     }
 
     /**
-     * Retrieves all available instruments of given type.
+     * Inserts all the specified rentals with one batch, in one transaction that is
+     * left for the caller to commit. The requests are not validated, that must be
+     * done by the caller before calling this method.
      *
-     * @return A list with all available instruments. The list is empty if there are
-     *         no
-     *         instruments available.
-     * @throws SoundgoodDBException If failed to search for available instruments.
+     * @param requests The rentals to create.
+     * @return The IDs of the created rentals, in the same order as the requests.
+     * @throws SoundgoodDBException If failed to create the rentals, in which case
+     *                              none of them is created.
      */
-    public List<Instrument> findInstrumentsByAvailabilityAndType(String type) throws SoundgoodDBException, SQLException {
-        ResultSet result = null;
-        String failureMsg = "Could not list instruments.";
-        List<Instrument> instruments = new ArrayList<>();
+    public List<Integer> createRentals(List<RentalRequest> requests) throws SoundgoodDBException {
+        String failureMsg = "Unable to create " + requests.size() + " rentals.";
+        List<Integer> rentalIDs = new ArrayList<>(requests.size());
+        ResultSet keys = null;
         try {
-            findInstrumentsByAvailabilityAndType.setInt(1, 0); // 0 means "not terminated"
-            findInstrumentsByAvailabilityAndType.setString(2, type); // Type of the instrument, e.g., 'Guitar'
-            result = findInstrumentsByAvailabilityAndType.executeQuery();
-            while (result.next()) {
-                instruments.add(new Instrument(result.getInt(INSTRUMENT_PK_COLUMN_NAME),
-                result.getString(INSTRUMENT_TYPE_COLUMN_NAME),
-                result.getString(INSTRUMENT_BRAND_COLUMN_NAME),
-                result.getString(INSTRUMENT_LOCATION_COLUMN_NAME),
-                result.getInt(INSTRUMENT_PRICE_COLUMN_NAME)));
-    }
-            connection.commit();
-        } catch (SQLException sqle) {
+            PreparedStatement createRentals = connection().prepare(CREATE_RENTAL, RENTAL_PK_COLUMN_NAME);
+            for (RentalRequest request : requests) {
+                createRentals.setInt(1, request.getStudentID());
+                createRentals.setTimestamp(2, startOf(LocalDate.parse(request.getRentalEndDate())));
+                createRentals.setInt(3, request.getInstrumentID());
+                createRentals.addBatch();
+            }
+            createRentals.executeBatch();
+            keys = createRentals.getGeneratedKeys();
+            while (keys.next()) {
+                rentalIDs.add(keys.getInt(1));
+            }
+            if (rentalIDs.size() != requests.size()) {
+                handleException(failureMsg, null);
+            }
+        } catch (SQLException | DateTimeParseException sqle) {
             handleException(failureMsg, sqle);
         } finally {
-            closeResultSet(failureMsg, result);
+            closeResultSet(failureMsg, keys);
         }
-        return instruments;
+        return rentalIDs;
     }
-    
 
-    // reads all rentals (history)
-    public List<Rental> findRentals() throws SoundgoodDBException {
-        String failureMsg = "Could not show rentals";
-        List<Rental> rentals = new ArrayList<>();
+    /**
+     * Locks the rows of the specified students, in student ID order, until the
+     * ongoing transaction ends. The transaction is not ended by this method.
+     *
+     * @param studentIDs The students to lock.
+     * @return The IDs of those of the specified students that exist.
+     * @throws SoundgoodDBException If failed to lock the students.
+     */
+    public Set<Integer> lockStudents(Collection<Integer> studentIDs) throws SoundgoodDBException {
+        return findIDs(LOCK_STUDENTS, studentIDs, "Could not lock students.");
+    }
+
+    /**
+     * Locks the rows of the specified instruments, in instrument ID order, until
+     * the ongoing transaction ends. The transaction is not ended by this method.
+     *
+     * @param instrumentIDs The instruments to lock.
+     * @return The IDs of those of the specified instruments that exist.
+     * @throws SoundgoodDBException If failed to lock the instruments.
+     */
+    public Set<Integer> lockInstruments(Collection<Integer> instrumentIDs) throws SoundgoodDBException {
+        return findIDs(LOCK_INSTRUMENTS, instrumentIDs, "Could not lock instruments.");
+    }
+
+    /**
+     * Locks the row of the specified instrument until the ongoing transaction
+     * ends, and tells if the instrument has an ongoing rental. Only the instrument
+     * row is locked, not its rentals, so the cost does not grow with the rental
+     * history. Since every rental of the instrument is created while holding this
+     * lock, no other transaction can rent the instrument before the ongoing one
+     * ends. The transaction is not ended by this method.
+     *
+     * @param instrument_id The instrument to lock.
+     * @return <code>true</code> if the instrument is rented, <code>false</code>
+     *         if it is not, or <code>null</code> if there is no such instrument.
+     * @throws SoundgoodDBException If failed to lock the instrument.
+     */
+    public Boolean lockInstrumentAndCheckIfRented(Integer instrument_id) throws SoundgoodDBException {
+        String failureMsg = "Could not lock instrument";
+        Boolean rented = null;
         ResultSet result = null;
         try {
-            result = findRentals.executeQuery();
-            while (result.next()) {
-                rentals.add(new Rental(result.getInt(RENTAL_PK_COLUMN_NAME),
-                        result.getInt(RENTAL_FK_STUDENT_COLUMN_NAME),
-                        result.getInt(RENTAL_FK_INSTRUMENT_COLUMN_NAME),
-                        result.getTimestamp(RENTAL_START_DATE_COLUMN_NAME),
-                        result.getTimestamp(RENTAL_END_DATE_COLUMN_NAME),                        
-                        result.getInt(RENTAL_DURATION_COLUMN_NAME),
-                        result.getInt(RENTAL_TERMINATED_COLUMN_NAME) == 1)); //convert to boolean
-            }
-            connection.commit();
+            PreparedStatement lockStmt = connection().prepare(LOCK_INSTRUMENT);
+            lockStmt.setInt(1, instrument_id);
+            result = lockStmt.executeQuery();
+            boolean exists = result.next();
+            closeResultSet(failureMsg, result);
+            result = null;
+            if (exists) {
+                /*
+                 * Read in a statement of its own, after the lock is granted, so that
+                 * a rental committed while waiting for the lock is seen.
+                 */
+                PreparedStatement findStmt = connection().prepare(FIND_ACTIVE_RENTAL_BY_INSTRUMENT);
+                findStmt.setInt(1, instrument_id);
+                result = findStmt.executeQuery();
+                rented = result.next();
+            }
         } catch (SQLException sqle) {
             handleException(failureMsg, sqle);
         } finally {
             closeResultSet(failureMsg, result);
         }
-        return rentals;
+        return rented;
     }
 
-    // finds current and past rentals for a specific instrument (used in history)
-    public List<Rental> findRentalsByInstrument(Integer instrument_id, boolean lockExclusive) throws SoundgoodDBException {
-        PreparedStatement stmtToExecute;
+    /**
+     * Reads the number of ongoing rentals of the specified student from the
+     * counter maintained by the database, which costs the same however many
+     * rentals the student has had.
+     *
+     * @param student_id    The student whose rentals are counted.
+     * @param lockExclusive If <code>true</code>, the student row is locked and the
+     *                      transaction is left open, otherwise it is committed.
+     * @return The number of ongoing rentals, or <code>null</code> if there is no
+     *         such student.
+     * @throws SoundgoodDBException If failed to read the counter.
+     */
+    public Integer countCurrentRentalsByStudent(Integer student_id, boolean lockExclusive)
+            throws SoundgoodDBException {
+        String sqlToExecute;
         if (lockExclusive) {
-            stmtToExecute = findRentalsByInstrumentForUpdate;
+            sqlToExecute = COUNT_CURRENT_RENTALS_BY_STUDENT_FOR_UPDATE;
         } else {
-            stmtToExecute = findRentalsByInstrument;
+            sqlToExecute = COUNT_CURRENT_RENTALS_BY_STUDENT;
         }
 
-        String failureMsg = "Could not find rentals";
-        List<Rental> rentals = new ArrayList<>();
+        String failureMsg = "Could not count rentals";
+        Integer count = null;
         ResultSet result = null;
-
         try {
-            stmtToExecute.setInt(1, instrument_id);
+            PreparedStatement stmtToExecute = connection().prepare(sqlToExecute);
+            stmtToExecute.setInt(1, student_id);
             result = stmtToExecute.executeQuery();
-            while (result.next()) {
-                rentals.add(new Rental(result.getInt(RENTAL_PK_COLUMN_NAME),
-                        result.getInt(RENTAL_FK_STUDENT_COLUMN_NAME),
-                        result.getInt(RENTAL_FK_INSTRUMENT_COLUMN_NAME),
-                        result.getTimestamp(RENTAL_START_DATE_COLUMN_NAME),
-                        result.getTimestamp(RENTAL_END_DATE_COLUMN_NAME),
-                        result.getInt(RENTAL_DURATION_COLUMN_NAME),
-                        result.getInt(RENTAL_TERMINATED_COLUMN_NAME) == 1)); // convert to boolean
+            if (result.next()) {
+                count = result.getInt(1);
             }
             if (!lockExclusive) {
-                connection.commit();
+                commitTransaction();
             }
         } catch (SQLException sqle) {
             handleException(failureMsg, sqle);
         } finally {
             closeResultSet(failureMsg, result);
         }
-        return rentals;
+        return count;
     }
 
-    // finds all of student's rentals, both past and current (used in history)
-    public List<Rental> findCurrentRentalsByStudent(Integer student_id, boolean lockExclusive) throws SoundgoodDBException {
-        PreparedStatement stmtToExecute;
-        if (lockExclusive) {
-            stmtToExecute = findRentalsByStudentAndStatusForUpdate;
-        } else {
-            stmtToExecute = findRentalsByStudentAndStatus;
-        }
-
-        String failureMsg = "Could not find rentals";
-        List<Rental> rentals = new ArrayList<>();
+    /**
+     * Counts the ongoing rentals of each of the specified students with one query.
+     * The transaction is not ended by this method.
+     *
+     * @param studentIDs The students whose rentals are counted.
+     * @return The number of ongoing rentals per student. Students without ongoing
+     *         rentals are not included.
+     * @throws SoundgoodDBException If failed to count the rentals.
+     */
+    public Map<Integer, Integer> countCurrentRentalsByStudents(Collection<Integer> studentIDs)
+            throws SoundgoodDBException {
+        String failureMsg = "Could not count rentals";
+        Map<Integer, Integer> counts = new HashMap<>();
         ResultSet result = null;
-
         try {
-            stmtToExecute.setInt(1, student_id);
-            stmtToExecute.setInt(2, 0);
-            result = stmtToExecute.executeQuery();
+            PreparedStatement stmt = connection().prepare(COUNT_CURRENT_RENTALS_BY_STUDENTS);
+            stmt.setArray(1, toIntArray(studentIDs));
+            result = stmt.executeQuery();
             while (result.next()) {
-                rentals.add(new Rental(result.getInt(RENTAL_PK_COLUMN_NAME),
-                        result.getInt(RENTAL_FK_STUDENT_COLUMN_NAME),
-                        result.getInt(RENTAL_FK_INSTRUMENT_COLUMN_NAME),
-                        result.getTimestamp(RENTAL_START_DATE_COLUMN_NAME),
-                        result.getTimestamp(RENTAL_END_DATE_COLUMN_NAME),
-                        result.getInt(RENTAL_DURATION_COLUMN_NAME),
-                        result.getInt(RENTAL_TERMINATED_COLUMN_NAME) == 1));  // Convert to boolean
-            }
-            if (!lockExclusive) {
-                connection.commit();
+                counts.put(result.getInt(1), result.getInt(2));
             }
         } catch (SQLException sqle) {
             handleException(failureMsg, sqle);
         } finally {
             closeResultSet(failureMsg, result);
         }
-        return rentals;
+        return counts;
     }
 
     /**
-     * Commits the current transaction.
-     * 
-     * @throws SoundgoodDBException If unable to commit the current transaction.
+     * Finds which of the specified instruments are currently rented, with one
+     * query. The transaction is not ended by this method.
+     *
+     * @param instrumentIDs The instruments to check.
+     * @return The IDs of those of the specified instruments that are rented.
+     * @throws SoundgoodDBException If failed to search for rentals.
      */
-    public void commit() throws SoundgoodDBException {
+    public Set<Integer> findRentedInstruments(Collection<Integer> instrumentIDs) throws SoundgoodDBException {
+        return findIDs(FIND_RENTED_INSTRUMENTS, instrumentIDs, "Could not find rented instruments.");
+    }
+
+    /**
+     * Terminates the specified rental, if it is not already terminated. The
+     * transaction is left for the caller to commit.
+     *
+     * @param rentalID The rental to terminate.
+     * @return The terminated rental, or <code>null</code> if there is no such
+     *         ongoing rental.
+     * @throws SoundgoodDBException If failed to terminate the rental.
+     */
+    public Rental markRentalAsTerminated(int rentalID) throws SoundgoodDBException {
+        String failureMsg = "Could not terminate rental: " + rentalID;
+        List<Rental> terminated = null;
         try {
-            connection.commit();
-        } catch (SQLException e) {
-            handleException("Failed to commit", e);
+            PreparedStatement markRentalAsTerminated = connection().prepare(MARK_RENTAL_AS_TERMINATED);
+            markRentalAsTerminated.setInt(1, rentalID);  // Set the rental ID parameter
+            terminated = executeTermination(markRentalAsTerminated, failureMsg);  // Execute the update
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);  // Handle any SQL exceptions
         }
+        return terminated.isEmpty() ? null : terminated.get(0);  // No row if the rental is not ongoing
     }
-
-    private void connectToSoundgoodDB() throws ClassNotFoundException, SQLException {
-        connection = DriverManager.getConnection("jdbc:postgresql://localhost:5432/Leif1", "postgres", "postgres");
-        connection.setAutoCommit(false);
+    
+    /**
+     * Terminates all the specified rentals that are not already terminated, with
+     * one statement. The transaction is left for the caller to commit.
+     *
+     * @param rentalIDs The rentals to terminate.
+     * @return The rentals that were terminated by this call.
+     * @throws SoundgoodDBException If failed to terminate the rentals, in which
+     *                              case none of them is terminated.
+     */
+    public List<Rental> terminateRentals(Collection<Integer> rentalIDs) throws SoundgoodDBException {
+        String failureMsg = "Could not terminate rentals: " + rentalIDs;
+        try {
+            PreparedStatement stmt = connection().prepare(TERMINATE_RENTALS);
+            stmt.setArray(1, toIntArray(rentalIDs));
+            return executeTermination(stmt, failureMsg);
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+            return null;
+        }
     }
 
-    private void prepareStatements() throws SQLException {
+    /**
+     * Terminates all rentals with IDs in any of the specified ranges, inclusive,
+     * that are not already terminated, with one statement. The transaction is
+     * left for the caller to commit.
+     *
+     * @param firstRentalIDs The lowest ID of each range.
+     * @param lastRentalIDs  The highest ID of each range, in the same order as
+     *                       <code>firstRentalIDs</code>.
+     * @return The rentals that were terminated by this call.
+     * @throws SoundgoodDBException If failed to terminate the rentals, in which
+     *                              case none of them is terminated.
+     */
+    public List<Rental> terminateRentalsInRanges(int[] firstRentalIDs, int[] lastRentalIDs)
+            throws SoundgoodDBException {
+        String failureMsg = "Could not terminate rentals in " + firstRentalIDs.length + " ranges";
+        try {
+            PreparedStatement stmt = connection().prepare(TERMINATE_RENTALS_IN_RANGES);
+            stmt.setArray(1, toIntArray(firstRentalIDs));
+            stmt.setArray(2, toIntArray(lastRentalIDs));
+            return executeTermination(stmt, failureMsg);
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+            return null;
+        }
+    }
 
-        createRental = connection.prepareStatement("INSERT INTO " + RENTAL_TABLE_NAME
-            + "(" + RENTAL_FK_STUDENT_COLUMN_NAME + ", " + RENTAL_START_DATE_COLUMN_NAME +
-            ", " + RENTAL_END_DATE_COLUMN_NAME + ", " + RENTAL_DURATION_COLUMN_NAME
-            + ", " + RENTAL_TERMINATED_COLUMN_NAME + ", " + RENTAL_FK_INSTRUMENT_COLUMN_NAME
-            + ") VALUES (?, NOW(), ?, 0, 0, ?)");
-        
+    /**
+     * Terminates all ongoing rentals of the specified student, with one statement.
+     * The transaction is left for the caller to commit.
+     *
+     * @param studentID The student whose rentals are terminated.
+     * @return The rentals that were terminated by this call.
+     * @throws SoundgoodDBException If failed to terminate the rentals, in which
+     *                              case none of them is terminated.
+     */
+    public List<Rental> terminateRentalsByStudent(int studentID) throws SoundgoodDBException {
+        String failureMsg = "Could not terminate rentals of student: " + studentID;
+        try {
+            PreparedStatement stmt = connection().prepare(TERMINATE_RENTALS_BY_STUDENT);
+            stmt.setInt(1, studentID);
+            return executeTermination(stmt, failureMsg);
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+            return null;
+        }
+    }
 
-        markRentalAsTerminated = connection.prepareStatement("UPDATE " + RENTAL_TABLE_NAME
-            + " SET " + RENTAL_TERMINATED_COLUMN_NAME + " = 1"
-            + " WHERE " + RENTAL_PK_COLUMN_NAME + " = ?");
+    /**
+     * Retrieves all instruments, regardless of availability.
+     *
+     * @return A list with all instruments, ordered by instrument ID.
+     * @throws SoundgoodDBException If failed to search for instruments.
+     */
+    public List<Instrument> findAllInstruments() throws SoundgoodDBException {
+        String failureMsg = "Could not list instruments.";
+        List<Instrument> instruments = new ArrayList<>();
+        ResultSet result = null;
+        try {
+            result = connection().prepare(FIND_INSTRUMENTS).executeQuery();
+            while (result.next()) {
+                instruments.add(toInstrument(result));
+            }
+            commitTransaction();
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        } finally {
+            closeResultSet(failureMsg, result);
+        }
+        return instruments;
+    }
 
-        findInstrumentsByAvailability = connection.prepareStatement("SELECT i.* " +
-            "FROM " + INSTRUMENT_TABLE_NAME + " AS i " + "LEFT JOIN " + RENTAL_TABLE_NAME + " AS r ON i." 
-            + INSTRUMENT_PK_COLUMN_NAME + " = r." + RENTAL_FK_INSTRUMENT_COLUMN_NAME + " AND r." 
-            + RENTAL_TERMINATED_COLUMN_NAME + " = 0 " + "WHERE r." + RENTAL_FK_INSTRUMENT_COLUMN_NAME + " IS NULL " 
-            + "ORDER BY i." + INSTRUMENT_PK_COLUMN_NAME + ";");
+    /**
+     * Retrieves the IDs of all instruments that are currently rented.
+     *
+     * @return The IDs of all rented instruments.
+     * @throws SoundgoodDBException If failed to search for rentals.
+     */
+    public List<Integer> findRentedInstrumentIDs() throws SoundgoodDBException {
+        String failureMsg = "Could not find rented instruments.";
+        List<Integer> instrumentIDs = new ArrayList<>();
+        ResultSet result = null;
+        try {
+            result = connection().prepare(FIND_RENTED_INSTRUMENT_IDS).executeQuery();
+            while (result.next()) {
+                instrumentIDs.add(result.getInt(1));
+            }
+            commitTransaction();
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        } finally {
+            closeResultSet(failureMsg, result);
+        }
+        return instrumentIDs;
+    }
 
-        findInstrumentsByAvailabilityAndType = connection.prepareStatement("SELECT i." + INSTRUMENT_PK_COLUMN_NAME
-            + ", i." + INSTRUMENT_TYPE_COLUMN_NAME + ", i." + INSTRUMENT_BRAND_COLUMN_NAME
-            + ", i." + INSTRUMENT_LOCATION_COLUMN_NAME + ", i." + INSTRUMENT_PRICE_COLUMN_NAME
-            + " FROM " + INSTRUMENT_TABLE_NAME + " AS i" + " WHERE NOT EXISTS (SELECT r." + RENTAL_FK_INSTRUMENT_COLUMN_NAME
-            + " FROM " + RENTAL_TABLE_NAME + " AS r" + " WHERE i." + INSTRUMENT_PK_COLUMN_NAME + " = r." + RENTAL_FK_INSTRUMENT_COLUMN_NAME
-            + " AND r." + RENTAL_TERMINATED_COLUMN_NAME + " = ?)"
-            + " AND LOWER(i." + INSTRUMENT_TYPE_COLUMN_NAME + ") = LOWER(?)"); // Make it case-insensitive
+    /**
+     * Retrieves all available instruments.
+     *
+     * @return A list with all available instruments. The list is empty if there are
+     *         no
+     *         instruments available.
+     * @throws SoundgoodDBException If failed to search for available instruments.
+     */
+    public List<Instrument> findInstrumentsByAvailability() throws SoundgoodDBException {
+        String failureMsg = "Could not list instruments.";
+        List<Instrument> availableInstruments = new ArrayList<>();
+        ResultSet result = null;
+        
+        try {
+            // Execute the query using the prepared statement
+            result = connection().prepare(FIND_INSTRUMENTS_BY_AVAILABILITY).executeQuery();
+            
+            // Loop through the result set to populate the list of available instruments
+            while (result.next()) {
+                availableInstruments.add(toInstrument(result));
+            }
+            commitTransaction();
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        } finally {
+            closeResultSet(failureMsg, result);
+        }
+        
+        return availableInstruments;
+    }
+
+    /**
+     * Retrieves all available instruments of given type.
+     *
+     * @return A list with all available instruments. The list is empty if there are
+     *         no
+     *         instruments available.
+     * @throws SoundgoodDBException If failed to search for available instruments.
+     */
+    public List<Instrument> findInstrumentsByAvailabilityAndType(String type) throws SoundgoodDBException {
+        ResultSet result = null;
+        String failureMsg = "Could not list instruments.";
+        List<Instrument> instruments = new ArrayList<>();
+        try {
+            PreparedStatement findInstrumentsByAvailabilityAndType =
+                    connection().prepare(FIND_INSTRUMENTS_BY_AVAILABILITY_AND_TYPE);
+            findInstrumentsByAvailabilityAndType.setString(1, type); // Type of the instrument, e.g., 'Guitar'
+            result = findInstrumentsByAvailabilityAndType.executeQuery();
+            while (result.next()) {
+                instruments.add(toInstrument(result));
+            }
+            commitTransaction();
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        } finally {
+            closeResultSet(failureMsg, result);
+        }
+        return instruments;
+    }
+    
+
+    // reads all rentals (history)
+    public List<Rental> findRentals() throws SoundgoodDBException {
+        String failureMsg = "Could not show rentals";
+        List<Rental> rentals = new ArrayList<>();
+        ResultSet result = null;
+        try {
+            result = connection().prepare(FIND_RENTALS).executeQuery();
+            while (result.next()) {
+                rentals.add(toRental(result));
+            }
+            commitTransaction();
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        } finally {
+            closeResultSet(failureMsg, result);
+        }
+        return rentals;
+    }
+
+    /**
+     * Streams the whole rental history, ordered by rental ID. Rows are read from a
+     * server side cursor as the subscriber requests them, so memory use does not
+     * depend on the size of the history. Each subscription runs the query anew on
+     * its own connection, outside of any transaction of the calling thread.
+     *
+     * @return A publisher of all rentals.
+     */
+    public Flow.Publisher<RentalDTO> streamRentals() {
+        return new ResultSetPublisher<RentalDTO>(pool, FIND_RENTALS_ORDERED, config.getFetchSize(), this::toRental);
+    }
+
+    /**
+     * @return The names of the tables that can be imported from and exported to
+     *         CSV files.
+     */
+    public Set<String> findCsvTables() {
+        return CsvCopier.tables();
+    }
+
+    /**
+     * Inserts all rows of a CSV file into the specified table, streaming the file
+     * to the database with <code>COPY FROM STDIN</code>. The file shall be UTF-8
+     * encoded, and start with a header line naming the columns it contains. Either
+     * all rows are inserted, or none.
+     *
+     * @param table The table to insert into.
+     * @param file  The file to read.
+     * @return The number of inserted rows.
+     * @throws SoundgoodDBException If the file is malformed, if a row violates a
+     *                              constraint, or if the file could not be read. The
+     *                              message tells the line of the failing row.
+     */
+    public long importCsv(String table, Path file) throws SoundgoodDBException {
+        long rows = 0;
+        try {
+            rows = csvCopier.copyIn(connection(), table, file);
+            commitTransaction();
+        } catch (SQLException | IOException e) {
+            handleException("Could not import " + file + " into " + table + ": " + e.getMessage(), e);
+        }
+        return rows;
+    }
+
+    /**
+     * Writes all rows of the specified table to a CSV file, streaming them from
+     * the database with <code>COPY TO STDOUT</code>. The file is UTF-8 encoded,
+     * starts with a header line, and is replaced if it exists.
+     *
+     * @param table The table to export.
+     * @param file  The file to write.
+     * @return The number of written rows.
+     * @throws SoundgoodDBException If unable to read the table or write the file.
+     */
+    public long exportCsv(String table, Path file) throws SoundgoodDBException {
+        long rows = 0;
+        try {
+            rows = csvCopier.copyOut(connection(), table, file);
+            commitTransaction();
+        } catch (SQLException | IOException e) {
+            handleException("Could not export " + table + " to " + file + ": " + e.getMessage(), e);
+        }
+        return rows;
+    }
+
+    /**
+     * Finds the highest enrollment ID that can be copied to the lesson history.
+     * No enrollment with a lower or equal ID will be committed after this method
+     * has returned. New enrollments are blocked while the ID is read, which takes
+     * one index lookup.
+     *
+     * @return The highest enrollment ID, or zero if there are no enrollments.
+     * @throws SoundgoodDBException If unable to read the ID.
+     */
+    public long findLastEnrollment() throws SoundgoodDBException {
+        String failureMsg = "Could not find the last enrollment";
+        long last = 0;
+        ResultSet result = null;
+        try {
+            connection().prepare(LOCK_ENROLLMENTS).execute();
+            result = connection().prepare(FIND_LAST_ENROLLMENT).executeQuery();
+            if (result.next()) {
+                last = result.getLong(1);
+            }
+            closeResultSet(failureMsg, result);
+            result = null;
+            commitTransaction();
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        } finally {
+            closeResultSet(failureMsg, result);
+        }
+        return last;
+    }
+
+    /**
+     * Copies the next batch of enrollments, after the watermark of the history
+     * job, to <code>historical_lessons</code>, and moves the watermark to the last
+     * copied enrollment. The rows and the watermark are committed together, so a
+     * job that is stopped half way continues after the last committed batch when
+     * it is started again. Concurrent jobs wait for each other on the watermark.
+     *
+     * @param lastEnrollment The highest enrollment ID that may be copied, as
+     *                       returned by <code>findLastEnrollment</code>.
+     * @param batchSize      The maximum number of enrollments to copy.
+     * @return The number of enrollments that were copied, zero if there were no
+     *         more enrollments to copy.
+     * @throws SoundgoodDBException If unable to copy the enrollments, in which case
+     *                              the watermark is not moved.
+     */
+    public int appendEnrollmentsToHistory(long lastEnrollment, int batchSize) throws SoundgoodDBException {
+        String failureMsg = "Could not copy enrollments to the lesson history";
+        int copied = 0;
+        ResultSet result = null;
+        try {
+            PreparedStatement lockStmt = connection().prepare(LOCK_WATERMARK);
+            lockStmt.setString(1, HISTORY_JOB);
+            result = lockStmt.executeQuery();
+            if (!result.next()) {
+                handleException(failureMsg + ", the job has no watermark", null);
+            }
+            long highWater = result.getLong(1);
+            closeResultSet(failureMsg, result);
 
-        findRentalsByStudentAndStatus = connection.prepareStatement("SELECT * FROM rental WHERE " 
-            + RENTAL_FK_STUDENT_COLUMN_NAME + " = ? AND " + RENTAL_TERMINATED_COLUMN_NAME 
-            + " = ?");
+            PreparedStatement findStmt = connection().prepare(FIND_ENROLLMENT_BATCH_END);
+            findStmt.setLong(1, highWater);
+            findStmt.setLong(2, lastEnrollment);
+            findStmt.setInt(3, batchSize);
+            result = findStmt.executeQuery();
+            result.next();
+            long batchEnd = result.getLong(1);
+            copied = result.getInt(2);
+            closeResultSet(failureMsg, result);
+            result = null;
+
+            if (copied > 0) {
+                PreparedStatement copyStmt = connection().prepare(COPY_ENROLLMENTS_TO_HISTORY);
+                copyStmt.setLong(1, highWater);
+                copyStmt.setLong(2, batchEnd);
+                copyStmt.executeUpdate();
+
+                PreparedStatement advanceStmt = connection().prepare(ADVANCE_WATERMARK);
+                advanceStmt.setLong(1, batchEnd);
+                advanceStmt.setString(2, HISTORY_JOB);
+                advanceStmt.executeUpdate();
+            }
+            commitTransaction();
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        } finally {
+            closeResultSet(failureMsg, result);
+        }
+        return copied;
+    }
+
+    /**
+     * Counts the lessons of each month of the specified year, by lesson type. The
+     * counts are read from a materialized view, and are as old as its last
+     * refresh.
+     *
+     * @param year The year.
+     * @return One row per month with lessons: the month name, and the total,
+     *         individual, group and ensemble lesson counts.
+     * @throws SoundgoodDBException If unable to read the report.
+     */
+    public Report findMonthlyLessonReport(int year) throws SoundgoodDBException {
+        return findReport("lessons " + year, REPORT_MONTHLY_LESSONS, year, year + 1);
+    }
+
+    /**
+     * Counts the students with each number of siblings, up to the specified
+     * number. The counts are read from a materialized view, and are as old as its
+     * last refresh.
+     *
+     * @param maxSiblings The highest number of siblings included.
+     * @return One row per number of siblings: the number of siblings, and the
+     *         number of students with that many siblings.
+     * @throws SoundgoodDBException If unable to read the report.
+     */
+    public Report findSiblingReport(int maxSiblings) throws SoundgoodDBException {
+        return findReport("siblings " + maxSiblings, REPORT_SIBLING_COUNTS, maxSiblings);
+    }
 
-        findRentalsByStudentAndStatusForUpdate = connection.prepareStatement("SELECT * FROM rental WHERE " 
-            + RENTAL_FK_STUDENT_COLUMN_NAME + " = ? AND " + RENTAL_TERMINATED_COLUMN_NAME 
-            + " = ? FOR UPDATE");
+    /**
+     * Counts the lessons of each instructor in the specified month. The counts are
+     * read from a materialized view, and are as old as its last refresh.
+     *
+     * @param year       The year.
+     * @param month      The month, 1-12.
+     * @param minLessons The smallest number of lessons an instructor must have to
+     *                   be included.
+     * @return One row per instructor, most lessons first: the instructor ID, the
+     *         name and the number of lessons.
+     * @throws SoundgoodDBException If unable to read the report.
+     */
+    public Report findInstructorLessonReport(int year, int month, int minLessons) throws SoundgoodDBException {
+        return findReport("instructors " + year + "-" + month, REPORT_INSTRUCTOR_LESSONS, year, month, minLessons);
+    }
 
+    /**
+     * Counts the lessons that start in the specified period, by month and lesson
+     * type. The counts are computed from the lessons, so they are always up to
+     * date, and cost the same however long the lesson history is.
+     *
+     * @param from The first day of the period.
+     * @param to   The day after the last day of the period.
+     * @return One row per month with lessons: the month, formatted
+     *         <code>yyyy-MM</code>, and the total, individual, group and ensemble
+     *         lesson counts.
+     * @throws SoundgoodDBException If unable to read the report.
+     */
+    public Report findLessonReport(LocalDate from, LocalDate to) throws SoundgoodDBException {
+        return findReport("lessons " + from + " " + to, REPORT_LESSONS_IN_PERIOD, startOf(from), startOf(to));
+    }
 
-        findRentals = connection.prepareStatement("SELECT * FROM " + RENTAL_TABLE_NAME);
+    /**
+     * Counts the lessons of each instructor that start in the specified period.
+     * The counts are computed from the lessons, so they are always up to date,
+     * and cost the same however long the lesson history is.
+     *
+     * @param from       The first day of the period.
+     * @param to         The day after the last day of the period.
+     * @param minLessons The smallest number of lessons an instructor must have to
+     *                   be included.
+     * @return One row per instructor, most lessons first: the instructor ID, the
+     *         name and the number of lessons.
+     * @throws SoundgoodDBException If unable to read the report.
+     */
+    public Report findInstructorLessonReport(LocalDate from, LocalDate to, int minLessons)
+            throws SoundgoodDBException {
+        return findReport("instructors " + from + " " + to, REPORT_INSTRUCTOR_LESSONS_IN_PERIOD, startOf(from),
+                startOf(to), minLessons);
+    }
 
-        findRentalsByInstrument = connection.prepareStatement(
-                "SELECT * FROM " + RENTAL_TABLE_NAME + " WHERE " + RENTAL_FK_INSTRUMENT_COLUMN_NAME
-                        + " = ?");
+    /**
+     * Tells how many seats are left on the ensemble lessons of the coming week,
+     * from tomorrow and seven days on. The seats are read from the lessons, so
+     * the report is always up to date.
+     *
+     * @return One row per lesson start and genre: the week day, the genre, and
+     *         whether there are no, 1 or 2, or many seats left.
+     * @throws SoundgoodDBException If unable to read the report.
+     */
+    public Report findEnsembleSeatReport() throws SoundgoodDBException {
+        return findReport("ensembles", REPORT_ENSEMBLE_SEATS);
+    }
 
-        findRentalsByInstrumentForUpdate = connection.prepareStatement(
-                "SELECT * FROM " + RENTAL_TABLE_NAME + " WHERE " + RENTAL_FK_INSTRUMENT_COLUMN_NAME
-                        + " = ? FOR UPDATE");
+    /**
+     * Recomputes the materialized views behind the lesson, sibling and instructor
+     * reports. The views are refreshed concurrently, so the reports can be read
+     * from the old contents while the new are computed. Each view is committed on
+     * its own.
+     *
+     * @throws SoundgoodDBException If unable to refresh a view. Views refreshed
+     *                              before the failing one keep their new contents.
+     */
+    public void refreshReportViews() throws SoundgoodDBException {
+        for (String refresh : new String[] {REFRESH_MONTHLY_LESSONS, REFRESH_SIBLING_COUNTS,
+                REFRESH_INSTRUCTOR_LESSONS}) {
+            try {
+                connection().prepare(refresh).execute();
+                commitTransaction();
+            } catch (SQLException sqle) {
+                handleException("Could not refresh the report views", sqle);
+            }
+        }
+    }
 
+    /**
+     * Reads the whole rental history into a columnar batch. Rows are fetched
+     * through a server side cursor and written straight into the batch's
+     * primitive arrays, so no object is created per rental.
+     *
+     * @return All rentals, ordered by rental ID.
+     * @throws SoundgoodDBException If failed to read the rentals.
+     */
+    public RentalBatch findRentalsColumnar() throws SoundgoodDBException {
+        String failureMsg = "Could not read rentals";
+        RentalBatch rentals = new RentalBatch();
+        ResultSet result = null;
+        try {
+            PreparedStatement stmt = connection().prepare(FIND_RENTALS_COLUMNAR);
+            stmt.setFetchSize(config.getFetchSize());
+            result = stmt.executeQuery();
+            while (result.next()) {
+                rentals.add(result.getInt(1), result.getInt(2), result.getInt(3), result.getLong(4),
+                        result.getLong(5), result.getInt(6), result.getInt(7) == 1);
+            }
+            closeResultSet(failureMsg, result);
+            result = null;
+            commitTransaction();
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        } finally {
+            closeResultSet(failureMsg, result);
+        }
+        return rentals;
+    }
+
+    // finds current and past rentals for a specific instrument (used in history)
+    public List<Rental> findRentalsByInstrument(Integer instrument_id, boolean lockExclusive) throws SoundgoodDBException {
+        String sqlToExecute;
+        if (lockExclusive) {
+            sqlToExecute = FIND_RENTALS_BY_INSTRUMENT_FOR_UPDATE;
+        } else {
+            sqlToExecute = FIND_RENTALS_BY_INSTRUMENT;
+        }
+
+        String failureMsg = "Could not find rentals";
+        List<Rental> rentals = new ArrayList<>();
+        ResultSet result = null;
+
+        try {
+            PreparedStatement stmtToExecute = connection().prepare(sqlToExecute);
+            stmtToExecute.setInt(1, instrument_id);
+            result = stmtToExecute.executeQuery();
+            while (result.next()) {
+                rentals.add(toRental(result));
+            }
+            if (!lockExclusive) {
+                commitTransaction();
+            }
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        } finally {
+            closeResultSet(failureMsg, result);
+        }
+        return rentals;
+    }
+
+    // finds all of student's rentals, both past and current (used in history)
+    public List<Rental> findCurrentRentalsByStudent(Integer student_id, boolean lockExclusive) throws SoundgoodDBException {
+        String sqlToExecute;
+        if (lockExclusive) {
+            sqlToExecute = FIND_RENTALS_BY_STUDENT_AND_STATUS_FOR_UPDATE;
+        } else {
+            sqlToExecute = FIND_RENTALS_BY_STUDENT_AND_STATUS;
+        }
+
+        String failureMsg = "Could not find rentals";
+        List<Rental> rentals = new ArrayList<>();
+        ResultSet result = null;
+
+        try {
+            PreparedStatement stmtToExecute = connection().prepare(sqlToExecute);
+            stmtToExecute.setInt(1, student_id);
+            result = stmtToExecute.executeQuery();
+            while (result.next()) {
+                rentals.add(toRental(result));
+            }
+            if (!lockExclusive) {
+                commitTransaction();
+            }
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        } finally {
+            closeResultSet(failureMsg, result);
+        }
+        return rentals;
+    }
+
+    /**
+     * Starts batch mode on the calling thread. In batch mode, operations do not
+     * commit their transactions, instead all operations are committed together
+     * by <code>commitBatch</code>. An operation that fails, or is rolled back, only
+     * undoes its own changes, back to the savepoint set by
+     * <code>beginBatchedOperation</code>. An operation that fails because of
+     * concurrent transactions, for example in a deadlock, instead rolls back the
+     * whole batch, since the database may already have aborted the transaction,
+     * and earlier operations of the batch still hold their locks. The rest of that
+     * batch is refused until <code>commitBatch</code> reports it as aborted.
+     */
+    public void beginBatch() {
+        batches.set(new Batch());
+    }
+
+    /**
+     * Sets the savepoint that a failure of the next operation of the batch rolls
+     * back to.
+     * 
+     * @throws SoundgoodDBException If unable to set the savepoint, or if the batch
+     *                              has been aborted.
+     */
+    public void beginBatchedOperation() throws SoundgoodDBException {
+        Batch batch = batches.get();
+        if (batch == null) {
+            return;
+        }
+        if (batch.aborted) {
+            throw new SoundgoodDBException("The batch was rolled back after a failed operation.");
+        }
+        try {
+            PooledConnection conn = connection();
+            if (batch.savepoint != null) {
+                conn.unwrap().releaseSavepoint(batch.savepoint);
+            }
+            batch.savepoint = conn.unwrap().setSavepoint();
+            batch.commitActionsAtSavepoint = batch.commitActions.size();
+        } catch (SQLException sqle) {
+            handleException("Could not set savepoint", sqle);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the calling thread is in batch mode.
+     */
+    public boolean isInBatch() {
+        return batches.get() != null;
+    }
+
+    /**
+     * Commits all operations performed since the batch was started or last
+     * committed. The calling thread stays in batch mode.
+     * 
+     * @throws SoundgoodDBException If unable to commit, in which case none of the
+     *                              operations of the batch is stored.
+     */
+    public void commitBatch() throws SoundgoodDBException {
+        Batch batch = batches.get();
+        if (batch == null) {
+            commit();
+            return;
+        }
+        boolean aborted = batch.aborted;
+        batch.savepoint = null;
+        batch.aborted = false;
+        if (aborted) {
+            rollback();
+            throw new SoundgoodDBException("The batch was rolled back after a failed operation.");
+        }
+        commitActions.get().addAll(batch.commitActions);
+        batch.commitActions.clear();
+        batch.commitActionsAtSavepoint = 0;
+        batches.remove();
+        try {
+            commit();
+        } finally {
+            batches.set(batch);
+        }
+    }
+
+    /**
+     * Leaves batch mode on the calling thread, rolling back any operations that
+     * have not been committed with <code>commitBatch</code>.
+     * 
+     * @throws SoundgoodDBException If unable to roll back.
+     */
+    public void endBatch() throws SoundgoodDBException {
+        abortBatch();
+        batches.remove();
+        rollback();
+    }
+
+    /**
+     * Registers work that shall be done only if the calling thread's ongoing
+     * transaction is committed. The lock of the specified key is taken before the
+     * commit, and released after the listener has been called. Thus, listeners
+     * with the same key are called in the order their transactions committed, as
+     * long as those transactions lock the same rows, for example because the key
+     * is the ID of the changed row. In batch mode, the listener belongs to the
+     * current batched operation, and is called when the batch is committed. If
+     * there is no ongoing transaction, the listener is called at once.
+     *
+     * @param lockKey  Orders the listener after all listeners with the same key
+     *                 whose transactions committed earlier.
+     * @param listener Called when the transaction has been committed, or rolled
+     *                 back.
+     */
+    public void afterCommit(int lockKey, CommitListener listener) {
+        CommitAction action = new CommitAction(lockKey, listener);
+        Batch batch = batches.get();
+        if (batch != null) {
+            batch.commitActions.add(action);
+        } else if (transactions.get() != null) {
+            commitActions.get().add(action);
+        } else {
+            notifyCommitted(List.of(action));
+        }
+    }
+
+    /**
+     * Commits the current transaction. Does nothing in batch mode.
+     * 
+     * @throws SoundgoodDBException If unable to commit the current transaction.
+     */
+    public void commit() throws SoundgoodDBException {
+        try {
+            commitTransaction();
+        } catch (SQLException e) {
+            handleException("Failed to commit", e);
+        }
+    }
+
+    /**
+     * Rolls back the current transaction, releasing all locks it holds. In batch
+     * mode, only the current operation of the batch is rolled back.
+     * 
+     * @throws SoundgoodDBException If unable to roll back the current transaction.
+     */
+    public void rollback() throws SoundgoodDBException {
+        PooledConnection conn = transactions.get();
+        if (conn == null || rollbackToSavepoint(conn)) {
+            return;
+        }
+        try {
+            conn.rollback();
+        } catch (SQLException e) {
+            throw new SoundgoodDBException("Failed to rollback", e);
+        } finally {
+            releaseConnection();
+        }
+    }
+
+    /**
+     * Closes all connections to the database. The DAO can not be used after this
+     * method has been called.
+     */
+    public void close() {
+        pool.close();
+    }
+
+    /**
+     * Returns the connection of the calling thread's ongoing transaction, or starts
+     * a new transaction on a pooled connection if there is none.
+     */
+    private PooledConnection connection() throws SQLException {
+        PooledConnection conn = transactions.get();
+        if (conn == null) {
+            conn = pool.borrow();
+            transactions.set(conn);
+        }
+        return conn;
+    }
+
+    private void commitTransaction() throws SQLException {
+        if (batches.get() != null) {
+            return;
+        }
+        PooledConnection conn = transactions.get();
+        List<CommitAction> actions = takeCommitActions();
+        if (actions.isEmpty()) {
+            if (conn != null) {
+                conn.commit();
+                releaseConnection();
+            }
+            return;
+        }
+        List<ReentrantLock> locks = commitLocksOf(actions);
+        locks.forEach(ReentrantLock::lock);
+        try {
+            if (conn != null) {
+                try {
+                    conn.commit();
+                } catch (SQLException | RuntimeException commitFailure) {
+                    notifyRolledBack(actions);
+                    throw commitFailure;
+                }
+            }
+            for (CommitAction action : actions) {
+                action.listener.committed();
+            }
+        } finally {
+            locks.forEach(ReentrantLock::unlock);
+        }
+        releaseConnection();
+    }
+
+    private void notifyCommitted(List<CommitAction> actions) {
+        List<ReentrantLock> locks = commitLocksOf(actions);
+        locks.forEach(ReentrantLock::lock);
+        try {
+            for (CommitAction action : actions) {
+                action.listener.committed();
+            }
+        } finally {
+            locks.forEach(ReentrantLock::unlock);
+        }
+    }
+
+    private static void discardCommitActions(Batch batch) {
+        notifyRolledBack(batch.commitActions);
+        batch.commitActions.clear();
+        batch.commitActionsAtSavepoint = 0;
+    }
+
+    private static void notifyRolledBack(List<CommitAction> actions) {
+        for (CommitAction action : actions) {
+            action.listener.rolledBack();
+        }
+    }
+
+    /**
+     * @return The locks of the keys of the specified actions, in stripe order, so
+     *         that two threads never wait for each other.
+     */
+    private List<ReentrantLock> commitLocksOf(List<CommitAction> actions) {
+        SortedSet<Integer> stripes = new TreeSet<>();
+        for (CommitAction action : actions) {
+            stripes.add(Math.floorMod(action.lockKey, COMMIT_LOCK_STRIPES));
+        }
+        List<ReentrantLock> locks = new ArrayList<>(stripes.size());
+        for (int stripe : stripes) {
+            locks.add(commitLocks[stripe]);
+        }
+        return locks;
+    }
+
+    private List<CommitAction> takeCommitActions() {
+        List<CommitAction> pending = commitActions.get();
+        if (pending.isEmpty()) {
+            return List.of();
+        }
+        List<CommitAction> actions = new ArrayList<>(pending);
+        pending.clear();
+        return actions;
+    }
+
+    /**
+     * Rolls back to the savepoint of the current batched operation, keeping the
+     * rest of the batch. If that fails, the whole batch is lost and is reported as
+     * aborted by the next <code>commitBatch</code>.
+     *
+     * @return <code>true</code> if the transaction was rolled back to the
+     *         savepoint, <code>false</code> if the caller shall roll back the
+     *         whole transaction.
+     */
+    private boolean rollbackToSavepoint(PooledConnection conn) {
+        Batch batch = batches.get();
+        if (batch == null || batch.savepoint == null) {
+            return false;
+        }
+        try {
+            conn.unwrap().rollback(batch.savepoint);
+            List<CommitAction> undone = batch.commitActions.subList(batch.commitActionsAtSavepoint,
+                    batch.commitActions.size());
+            notifyRolledBack(undone);
+            undone.clear();
+            return true;
+        } catch (SQLException sqle) {
+            abortBatch();
+            return false;
+        }
+    }
+
+    /**
+     * Gives up the whole batch, if there is one. The caller rolls back the
+     * transaction, the remaining operations of the batch are refused, and the next
+     * <code>commitBatch</code> reports the batch as aborted.
+     */
+    private void abortBatch() {
+        Batch batch = batches.get();
+        if (batch != null) {
+            batch.savepoint = null;
+            batch.aborted = true;
+            discardCommitActions(batch);
+        }
+    }
+
+    private void releaseConnection() {
+        notifyRolledBack(takeCommitActions());
+        Batch batch = batches.get();
+        if (batch != null) {
+            discardCommitActions(batch);
+        }
+        PooledConnection conn = transactions.get();
+        if (conn != null) {
+            transactions.remove();
+            pool.release(conn);
+        }
+    }
+
+    private String explain(String sql, Object... params) throws SQLException {
+        StringBuilder plan = new StringBuilder();
+        try (PreparedStatement stmt = connection().unwrap().prepareStatement("EXPLAIN " + sql)) {
+            for (int i = 0; i < params.length; i++) {
+                stmt.setObject(i + 1, params[i]);
+            }
+            try (ResultSet result = stmt.executeQuery()) {
+                while (result.next()) {
+                    plan.append(result.getString(1)).append(System.lineSeparator());
+                }
+            }
+        }
+        return plan.toString();
+    }
+
+    private List<Rental> executeTermination(PreparedStatement stmt, String failureMsg)
+            throws SoundgoodDBException, SQLException {
+        List<Rental> terminated = new ArrayList<>();
+        ResultSet result = null;
+        try {
+            result = stmt.executeQuery();
+            while (result.next()) {
+                terminated.add(toRental(result));
+            }
+        } finally {
+            closeResultSet(failureMsg, result);
+        }
+        return terminated;
+    }
+
+    private Set<Integer> findIDs(String sql, Collection<Integer> ids, String failureMsg)
+            throws SoundgoodDBException {
+        Set<Integer> found = new HashSet<>();
+        ResultSet result = null;
+        try {
+            PreparedStatement stmt = connection().prepare(sql);
+            stmt.setArray(1, toIntArray(ids));
+            result = stmt.executeQuery();
+            while (result.next()) {
+                found.add(result.getInt(1));
+            }
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        } finally {
+            closeResultSet(failureMsg, result);
+        }
+        return found;
+    }
+
+    private Array toIntArray(Collection<Integer> ids) throws SQLException {
+        return connection().unwrap().createArrayOf("integer", ids.toArray());
+    }
+
+    private Array toIntArray(int[] ids) throws SQLException {
+        return connection().unwrap().createArrayOf("integer", Arrays.stream(ids).boxed().toArray());
+    }
+
+    private Instrument toInstrument(ResultSet result) throws SQLException {
+        return new Instrument(result.getInt(INSTRUMENT_PK_COLUMN_NAME),
+                result.getString(INSTRUMENT_TYPE_COLUMN_NAME),
+                result.getString(INSTRUMENT_BRAND_COLUMN_NAME),
+                result.getString(INSTRUMENT_LOCATION_COLUMN_NAME),
+                result.getInt(INSTRUMENT_PRICE_COLUMN_NAME));
+    }
+
+    private Rental toRental(ResultSet result) throws SQLException {
+        return new Rental(result.getInt(RENTAL_PK_COLUMN_NAME),
+                result.getInt(RENTAL_FK_STUDENT_COLUMN_NAME),
+                result.getInt(RENTAL_FK_INSTRUMENT_COLUMN_NAME),
+                result.getTimestamp(RENTAL_START_DATE_COLUMN_NAME),
+                result.getTimestamp(RENTAL_END_DATE_COLUMN_NAME),
+                result.getInt(RENTAL_DURATION_COLUMN_NAME),
+                result.getInt(RENTAL_TERMINATED_COLUMN_NAME) == 1); // convert to boolean
+    }
+
+    /**
+     * @return The rejection reason of a rental that was stopped by a constraint or
+     *         trigger of the rental table, or <code>null</code> if the exception
+     *         is not such a rejection.
+     */
+    private static String toRejectionReason(SQLException sqle) {
+        String state = sqle.getSQLState();
+        if (UNIQUE_VIOLATION.equals(state)) {
+            return "Instrument already rented";
+        } else if (RENT_QUOTA_REACHED.equals(state)) {
+            return "Rent quota reached";
+        } else if (END_DATE_BEFORE_START.equals(state)) {
+            return "End date is before the start date";
+        } else if (END_DATE_TOO_LATE.equals(state)) {
+            return "End date is more than 12 months after the start date";
+        }
+        return null;
     }
 
     private void handleException(String failureMsg, Exception cause) throws SoundgoodDBException {
         String completeFailureMsg = failureMsg;
-        try {
-            connection.rollback();
-        } catch (SQLException rollbackExc) {
-            completeFailureMsg = completeFailureMsg + ". Also failed to rollback transaction because of: "
-                    + rollbackExc.getMessage();
+        PooledConnection conn = transactions.get();
+        if (conn != null && SoundgoodDBException.isTransient(cause)) {
+            abortBatch();
+        } else if (conn != null && rollbackToSavepoint(conn)) {
+            conn = null;
+        }
+        if (conn != null) {
+            try {
+                conn.rollback();
+            } catch (SQLException rollbackExc) {
+                completeFailureMsg = completeFailureMsg + ". Also failed to rollback transaction because of: "
+                        + rollbackExc.getMessage();
+            } finally {
+                releaseConnection();
+            }
         }
 
         if (cause != null) {
-            throw new SoundgoodDBException(failureMsg, cause);
+            throw new SoundgoodDBException(completeFailureMsg, cause);
         } else {
-            throw new SoundgoodDBException(failureMsg);
+            throw new SoundgoodDBException(completeFailureMsg);
+        }
+    }
+
+    private static Timestamp startOf(LocalDate day) {
+        return Timestamp.valueOf(day.atStartOfDay());
+    }
+
+    private Report findReport(String name, String sql, Object... params) throws SoundgoodDBException {
+        String failureMsg = "Could not read the " + name + " report";
+        List<String> columns = new ArrayList<>();
+        List<Object[]> rows = new ArrayList<>();
+        ResultSet result = null;
+        try {
+            PreparedStatement stmt = connection().prepare(sql);
+            for (int i = 0; i < params.length; i++) {
+                stmt.setObject(i + 1, params[i]);
+            }
+            result = stmt.executeQuery();
+            ResultSetMetaData metaData = result.getMetaData();
+            for (int column = 1; column <= metaData.getColumnCount(); column++) {
+                columns.add(metaData.getColumnLabel(column));
+            }
+            while (result.next()) {
+                Object[] row = new Object[columns.size()];
+                for (int column = 0; column < row.length; column++) {
+                    row[column] = result.getObject(column + 1);
+                }
+                rows.add(row);
+            }
+            closeResultSet(failureMsg, result);
+            result = null;
+            commitTransaction();
+        } catch (SQLException sqle) {
+            handleException(failureMsg, sqle);
+        } finally {
+            closeResultSet(failureMsg, result);
         }
+        return new Report(name, columns, rows);
     }
 
     private void closeResultSet(String failureMsg, ResultSet result) throws SoundgoodDBException {
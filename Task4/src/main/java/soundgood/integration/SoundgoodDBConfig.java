@@ -0,0 +1,216 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.integration;
+
+import java.sql.Connection;
+
+/**
+ * Settings used to connect to the soundgood database. All values are read from
+ * system properties (for example <code>-Dsoundgood.pool.maxSize=16</code>), and
+ * fall back to defaults suitable for a local database.
+ */
+public class SoundgoodDBConfig {
+    private static final String PROPERTY_PREFIX = "soundgood.";
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int poolMinSize;
+    private final int poolMaxSize;
+    private final long borrowTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long validationIntervalMillis;
+    private final int statementCacheSize;
+    private final int fetchSize;
+    private final boolean migrateOnStartup;
+    private final long slowStatementThresholdMillis;
+    private final boolean explainSlowStatements;
+    private final String slowStatementLogPattern;
+    private final int isolationLevel;
+
+    private SoundgoodDBConfig() {
+        url = stringProperty("db.url", "jdbc:postgresql://localhost:5432/Leif1");
+        user = stringProperty("db.user", "postgres");
+        password = stringProperty("db.password", "postgres");
+        poolMinSize = intProperty("pool.minSize", 2);
+        poolMaxSize = Math.max(poolMinSize,
+                intProperty("pool.maxSize", Math.max(4, 2 * Runtime.getRuntime().availableProcessors())));
+        borrowTimeoutMillis = longProperty("pool.borrowTimeoutMillis", 30_000);
+        idleTimeoutMillis = longProperty("pool.idleTimeoutMillis", 60_000);
+        validationIntervalMillis = longProperty("pool.validationIntervalMillis", 5_000);
+        statementCacheSize = intProperty("pool.statementCacheSize", 32);
+        fetchSize = intProperty("db.fetchSize", 500);
+        migrateOnStartup = Boolean.parseBoolean(stringProperty("db.migrate", "true"));
+        slowStatementThresholdMillis = longProperty("db.slowStatementMillis", 200);
+        explainSlowStatements = Boolean.parseBoolean(stringProperty("db.slowStatementExplain", "false"));
+        slowStatementLogPattern = stringProperty("db.slowStatementLog", "soundgood-slow-statements.%g.log");
+        isolationLevel = isolationLevelOf(stringProperty("db.isolation", "read_committed"));
+    }
+
+    /**
+     * @return A configuration built from the current system properties.
+     */
+    public static SoundgoodDBConfig fromSystemProperties() {
+        return new SoundgoodDBConfig();
+    }
+
+    /**
+     * @return The JDBC URL of the database.
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return The database user.
+     */
+    public String getUser() {
+        return user;
+    }
+
+    /**
+     * @return The password of the database user.
+     */
+    public String getPassword() {
+        return password;
+    }
+
+    /**
+     * @return The number of connections the pool keeps open even when idle.
+     */
+    public int getPoolMinSize() {
+        return poolMinSize;
+    }
+
+    /**
+     * @return The maximum number of connections the pool opens.
+     */
+    public int getPoolMaxSize() {
+        return poolMaxSize;
+    }
+
+    /**
+     * @return How long a caller waits for a free connection before giving up.
+     */
+    public long getBorrowTimeoutMillis() {
+        return borrowTimeoutMillis;
+    }
+
+    /**
+     * @return How long a connection above the minimum pool size may stay idle
+     *         before it is closed.
+     */
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    /**
+     * @return How long a connection may stay idle before it is validated again
+     *         when borrowed.
+     */
+    public long getValidationIntervalMillis() {
+        return validationIntervalMillis;
+    }
+
+    /**
+     * @return The number of prepared statements cached per connection.
+     */
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    /**
+     * @return The number of rows fetched per round trip when streaming large
+     *         results through a server side cursor.
+     */
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * @return <code>true</code> if pending schema migrations shall be applied when
+     *         the DAO is created.
+     */
+    public boolean isMigrateOnStartup() {
+        return migrateOnStartup;
+    }
+
+    /**
+     * @return The duration from which a statement execution is logged as slow, a
+     *         negative value turns off the slow statement log.
+     */
+    public long getSlowStatementThresholdMillis() {
+        return slowStatementThresholdMillis;
+    }
+
+    /**
+     * @return <code>true</code> if the plan of slow queries and data changes
+     *         shall be logged. Capturing the plan costs a few more round trips
+     *         per slow statement.
+     */
+    public boolean isExplainSlowStatements() {
+        return explainSlowStatements;
+    }
+
+    /**
+     * @return The file name pattern of the slow statement log, in the format of
+     *         <code>java.util.logging.FileHandler</code>.
+     */
+    public String getSlowStatementLogPattern() {
+        return slowStatementLogPattern;
+    }
+
+    /**
+     * @return The isolation level of all transactions, one of the
+     *         <code>TRANSACTION_*</code> constants of <code>Connection</code>.
+     */
+    public int getIsolationLevel() {
+        return isolationLevel;
+    }
+
+    private static int isolationLevelOf(String name) {
+        switch (name.toLowerCase()) {
+            case "serializable":
+                return Connection.TRANSACTION_SERIALIZABLE;
+            case "repeatable_read":
+                return Connection.TRANSACTION_REPEATABLE_READ;
+            case "read_committed":
+                return Connection.TRANSACTION_READ_COMMITTED;
+            default:
+                throw new IllegalArgumentException("Unknown isolation level " + name);
+        }
+    }
+
+    private static String stringProperty(String name, String defaultValue) {
+        return System.getProperty(PROPERTY_PREFIX + name, defaultValue);
+    }
+
+    private static int intProperty(String name, int defaultValue) {
+        return Integer.getInteger(PROPERTY_PREFIX + name, defaultValue);
+    }
+
+    private static long longProperty(String name, long defaultValue) {
+        return Long.getLong(PROPERTY_PREFIX + name, defaultValue);
+    }
+}
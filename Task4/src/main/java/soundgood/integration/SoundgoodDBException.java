@@ -23,10 +23,18 @@
 
 package soundgood.integration;
 
+import java.sql.SQLException;
+import java.util.Set;
+
 /**
- * Thrown when a call to the bank database fails.
+ * Thrown when a call to the Soundgood database fails.
  */
 public class SoundgoodDBException extends Exception {
+    /*
+     * SQL states of failures caused only by concurrent transactions:
+     * serialization_failure, deadlock_detected and lock_not_available.
+     */
+    private static final Set<String> TRANSIENT_SQL_STATES = Set.of("40001", "40P01", "55P03");
 
     /**
      * Create a new instance thrown because of the specified reason.
@@ -46,4 +54,32 @@ public class SoundgoodDBException extends Exception {
     public SoundgoodDBException(String reason, Throwable rootCause) {
         super(reason, rootCause);
     }
+
+    /**
+     * Tells if the failed call may succeed if the whole transaction is tried
+     * again, because it failed only because of concurrent transactions, for
+     * example in a deadlock or a serialization failure. The transaction has
+     * already been rolled back when this exception is thrown. In batch mode, that
+     * is the whole batch, so only the whole batch may be tried again, not the
+     * failed call alone.
+     *
+     * @return <code>true</code> if the transaction may be retried.
+     */
+    public boolean isTransient() {
+        return isTransient(getCause());
+    }
+
+    /**
+     * Tells if the specified failure, or any of its causes, is a database error
+     * caused only by concurrent transactions.
+     */
+    static boolean isTransient(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException
+                    && TRANSIENT_SQL_STATES.contains(((SQLException) cause).getSQLState())) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
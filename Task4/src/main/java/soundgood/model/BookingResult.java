@@ -0,0 +1,125 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.model;
+
+/**
+ * The outcome of booking a lesson. Either the student got a seat, and the
+ * number of seats left on the lesson is known, or the booking was rejected and
+ * has a reason.
+ */
+public class BookingResult {
+    /**
+     * The reason a booking of a full lesson is rejected.
+     */
+    public static final String LESSON_FULL = "Lesson is full";
+    private final int studentID;
+    private final int lessonID;
+    private final Integer seatsLeft;
+    private final String failureReason;
+
+    private BookingResult(int studentID, int lessonID, Integer seatsLeft, String failureReason) {
+        this.studentID = studentID;
+        this.lessonID = lessonID;
+        this.seatsLeft = seatsLeft;
+        this.failureReason = failureReason;
+    }
+
+    /**
+     * @param studentID The student that got a seat.
+     * @param lessonID  The booked lesson.
+     * @param seatsLeft The number of free seats left on the lesson.
+     * @return A result telling that the lesson was booked.
+     */
+    public static BookingResult booked(int studentID, int lessonID, int seatsLeft) {
+        return new BookingResult(studentID, lessonID, seatsLeft, null);
+    }
+
+    /**
+     * @param studentID The student that did not get a seat.
+     * @param lessonID  The lesson that was not booked.
+     * @param reason    Why the booking was rejected.
+     * @return A result telling that the lesson was not booked.
+     */
+    public static BookingResult rejected(int studentID, int lessonID, String reason) {
+        return new BookingResult(studentID, lessonID, null, reason);
+    }
+
+    /**
+     * @return The student that tried to book the lesson.
+     */
+    public int getStudentID() {
+        return studentID;
+    }
+
+    /**
+     * @return The lesson that the student tried to book.
+     */
+    public int getLessonID() {
+        return lessonID;
+    }
+
+    /**
+     * @return <code>true</code> if the lesson was booked.
+     */
+    public boolean isBooked() {
+        return seatsLeft != null;
+    }
+
+    /**
+     * @return The number of free seats left on the lesson after the booking, or
+     *         <code>null</code> if the booking was rejected.
+     */
+    public Integer getSeatsLeft() {
+        return seatsLeft;
+    }
+
+    /**
+     * @return <code>true</code> if the booking was rejected because the lesson is
+     *         full.
+     */
+    public boolean isLessonFull() {
+        return LESSON_FULL.equals(failureReason);
+    }
+
+    /**
+     * @return Why the booking was rejected, or <code>null</code> if the lesson was
+     *         booked.
+     */
+    public String getFailureReason() {
+        return failureReason;
+    }
+
+    /**
+     * @return A string representation of all fields in this object.
+     */
+    @Override
+    public String toString() {
+        if (isBooked()) {
+            return "BookingResult: [Booked, StudentID=" + studentID + ", LessonID=" + lessonID + ", SeatsLeft="
+                    + seatsLeft + "]";
+        }
+        return "BookingResult: [Rejected, Reason=" + failureReason + ", StudentID=" + studentID + ", LessonID="
+                + lessonID + "]";
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.model;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An in-memory copy of the instrument catalog, and of which instruments are
+ * currently rented. Availability is answered without calling the database. The
+ * index is kept up to date by telling it about every committed rental and
+ * termination, and is periodically reloaded from the database to pick up changes
+ * made by other applications.
+ *
+ * Instances are thread safe.
+ */
+public class InstrumentAvailabilityIndex {
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Lock reloadLock = new ReentrantLock();
+    private List<Instrument> catalog = Collections.emptyList();
+    private Map<String, List<Instrument>> catalogByType = Collections.emptyMap();
+    private BitSet rented = new BitSet();
+    private List<int[]> changesDuringReload = null;
+
+    /**
+     * Must be called before the database is read for a reload. Changes reported
+     * after this call are applied again on top of the reloaded data, so that they
+     * are not lost if the database was read before they were committed. Only one
+     * reload runs at a time, this method waits until any ongoing reload has
+     * ended. Every call must be followed by <code>endReload</code> on the same
+     * thread, also if the reload failed.
+     */
+    public void beginReload() {
+        reloadLock.lock();
+        lock.writeLock().lock();
+        try {
+            changesDuringReload = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the content of the index. Must be called between
+     * <code>beginReload</code> and <code>endReload</code>.
+     *
+     * @param instruments         All instruments.
+     * @param rentedInstrumentIDs The IDs of all instruments that are currently
+     *                            rented.
+     */
+    public void reload(List<Instrument> instruments, Collection<Integer> rentedInstrumentIDs) {
+        List<Instrument> sortedCatalog = new ArrayList<>(instruments);
+        sortedCatalog.sort((first, second) -> Integer.compare(first.getInstrumentID(), second.getInstrumentID()));
+        Map<String, List<Instrument>> byType = new HashMap<>();
+        for (Instrument instrument : sortedCatalog) {
+            byType.computeIfAbsent(typeKey(instrument.getInstrumentType()), key -> new ArrayList<>()).add(instrument);
+        }
+        BitSet rentedIDs = new BitSet();
+        for (int instrumentID : rentedInstrumentIDs) {
+            rentedIDs.set(instrumentID);
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (changesDuringReload != null) {
+                for (int[] change : changesDuringReload) {
+                    rentedIDs.set(change[0], change[1] == 1);
+                }
+                changesDuringReload = null;
+            }
+            catalog = sortedCatalog;
+            catalogByType = byType;
+            rented = rentedIDs;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Ends the reload started by <code>beginReload</code>. If
+     * <code>reload</code> was not called, the index keeps its content, and the
+     * changes recorded since <code>beginReload</code> are already applied to it.
+     */
+    public void endReload() {
+        lock.writeLock().lock();
+        try {
+            changesDuringReload = null;
+        } finally {
+            lock.writeLock().unlock();
+            reloadLock.unlock();
+        }
+    }
+
+    /**
+     * Records that the specified instrument was rented.
+     *
+     * @param instrumentID The rented instrument.
+     */
+    public void markRented(int instrumentID) {
+        setRented(instrumentID, true);
+    }
+
+    /**
+     * Records that the rental of the specified instrument was terminated.
+     *
+     * @param instrumentID The returned instrument.
+     */
+    public void markReturned(int instrumentID) {
+        setRented(instrumentID, false);
+    }
+
+    /**
+     * @return All instruments that are not rented, ordered by instrument ID.
+     */
+    public List<Instrument> findAvailable() {
+        lock.readLock().lock();
+        try {
+            return filterAvailable(catalog);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param type The instrument type, matched without regard to case.
+     * @return All instruments of the specified type that are not rented, ordered by
+     *         instrument ID.
+     */
+    public List<Instrument> findAvailableByType(String type) {
+        lock.readLock().lock();
+        try {
+            return filterAvailable(catalogByType.getOrDefault(typeKey(type), Collections.emptyList()));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<Instrument> filterAvailable(List<Instrument> instruments) {
+        List<Instrument> available = new ArrayList<>();
+        for (Instrument instrument : instruments) {
+            if (!rented.get(instrument.getInstrumentID())) {
+                available.add(instrument);
+            }
+        }
+        return available;
+    }
+
+    private void setRented(int instrumentID, boolean isRented) {
+        lock.writeLock().lock();
+        try {
+            rented.set(instrumentID, isRented);
+            if (changesDuringReload != null) {
+                changesDuringReload.add(new int[] { instrumentID, isRented ? 1 : 0 });
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static String typeKey(String type) {
+        return type == null ? "" : type.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.model;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-memory count of the free seats of the lessons that have been booked
+ * through this application. A booking first reserves a seat here, so that when
+ * many students compete for the last seats of a lesson, only as many bookings as
+ * there are seats reach the database, and the rest are rejected at once. The
+ * database stays the authority, a reservation only tells that the booking is
+ * worth trying.
+ *
+ * Lessons are learned from the outcome of their first booking, until then every
+ * booking is tried in the database. The counts do not see seats freed or taken by
+ * other applications, and shall be cleared periodically.
+ *
+ * Instances are thread safe.
+ */
+public class LessonSeatCounter {
+    private final Map<Integer, AtomicInteger> freeSeats = new ConcurrentHashMap<>();
+
+    /**
+     * The outcome of <code>reserve</code>.
+     */
+    public enum Reservation {
+        /**
+         * A seat was reserved, it must be returned with <code>cancel</code> if the
+         * booking is not stored.
+         */
+        RESERVED,
+        /**
+         * The free seats of the lesson are not known, the booking shall be tried
+         * in the database.
+         */
+        UNKNOWN,
+        /**
+         * The lesson is full, the booking shall be rejected.
+         */
+        FULL
+    }
+
+    /**
+     * Reserves one seat of the specified lesson, if it is known to have a free
+     * seat.
+     *
+     * @param lessonID The lesson to book.
+     * @return Whether a seat was reserved, or the lesson is unknown or full.
+     */
+    public Reservation reserve(int lessonID) {
+        AtomicInteger seats = freeSeats.get(lessonID);
+        if (seats == null) {
+            return Reservation.UNKNOWN;
+        }
+        for (;;) {
+            int current = seats.get();
+            if (current <= 0) {
+                return Reservation.FULL;
+            }
+            if (seats.compareAndSet(current, current - 1)) {
+                return Reservation.RESERVED;
+            }
+        }
+    }
+
+    /**
+     * Records that a booking of the specified lesson was committed.
+     *
+     * @param lessonID    The booked lesson.
+     * @param reservation What <code>reserve</code> returned for the booking.
+     * @param seatsLeft   The free seats left on the lesson, according to the
+     *                    database.
+     */
+    public void markBooked(int lessonID, Reservation reservation, int seatsLeft) {
+        if (reservation == Reservation.UNKNOWN) {
+            freeSeats.putIfAbsent(lessonID, new AtomicInteger(seatsLeft));
+        }
+    }
+
+    /**
+     * Records that the database found the specified lesson full, in a committed
+     * state.
+     *
+     * @param lessonID The full lesson.
+     */
+    public void markFull(int lessonID) {
+        freeSeats.computeIfAbsent(lessonID, id -> new AtomicInteger()).set(0);
+    }
+
+    /**
+     * Returns a seat reserved for a booking that was not stored, or was rolled
+     * back.
+     *
+     * @param lessonID    The lesson that was not booked.
+     * @param reservation What <code>reserve</code> returned for the booking.
+     */
+    public void cancel(int lessonID, Reservation reservation) {
+        if (reservation != Reservation.RESERVED) {
+            return;
+        }
+        AtomicInteger seats = freeSeats.get(lessonID);
+        if (seats != null) {
+            seats.incrementAndGet();
+        }
+    }
+
+    /**
+     * Forgets all lessons, so that the next booking of each lesson is tried in the
+     * database.
+     */
+    public void clear() {
+        freeSeats.clear();
+    }
+}
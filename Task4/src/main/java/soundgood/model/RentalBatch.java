@@ -0,0 +1,281 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.model;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Many rentals stored column by column in primitive arrays, instead of as one
+ * object per rental. Dates are stored as epoch milliseconds and the terminated
+ * flags as a bit set, so a million rentals need a handful of arrays instead of
+ * millions of objects.
+ *
+ * Single rentals are read either through the primitive getters, or through
+ * <code>RentalDTO</code> views that hold only an index into this batch.
+ */
+public class RentalBatch implements Iterable<RentalDTO> {
+    private static final int DEFAULT_CAPACITY = 1024;
+    private int size = 0;
+    private int[] rentalIDs;
+    private int[] studentIDs;
+    private int[] instrumentIDs;
+    private long[] startMillis;
+    private long[] endMillis;
+    private int[] durations;
+    private final BitSet terminated = new BitSet();
+
+    /**
+     * Creates a new, empty batch.
+     */
+    public RentalBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a new, empty batch with room for the specified number of rentals
+     * before the arrays have to grow.
+     *
+     * @param initialCapacity The expected number of rentals.
+     */
+    public RentalBatch(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        rentalIDs = new int[capacity];
+        studentIDs = new int[capacity];
+        instrumentIDs = new int[capacity];
+        startMillis = new long[capacity];
+        endMillis = new long[capacity];
+        durations = new int[capacity];
+    }
+
+    /**
+     * Appends a rental to this batch.
+     *
+     * @param rentalID     The unique ID of the rental.
+     * @param studentID    The ID of the student renting the instrument.
+     * @param instrumentID The ID of the rented instrument.
+     * @param start        The start date of the rental, in epoch milliseconds.
+     * @param end          The end date of the rental, in epoch milliseconds.
+     * @param duration     The duration of the rental in days.
+     * @param isTerminated The termination of the rental.
+     */
+    public void add(int rentalID, int studentID, int instrumentID, long start, long end, int duration,
+            boolean isTerminated) {
+        if (size == rentalIDs.length) {
+            grow();
+        }
+        rentalIDs[size] = rentalID;
+        studentIDs[size] = studentID;
+        instrumentIDs[size] = instrumentID;
+        startMillis[size] = start;
+        endMillis[size] = end;
+        durations[size] = duration;
+        terminated.set(size, isTerminated);
+        size++;
+    }
+
+    /**
+     * @return The number of rentals in this batch.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index The position of a rental in this batch.
+     * @return The unique ID of the rental.
+     */
+    public int getRentalID(int index) {
+        return rentalIDs[checkIndex(index)];
+    }
+
+    /**
+     * @param index The position of a rental in this batch.
+     * @return The ID of the student renting the instrument.
+     */
+    public int getStudentID(int index) {
+        return studentIDs[checkIndex(index)];
+    }
+
+    /**
+     * @param index The position of a rental in this batch.
+     * @return The ID of the rented instrument.
+     */
+    public int getInstrumentID(int index) {
+        return instrumentIDs[checkIndex(index)];
+    }
+
+    /**
+     * @param index The position of a rental in this batch.
+     * @return The start date of the rental, in epoch milliseconds.
+     */
+    public long getStartMillis(int index) {
+        return startMillis[checkIndex(index)];
+    }
+
+    /**
+     * @param index The position of a rental in this batch.
+     * @return The end date of the rental, in epoch milliseconds.
+     */
+    public long getEndMillis(int index) {
+        return endMillis[checkIndex(index)];
+    }
+
+    /**
+     * @param index The position of a rental in this batch.
+     * @return The duration of the rental in days.
+     */
+    public int getDuration(int index) {
+        return durations[checkIndex(index)];
+    }
+
+    /**
+     * @param index The position of a rental in this batch.
+     * @return <code>true</code> if the rental is terminated.
+     */
+    public boolean isTerminated(int index) {
+        return terminated.get(checkIndex(index));
+    }
+
+    /**
+     * @return The number of rentals in this batch that are not terminated.
+     */
+    public int countOngoing() {
+        return size - terminated.cardinality();
+    }
+
+    /**
+     * Returns a view of the rental at the specified position. The view reads from
+     * this batch, it does not copy the rental.
+     *
+     * @param index The position of a rental in this batch.
+     * @return A view of the rental.
+     */
+    public RentalDTO get(int index) {
+        return new RentalView(checkIndex(index));
+    }
+
+    /**
+     * Iterates over all rentals in this batch. To avoid creating one object per
+     * rental, the iterator returns the same view object every time, moved to the
+     * next rental. A returned view must therefore not be kept after the next call
+     * to <code>next</code>; use <code>get</code> to obtain a view that can be kept.
+     *
+     * @return An iterator over all rentals in this batch.
+     */
+    @Override
+    public Iterator<RentalDTO> iterator() {
+        return new Iterator<>() {
+            private final RentalView cursor = new RentalView(-1);
+
+            @Override
+            public boolean hasNext() {
+                return cursor.index + 1 < size;
+            }
+
+            @Override
+            public RentalDTO next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                cursor.index++;
+                return cursor;
+            }
+        };
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+        return index;
+    }
+
+    private void grow() {
+        int capacity = rentalIDs.length * 2;
+        rentalIDs = Arrays.copyOf(rentalIDs, capacity);
+        studentIDs = Arrays.copyOf(studentIDs, capacity);
+        instrumentIDs = Arrays.copyOf(instrumentIDs, capacity);
+        startMillis = Arrays.copyOf(startMillis, capacity);
+        endMillis = Arrays.copyOf(endMillis, capacity);
+        durations = Arrays.copyOf(durations, capacity);
+    }
+
+    /**
+     * A read-only view of one rental in the batch.
+     */
+    private class RentalView implements RentalDTO {
+        private int index;
+
+        RentalView(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public Integer getRentalID() {
+            return rentalIDs[index];
+        }
+
+        @Override
+        public Integer getRentalStudentID() {
+            return studentIDs[index];
+        }
+
+        @Override
+        public Integer getRentalInstrumentID() {
+            return instrumentIDs[index];
+        }
+
+        @Override
+        public Timestamp getRentalStartDate() {
+            return new Timestamp(startMillis[index]);
+        }
+
+        @Override
+        public Timestamp getRentalEndDate() {
+            return new Timestamp(endMillis[index]);
+        }
+
+        @Override
+        public Integer getRentalDuration() {
+            return durations[index];
+        }
+
+        @Override
+        public boolean getRentalTerminated() {
+            return terminated.get(index);
+        }
+
+        @Override
+        public String toString() {
+            return "Rental: [ID=" + rentalIDs[index] + ", StudentID=" + studentIDs[index]
+                    + ", InstrumentID=" + instrumentIDs[index] + ", StartDate=" + getRentalStartDate()
+                    + ", EndDate=" + getRentalEndDate() + ", Duration=" + durations[index]
+                    + ", Terminated=" + terminated.get(index) + "]";
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.model;
+
+/**
+ * A request to rent an instrument, used when many rentals are created at once.
+ */
+public class RentalRequest {
+    private final int studentID;
+    private final int instrumentID;
+    private final String rentalEndDate;
+
+    /**
+     * Creates a new request.
+     *
+     * @param studentID     The ID of the student renting the instrument.
+     * @param instrumentID  The ID of the instrument.
+     * @param rentalEndDate The date, formatted <code>yyyy-MM-dd</code>, when the
+     *                      instrument shall be returned.
+     */
+    public RentalRequest(int studentID, int instrumentID, String rentalEndDate) {
+        this.studentID = studentID;
+        this.instrumentID = instrumentID;
+        this.rentalEndDate = rentalEndDate;
+    }
+
+    /**
+     * @return The ID of the student renting the instrument.
+     */
+    public int getStudentID() {
+        return studentID;
+    }
+
+    /**
+     * @return The ID of the instrument.
+     */
+    public int getInstrumentID() {
+        return instrumentID;
+    }
+
+    /**
+     * @return The date when the instrument shall be returned.
+     */
+    public String getRentalEndDate() {
+        return rentalEndDate;
+    }
+
+    /**
+     * @return A string representation of all fields in this object.
+     */
+    @Override
+    public String toString() {
+        return "RentalRequest: [StudentID=" + studentID + ", InstrumentID=" + instrumentID
+                + ", EndDate=" + rentalEndDate + "]";
+    }
+}
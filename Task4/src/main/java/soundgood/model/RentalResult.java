@@ -0,0 +1,99 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.model;
+
+/**
+ * The outcome of one <code>RentalRequest</code>. Either the rental was created
+ * and has an ID, or it was rejected and has a reason.
+ */
+public class RentalResult {
+    private final RentalRequest request;
+    private final Integer rentalID;
+    private final String failureReason;
+
+    private RentalResult(RentalRequest request, Integer rentalID, String failureReason) {
+        this.request = request;
+        this.rentalID = rentalID;
+        this.failureReason = failureReason;
+    }
+
+    /**
+     * @param request  The request that was granted.
+     * @param rentalID The ID of the created rental.
+     * @return A result telling that the rental was created.
+     */
+    public static RentalResult created(RentalRequest request, int rentalID) {
+        return new RentalResult(request, rentalID, null);
+    }
+
+    /**
+     * @param request The request that was rejected.
+     * @param reason  Why the request was rejected.
+     * @return A result telling that no rental was created.
+     */
+    public static RentalResult rejected(RentalRequest request, String reason) {
+        return new RentalResult(request, null, reason);
+    }
+
+    /**
+     * @return The request this is the result of.
+     */
+    public RentalRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * @return <code>true</code> if the rental was created.
+     */
+    public boolean isCreated() {
+        return rentalID != null;
+    }
+
+    /**
+     * @return The ID of the created rental, or <code>null</code> if the request was
+     *         rejected.
+     */
+    public Integer getRentalID() {
+        return rentalID;
+    }
+
+    /**
+     * @return Why the request was rejected, or <code>null</code> if the rental was
+     *         created.
+     */
+    public String getFailureReason() {
+        return failureReason;
+    }
+
+    /**
+     * @return A string representation of all fields in this object.
+     */
+    @Override
+    public String toString() {
+        if (isCreated()) {
+            return "RentalResult: [Created, RentalID=" + rentalID + ", " + request + "]";
+        }
+        return "RentalResult: [Rejected, Reason=" + failureReason + ", " + request + "]";
+    }
+}
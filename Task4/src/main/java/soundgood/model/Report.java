@@ -0,0 +1,103 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of a report, a table of rows with named columns. Values are
+ * numbers, strings, timestamps or <code>null</code>. A report is immutable, so
+ * the same instance can be handed to any number of readers.
+ */
+public class Report {
+    private final String name;
+    private final List<String> columns;
+    private final List<Object[]> rows;
+    private final long createdMillis;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param name    The name of the report.
+     * @param columns The names of the columns.
+     * @param rows    The rows, each with one value per column. The rows are not
+     *                copied, and must not be changed after this call.
+     */
+    public Report(String name, List<String> columns, List<Object[]> rows) {
+        this.name = name;
+        this.columns = List.copyOf(columns);
+        this.rows = Collections.unmodifiableList(rows);
+        this.createdMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * @return The name of the report.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The names of the columns.
+     */
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return The number of rows.
+     */
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    /**
+     * Returns a value of the report.
+     *
+     * @param row    The index of the row, starting at zero.
+     * @param column The index of the column, starting at zero.
+     * @return The value.
+     */
+    public Object getValue(int row, int column) {
+        return rows.get(row)[column];
+    }
+
+    /**
+     * @return When the report was read from the database, in epoch milliseconds.
+     */
+    public long getCreatedMillis() {
+        return createdMillis;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(name).append(": ").append(columns);
+        for (Object[] row : rows) {
+            builder.append('\n').append(Arrays.toString(row));
+        }
+        return builder.toString();
+    }
+}
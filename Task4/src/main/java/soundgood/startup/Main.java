@@ -1,22 +1,100 @@
 package soundgood.startup;
 
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
 import soundgood.controller.Controller;
 import soundgood.integration.SoundgoodDBException;
 import soundgood.view.BlockingInterpreter;
+import soundgood.view.CommandServer;
+import soundgood.view.ScriptInterpreter;
 
 /**
  * Starts the bank client.
  */
 public class Main {
+    private static final String CHECK_PLANS_OPTION = "--check-plans";
+    private static final String SERVER_OPTION = "--server";
+    private static final String SCRIPT_OPTION = "--script";
+    private static final String REFRESH_HISTORY_OPTION = "--refresh-history";
+    private static final int SCRIPT_BATCH_SIZE = Integer.getInteger("soundgood.script.batchSize", 100);
+    private static final String INDEX_SCAN_MARKER = "Index";
+
     /**
-     * @param args There are no command line arguments.
+     * @param args No arguments starts the interactive client. <code>--check-plans</code>
+     *             prints the plan of each frequently used statement, and exits with
+     *             status 1 if there is no index that can serve one of them. The
+     *             plans are made with sequential scans disabled, so they show
+     *             that an index exists and is usable, not that the planner would
+     *             pick it for a large table. That is checked by
+     *             <code>PlanCheck</code> in the benchmarks.
+     *             <code>--server port [address]</code> serves the commands to
+     *             network clients instead of the console, on the loopback
+     *             address unless another local address is given.
+     *             <code>--script [file]</code> performs the commands in the file,
+     *             or on standard input if no file is given, without prompting,
+     *             and exits with status 1 if any of them failed.
+     *             <code>--refresh-history</code> appends the enrollments made
+     *             since the last refresh to the lesson history, and exits.
      */
     public static void main(String[] args) {
+        int exitStatus = 0;
         try {
-            new BlockingInterpreter(new Controller()).handleCmds();
+            Controller ctrl = new Controller();
+            try {
+                if (args.length > 0 && args[0].equals(CHECK_PLANS_OPTION)) {
+                    exitStatus = checkPlans(ctrl) ? 0 : 1;
+                } else if (args.length > 1 && args[0].equals(SERVER_OPTION)) {
+                    InetAddress bindAddress = args.length > 2 ? InetAddress.getByName(args[2]) : null;
+                    CommandServer server = new CommandServer(ctrl, bindAddress, Integer.parseInt(args[1]));
+                    Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+                    server.serve();
+                } else if (args.length > 0 && args[0].equals(REFRESH_HISTORY_OPTION)) {
+                    System.out.println("Appended " + ctrl.refreshLessonHistory() + " enrollments to the lesson history");
+                } else if (args.length > 0 && args[0].equals(SCRIPT_OPTION)) {
+                    exitStatus = runScript(ctrl, args.length > 1 ? args[1] : null) ? 0 : 1;
+                } else {
+                    new BlockingInterpreter(ctrl).handleCmds();
+                }
+            } finally {
+                ctrl.close();
+            }
             } catch (SoundgoodDBException sdbe) {
                 System.out.println("Could not connect to soundgood db.");
                 sdbe.printStackTrace();
+                exitStatus = 1;
+            } catch (IOException ioe) {
+                System.out.println("Could not read or serve commands.");
+                ioe.printStackTrace();
+                exitStatus = 1;
             }
+        System.exit(exitStatus);
+        }
+
+    private static boolean runScript(Controller ctrl, String fileName) throws IOException {
+        ScriptInterpreter interpreter = new ScriptInterpreter(ctrl, SCRIPT_BATCH_SIZE);
+        if (fileName == null) {
+            return interpreter.run(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        }
+        try (Reader script = Files.newBufferedReader(Path.of(fileName))) {
+            return interpreter.run(script);
+        }
+    }
+
+    private static boolean checkPlans(Controller ctrl) throws SoundgoodDBException {
+        boolean allIndexed = true;
+        for (Map.Entry<String, String> plan : ctrl.explainHotQueries().entrySet()) {
+            boolean indexed = plan.getValue().contains(INDEX_SCAN_MARKER);
+            allIndexed &= indexed;
+            System.out.println((indexed ? "OK       " : "NO INDEX ") + plan.getKey());
+            System.out.println(plan.getValue());
         }
-}
\ No newline at end of file
+        return allIndexed;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.util;
+
+import java.util.List;
+
+/**
+ * The management interface of the application's metrics, registered as
+ * <code>soundgood:type=Metrics</code>.
+ */
+public interface MetricsMXBean {
+    /**
+     * @return The current values of all measured operations, sorted by name.
+     */
+    List<OperationStats> getOperations();
+
+    /**
+     * @return The number of committed transactions.
+     */
+    long getCommits();
+
+    /**
+     * @return The number of rolled back transactions.
+     */
+    long getRollbacks();
+
+    /**
+     * @return The number of transactions tried again after a transient failure.
+     */
+    long getRetries();
+
+    /**
+     * @return The number of transactions that failed after all allowed attempts.
+     */
+    long getRetriesExhausted();
+
+    /**
+     * Sets all metrics to zero.
+     */
+    void reset();
+}
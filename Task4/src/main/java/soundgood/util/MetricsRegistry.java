@@ -0,0 +1,161 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Holds the metrics of all measured operations in the application. There is
+ * one registry per JVM, which is also published through JMX.
+ */
+public class MetricsRegistry implements MetricsMXBean {
+    private static final String OBJECT_NAME = "soundgood:type=Metrics";
+    private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+
+    private final ConcurrentMap<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder rollbacks = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder retriesExhausted = new LongAdder();
+
+    private MetricsRegistry() {
+    }
+
+    /**
+     * @return The only instance.
+     */
+    public static MetricsRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the metrics of the operation with the specified name, creating them
+     * the first time they are asked for. Callers on hot paths shall keep the
+     * returned object instead of looking it up for every execution.
+     *
+     * @param name The name of the operation.
+     * @return The metrics of the operation.
+     */
+    public OperationMetrics operation(String name) {
+        return operations.computeIfAbsent(name, OperationMetrics::new);
+    }
+
+    /**
+     * Counts one committed transaction.
+     */
+    public void recordCommit() {
+        commits.increment();
+    }
+
+    /**
+     * Counts one rolled back transaction.
+     */
+    public void recordRollback() {
+        rollbacks.increment();
+    }
+
+    /**
+     * Counts one transaction that is tried again after a transient failure.
+     */
+    public void recordRetry() {
+        retries.increment();
+    }
+
+    /**
+     * Counts one transaction that failed after all allowed attempts.
+     */
+    public void recordRetriesExhausted() {
+        retriesExhausted.increment();
+    }
+
+    @Override
+    public List<OperationStats> getOperations() {
+        List<OperationStats> stats = new ArrayList<>();
+        for (OperationMetrics operation : operations.values()) {
+            stats.add(operation.snapshot());
+        }
+        stats.sort(Comparator.comparing(OperationStats::getName));
+        return stats;
+    }
+
+    @Override
+    public long getCommits() {
+        return commits.sum();
+    }
+
+    @Override
+    public long getRollbacks() {
+        return rollbacks.sum();
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    @Override
+    public long getRetriesExhausted() {
+        return retriesExhausted.sum();
+    }
+
+    @Override
+    public void reset() {
+        for (OperationMetrics operation : operations.values()) {
+            operation.reset();
+        }
+        commits.reset();
+        rollbacks.reset();
+        retries.reset();
+        retriesExhausted.reset();
+    }
+
+    /**
+     * Publishes this registry in the platform MBean server, unless it is already
+     * published.
+     *
+     * @return <code>false</code> if the registry could not be published.
+     */
+    public synchronized boolean registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+            return true;
+        } catch (JMException e) {
+            return false;
+        }
+    }
+}
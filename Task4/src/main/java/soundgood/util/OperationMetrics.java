@@ -0,0 +1,126 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.util;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The latency, outcome and row counts of one kind of operation, for example one
+ * SQL statement or one controller method. Thread safe.
+ */
+public class OperationMetrics {
+    private final String name;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+
+    /**
+     * Measures one execution of an operation. Create it with
+     * <code>start</code> right before the operation, and call <code>stop</code>
+     * when the operation is done, also if it failed.
+     */
+    public class Timer {
+        private final long startTime = System.nanoTime();
+        private boolean failed = false;
+
+        /**
+         * Marks the operation as failed.
+         */
+        public void fail() {
+            failed = true;
+        }
+
+        /**
+         * Records the duration and outcome of the operation.
+         */
+        public void stop() {
+            record(System.nanoTime() - startTime, !failed);
+        }
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param name The name of the measured operation.
+     */
+    OperationMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return A timer measuring an execution that starts now.
+     */
+    public Timer start() {
+        return new Timer();
+    }
+
+    /**
+     * Records one execution of the operation.
+     *
+     * @param nanos     The duration of the execution.
+     * @param succeeded <code>false</code> if the execution failed.
+     */
+    public void record(long nanos, boolean succeeded) {
+        latency.record(nanos);
+        if (!succeeded) {
+            failures.increment();
+        }
+    }
+
+    /**
+     * Adds to the number of rows read or written by the operation.
+     *
+     * @param count The number of rows.
+     */
+    public void addRows(long count) {
+        rows.add(count);
+    }
+
+    /**
+     * @return The name of the measured operation.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The current values of this operation.
+     */
+    public OperationStats snapshot() {
+        long count = latency.getCount();
+        return new OperationStats(name, count, failures.sum(), rows.sum(), toMillis(latency.getMean()),
+                toMillis(latency.getValueAtPercentile(50)), toMillis(latency.getValueAtPercentile(99)),
+                toMillis(latency.getValueAtPercentile(99.9)), toMillis(latency.getMax()));
+    }
+
+    void reset() {
+        latency.reset();
+        failures.reset();
+        rows.reset();
+    }
+
+    private static double toMillis(double nanos) {
+        return nanos / 1_000_000;
+    }
+}
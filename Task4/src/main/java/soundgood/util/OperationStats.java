@@ -0,0 +1,139 @@
+/*
+ * The MIT License (MIT)
+ * Copyright (c) 2020 Leif Lindbäck
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction,including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so,subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.util;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * The values of an <code>OperationMetrics</code> at one point in time. Latencies
+ * are in milliseconds.
+ */
+public class OperationStats {
+    private final String name;
+    private final long count;
+    private final long failures;
+    private final long rows;
+    private final double meanMillis;
+    private final double p50Millis;
+    private final double p99Millis;
+    private final double p999Millis;
+    private final double maxMillis;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param name       The name of the operation.
+     * @param count      The number of executions.
+     * @param failures   The number of failed executions.
+     * @param rows       The number of rows read or written.
+     * @param meanMillis The mean latency.
+     * @param p50Millis  The median latency.
+     * @param p99Millis  The 99th percentile latency.
+     * @param p999Millis The 99.9th percentile latency.
+     * @param maxMillis  The highest latency.
+     */
+    @ConstructorProperties({"name", "count", "failures", "rows", "meanMillis", "p50Millis", "p99Millis",
+            "p999Millis", "maxMillis"})
+    public OperationStats(String name, long count, long failures, long rows, double meanMillis, double p50Millis,
+            double p99Millis, double p999Millis, double maxMillis) {
+        this.name = name;
+        this.count = count;
+        this.failures = failures;
+        this.rows = rows;
+        this.meanMillis = meanMillis;
+        this.p50Millis = p50Millis;
+        this.p99Millis = p99Millis;
+        this.p999Millis = p999Millis;
+        this.maxMillis = maxMillis;
+    }
+
+    /**
+     * @return The name of the operation.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The number of executions.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return The number of failed executions.
+     */
+    public long getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return The number of rows read or written.
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * @return The mean latency.
+     */
+    public double getMeanMillis() {
+        return meanMillis;
+    }
+
+    /**
+     * @return The median latency.
+     */
+    public double getP50Millis() {
+        return p50Millis;
+    }
+
+    /**
+     * @return The 99th percentile latency.
+     */
+    public double getP99Millis() {
+        return p99Millis;
+    }
+
+    /**
+     * @return The 99.9th percentile latency.
+     */
+    public double getP999Millis() {
+        return p999Millis;
+    }
+
+    /**
+     * @return The highest latency.
+     */
+    public double getMaxMillis() {
+        return maxMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-45s %8d %6d %10d %8.2f %8.2f %8.2f %8.2f", name, count, failures, rows,
+                meanMillis, p50Millis, p99Millis, maxMillis);
+    }
+}
@@ -24,12 +24,9 @@
 
 package soundgood.view;
 
-import java.util.List;
 import java.util.Scanner;
 
 import soundgood.controller.Controller;
-import soundgood.model.InstrumentDTO;
-import soundgood.model.RentalDTO;
 
 /**
  * Reads and interprets user commands. This command interpreter is blocking, the
@@ -39,7 +36,7 @@ import soundgood.model.RentalDTO;
 public class BlockingInterpreter {
     private static final String PROMPT = "> ";
     private final Scanner console = new Scanner(System.in);
-    private Controller ctrl;
+    private final CommandExecutor executor;
     private boolean keepReceivingCmds = false;
 
     /**
@@ -49,7 +46,7 @@ public class BlockingInterpreter {
      * @param ctrl The controller used by this instance.
      */
     public BlockingInterpreter(Controller ctrl) {
-        this.ctrl = ctrl;
+        this.executor = new CommandExecutor(ctrl, System.out);
     }
 
     /**
@@ -69,44 +66,8 @@ public class BlockingInterpreter {
         while (keepReceivingCmds) {
             try {
                 CmdLine cmdLine = new CmdLine(readNextLine());
-                switch (cmdLine.getCmd()) {
-                    case HELP:
-                        for (Command command : Command.values()) {
-                            if (command == Command.ILLEGAL_COMMAND) {
-                                continue;
-                            }
-                            System.out.println(command.toString().toLowerCase());
-                        }
-                        break;
-                    case QUIT:
-                        keepReceivingCmds = false;
-                        break;
-                    case RENT:
-                        ctrl.createRental(Integer.valueOf(cmdLine.getParameter(0)),
-                                Integer.valueOf(cmdLine.getParameter(1)), String.valueOf(cmdLine.getParameter(2)));
-                        break;
-                    case TERMINATE:
-                        ctrl.markRentalAsTerminated(Integer.valueOf(cmdLine.getParameter(0)));
-                        break;
-                    case HISTORY:
-                        List<? extends RentalDTO> rentals = ctrl.findRentals();
-                        for (RentalDTO rental : rentals) {
-                            System.out.println(rental.toString());
-                        }
-                        break;
-                    case LIST:
-                        List<? extends InstrumentDTO> instruments = null;
-                        if (cmdLine.getParameter(0).equals("")) {
-                            instruments = ctrl.findInstrumentsByAvailability();
-                        } else {
-                            instruments = ctrl.findInstrumentsByAvailabilityAndType(cmdLine.getParameter(0));
-                        }
-                        for (InstrumentDTO instrument : instruments) {
-                            System.out.println(instrument.toString());
-                        }
-                        break;   
-                    default:
-                        System.out.println("illegal command");
+                if (!executor.execute(cmdLine)) {
+                    keepReceivingCmds = false;
                 }
             } catch (Exception e) {
                 System.out.println("Operation failed");
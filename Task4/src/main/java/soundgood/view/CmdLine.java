@@ -24,15 +24,31 @@
 
 package soundgood.view;
 
+import java.time.DateTimeException;
+import java.time.LocalDate;
+
 /**
  * One line of user input, which should be a command and parameters associated
- * with that command (if any).
+ * with that command (if any). The line is tokenized in a single pass, which only
+ * records where each token starts and ends. Parameters are converted to the
+ * requested type directly from the characters of the line, and are not copied to
+ * strings of their own unless asked for as strings.
  */
 class CmdLine {
-    private static final String PARAM_DELIMETER = " ";
-    private String[] params;
-    private Command cmd;
+    private static final int NO_SUCH_TOKEN = -1;
+    private static final int INITIAL_TOKEN_CAPACITY = 8;
+    private static final int DATE_LENGTH = "yyyy-MM-dd".length();
+    private static final char RANGE_DELIMETER = '-';
+    /*
+     * The valid commands, indexed by the length of their names, so that a command
+     * is found by comparing the entered name with at most a few candidates.
+     */
+    private static final Command[][] COMMANDS_BY_NAME_LENGTH = indexCommands();
     private final String enteredLine;
+    private final Command cmd;
+    private int[] tokenBounds = new int[INITIAL_TOKEN_CAPACITY * 2];
+    private int tokenCount;
+    private final int firstParamToken;
 
     /**
      * Creates a new instance representing the specified line.
@@ -41,8 +57,11 @@ class CmdLine {
      */
     CmdLine(String enteredLine) {
         this.enteredLine = enteredLine;
-        parseCmd(enteredLine);
-        extractParams(enteredLine);
+        if (enteredLine != null) {
+            tokenize(enteredLine);
+        }
+        cmd = lookupCmd();
+        firstParamToken = cmd == Command.ILLEGAL_COMMAND ? 0 : 1;
     }
 
     /**
@@ -59,66 +78,261 @@ class CmdLine {
         return enteredLine;
     }
 
+    /**
+     * @return The number of parameters following the command.
+     */
+    int getParameterCount() {
+        return tokenCount - firstParamToken;
+    }
+
     /**
      * Returns the parameter with the specified index. The first parameter has index
-     * zero. Parameters are separated by a blank character (" ").
+     * zero. Parameters are separated by one or more blank characters.
      *
      * @param index The index of the searched parameter.
      * @return The parameter with the specified index, or <code>null</code> if there
      *         is no parameter with that index.
      */
     String getParameter(int index) {
-        if (params == null) {
+        int token = tokenOf(index);
+        if (token == NO_SUCH_TOKEN) {
             return null;
         }
-        if (index >= params.length) {
-            return null;
+        return enteredLine.substring(startOf(token), endOf(token));
+    }
+
+    /**
+     * Tells if the parameter with the specified index is the specified word,
+     * ignoring case.
+     *
+     * @param index The index of the parameter.
+     * @param word  The expected word.
+     * @return <code>true</code> if the parameter exists and is the specified word.
+     */
+    boolean isParameter(int index, String word) {
+        int token = tokenOf(index);
+        if (token == NO_SUCH_TOKEN || endOf(token) - startOf(token) != word.length()) {
+            return false;
+        }
+        return enteredLine.regionMatches(true, startOf(token), word, 0, word.length());
+    }
+
+    /**
+     * Tells if the parameter with the specified index is a range, like
+     * <code>12-20</code>.
+     *
+     * @param index The index of the parameter.
+     * @return <code>true</code> if the parameter exists and contains the range
+     *         delimeter.
+     */
+    boolean isRangeParameter(int index) {
+        int token = tokenOf(index);
+        return token != NO_SUCH_TOKEN && delimeterPosition(token) != NO_SUCH_TOKEN;
+    }
+
+    /**
+     * Tells if the parameter with the specified index has the form of a date,
+     * <code>yyyy-MM-dd</code>. The date itself is not validated.
+     *
+     * @param index The index of the parameter.
+     * @return <code>true</code> if the parameter exists and has the form of a
+     *         date.
+     */
+    boolean isDateParameter(int index) {
+        int token = tokenOf(index);
+        if (token == NO_SUCH_TOKEN || endOf(token) - startOf(token) != DATE_LENGTH) {
+            return false;
         }
-        return params[index];
+        int start = startOf(token);
+        return enteredLine.charAt(start + 4) == RANGE_DELIMETER && enteredLine.charAt(start + 7) == RANGE_DELIMETER;
+    }
+
+    /**
+     * Reads the parameter with the specified index as a non-negative integer.
+     *
+     * @param index The index of the parameter.
+     * @return The value of the parameter.
+     * @throws CmdLineException If there is no such parameter, or if it is not a
+     *                          non-negative integer.
+     */
+    int getIntParameter(int index) throws CmdLineException {
+        int token = requireToken(index, "Expected a number");
+        return parseInt(startOf(token), endOf(token));
     }
 
-    private String removeExtraSpaces(String source) {
-        if (source == null) {
-            return source;
+    /**
+     * Reads the parameter with the specified index as an inclusive range of
+     * non-negative integers, like <code>12-20</code>. A single integer is read as
+     * a range containing only that integer.
+     *
+     * @param index The index of the parameter.
+     * @return The first and the last integer of the range, in that order.
+     * @throws CmdLineException If there is no such parameter, or if it is not a
+     *                          range.
+     */
+    int[] getRangeParameter(int index) throws CmdLineException {
+        int token = requireToken(index, "Expected a number or a range");
+        int delimeter = delimeterPosition(token);
+        if (delimeter == NO_SUCH_TOKEN) {
+            int value = parseInt(startOf(token), endOf(token));
+            return new int[] {value, value};
         }
-        String oneOrMoreOccurences = "+";
-        return source.trim().replaceAll(PARAM_DELIMETER + oneOrMoreOccurences, PARAM_DELIMETER);
+        return new int[] {parseInt(startOf(token), delimeter), parseInt(delimeter + 1, endOf(token))};
     }
 
-    private void parseCmd(String enteredLine) {
-        int cmdNameIndex = 0;
+    /**
+     * Reads the parameter with the specified index as a date formatted
+     * <code>yyyy-MM-dd</code>.
+     *
+     * @param index The index of the parameter.
+     * @return The date.
+     * @throws CmdLineException If there is no such parameter, or if it is not a
+     *                          valid date.
+     */
+    LocalDate getDateParameter(int index) throws CmdLineException {
+        int token = requireToken(index, "Expected a date, yyyy-MM-dd");
+        int start = startOf(token);
+        if (endOf(token) - start != DATE_LENGTH) {
+            throw error("Expected a date, yyyy-MM-dd", start);
+        }
+        expectDateDelimeter(start + 4);
+        expectDateDelimeter(start + 7);
+        int year = parseInt(start, start + 4);
+        int month = parseInt(start + 5, start + 7);
+        int day = parseInt(start + 8, start + 10);
         try {
-            String trimmed = removeExtraSpaces(enteredLine);
-            if (trimmed == null) {
-                cmd = Command.ILLEGAL_COMMAND;
-                return;
+            return LocalDate.of(year, month, day);
+        } catch (DateTimeException invalidDate) {
+            throw error("No such date", start);
+        }
+    }
+
+    private void tokenize(String line) {
+        int length = line.length();
+        int pos = 0;
+        while (pos < length) {
+            while (pos < length && isBlank(line.charAt(pos))) {
+                pos++;
+            }
+            if (pos == length) {
+                break;
+            }
+            int start = pos;
+            while (pos < length && !isBlank(line.charAt(pos))) {
+                pos++;
             }
-            String[] enteredTokens = trimmed.split(PARAM_DELIMETER);
-            cmd = Command.valueOf(enteredTokens[cmdNameIndex].toUpperCase());
-        } catch (Exception failedToReadCmd) {
-            cmd = Command.ILLEGAL_COMMAND;
+            addToken(start, pos);
+        }
+    }
+
+    private void addToken(int start, int end) {
+        if (tokenCount * 2 == tokenBounds.length) {
+            int[] grown = new int[tokenBounds.length * 2];
+            System.arraycopy(tokenBounds, 0, grown, 0, tokenBounds.length);
+            tokenBounds = grown;
         }
+        tokenBounds[tokenCount * 2] = start;
+        tokenBounds[tokenCount * 2 + 1] = end;
+        tokenCount++;
     }
 
-    private void extractParams(String enteredLine) {
-        if (enteredLine == null) {
-            params = null;
-            return;
+    private Command lookupCmd() {
+        if (tokenCount == 0) {
+            return Command.ILLEGAL_COMMAND;
+        }
+        int nameLength = endOf(0) - startOf(0);
+        if (nameLength >= COMMANDS_BY_NAME_LENGTH.length) {
+            return Command.ILLEGAL_COMMAND;
         }
-        String paramPartOfCmd = removeExtraSpaces(removeCmd(enteredLine));
-        if (paramPartOfCmd == null) {
-            params = null;
-            return;
+        for (Command candidate : COMMANDS_BY_NAME_LENGTH[nameLength]) {
+            if (enteredLine.regionMatches(true, startOf(0), candidate.name(), 0, nameLength)) {
+                return candidate;
+            }
+        }
+        return Command.ILLEGAL_COMMAND;
+    }
+
+    private static Command[][] indexCommands() {
+        int longestName = 0;
+        for (Command command : Command.values()) {
+            longestName = Math.max(longestName, command.name().length());
+        }
+        Command[][] index = new Command[longestName + 1][0];
+        for (Command command : Command.values()) {
+            if (command == Command.ILLEGAL_COMMAND) {
+                continue;
+            }
+            Command[] sameLength = index[command.name().length()];
+            Command[] grown = new Command[sameLength.length + 1];
+            System.arraycopy(sameLength, 0, grown, 0, sameLength.length);
+            grown[sameLength.length] = command;
+            index[command.name().length()] = grown;
+        }
+        return index;
+    }
+
+    private int parseInt(int start, int end) throws CmdLineException {
+        if (start == end) {
+            throw error("Expected a number", start);
+        }
+        int value = 0;
+        for (int pos = start; pos < end; pos++) {
+            int digit = enteredLine.charAt(pos) - '0';
+            if (digit < 0 || digit > 9) {
+                throw error("Expected a digit", pos);
+            }
+            if (value > (Integer.MAX_VALUE - digit) / 10) {
+                throw error("Number too large", start);
+            }
+            value = value * 10 + digit;
         }
-        params = paramPartOfCmd.split(PARAM_DELIMETER);
+        return value;
     }
 
-    private String removeCmd(String enteredLine) {
-        if (cmd == Command.ILLEGAL_COMMAND) {
-            return enteredLine;
+    private void expectDateDelimeter(int pos) throws CmdLineException {
+        if (enteredLine.charAt(pos) != RANGE_DELIMETER) {
+            throw error("Expected a date, yyyy-MM-dd", pos);
         }
-        int indexAfterCmd = enteredLine.toUpperCase().indexOf(cmd.name()) + cmd.name().length();
-        String withoutCmd = enteredLine.substring(indexAfterCmd, enteredLine.length());
-        return withoutCmd.trim();
     }
-}
\ No newline at end of file
+
+    private int delimeterPosition(int token) {
+        for (int pos = startOf(token); pos < endOf(token); pos++) {
+            if (enteredLine.charAt(pos) == RANGE_DELIMETER) {
+                return pos;
+            }
+        }
+        return NO_SUCH_TOKEN;
+    }
+
+    private int requireToken(int index, String expected) throws CmdLineException {
+        int token = tokenOf(index);
+        if (token == NO_SUCH_TOKEN) {
+            throw error(expected, enteredLine == null ? 0 : enteredLine.length());
+        }
+        return token;
+    }
+
+    private int tokenOf(int paramIndex) {
+        int token = firstParamToken + paramIndex;
+        if (paramIndex < 0 || token >= tokenCount) {
+            return NO_SUCH_TOKEN;
+        }
+        return token;
+    }
+
+    private int startOf(int token) {
+        return tokenBounds[token * 2];
+    }
+
+    private int endOf(int token) {
+        return tokenBounds[token * 2 + 1];
+    }
+
+    private CmdLineException error(String reason, int pos) {
+        return new CmdLineException(reason, pos + 1, enteredLine);
+    }
+
+    private static boolean isBlank(char c) {
+        return c == ' ' || c == '\t' || c == '\r';
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.view;
+
+/**
+ * Thrown when a parameter of a command line is missing or malformed.
+ */
+class CmdLineException extends Exception {
+    private final int column;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param reason      What is wrong with the parameter.
+     * @param column      The column, starting at one, where the error was found.
+     * @param enteredLine The line that contains the error.
+     */
+    CmdLineException(String reason, int column, String enteredLine) {
+        super(reason + " at column " + column + ": " + enteredLine);
+        this.column = column;
+    }
+
+    /**
+     * @return The column, starting at one, where the error was found.
+     */
+    int getColumn() {
+        return column;
+    }
+}
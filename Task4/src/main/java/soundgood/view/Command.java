@@ -34,7 +34,9 @@ public enum Command {
      */
     LIST,
     /**
-     * Terminated the specified rental.
+     * Terminates the specified rentals. Takes one or more rental IDs or ID ranges
+     * (<code>12-20</code>), or <code>student</code> followed by a student ID to
+     * terminate all ongoing rentals of that student.
      */
     TERMINATE,
     /**
@@ -45,10 +47,39 @@ public enum Command {
      * Leave the chat application.
      */
     QUIT,
-    /*
-     * See all rentals ever
+    /**
+     * Shows all rentals ever. Takes an optional format, <code>table</code> (the
+     * default), <code>csv</code> or <code>json</code>, and an optional file to
+     * write the rentals to instead of the console.
      */
     HISTORY,
+    /**
+     * Inserts the rows of a CSV file into a table. Takes the table,
+     * <code>instrument</code>, <code>student</code> or <code>rental</code>, and the
+     * file, whose header line names the columns it contains.
+     */
+    IMPORT,
+    /**
+     * Writes all rows of a table to a CSV file. Takes the table and the file.
+     */
+    EXPORT,
+    /**
+     * Shows a report: <code>lessons [year]</code>, <code>siblings [max]</code>,
+     * <code>instructors [year month]</code> or <code>ensembles</code>. The
+     * lessons and instructors reports also take a period of days,
+     * <code>yyyy-MM-dd yyyy-MM-dd</code>, the second day not included. Reports are
+     * cached, <code>refresh</code> recomputes them and <code>invalidate</code>
+     * empties the cache.
+     */
+    REPORT,
+    /**
+     * Books a seat on a lesson. Takes the student ID and the lesson ID.
+     */
+    BOOK,
+    /**
+     * Shows the latency, outcome and row count of all measured operations.
+     */
+    STATS,
     /**
      * None of the valid commands above was specified.
      */
@@ -0,0 +1,357 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.view;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.List;
+
+import soundgood.controller.Controller;
+import soundgood.integration.SoundgoodDBException;
+import soundgood.model.InstrumentDTO;
+import soundgood.model.InstrumentException;
+import soundgood.model.RentalException;
+import soundgood.model.Report;
+import soundgood.util.MetricsMXBean;
+import soundgood.util.OperationStats;
+
+/**
+ * Performs one command and prints its result. The same executor logic is used by
+ * every front end, whether commands come from the console or from a network
+ * client.
+ */
+class CommandExecutor {
+    private static final String STUDENT_PARAM = "student";
+    private static final String LESSONS_REPORT = "lessons";
+    private static final String SIBLINGS_REPORT = "siblings";
+    private static final String INSTRUCTORS_REPORT = "instructors";
+    private static final String ENSEMBLES_REPORT = "ensembles";
+    private static final String REFRESH_REPORTS = "refresh";
+    private static final String INVALIDATE_REPORTS = "invalidate";
+    private static final int DEFAULT_MAX_SIBLINGS = 2;
+    private static final int MAX_PRINTED_RENTAL_IDS = 20;
+    private final Controller ctrl;
+    private final PrintStream out;
+    private final boolean fileAccessAllowed;
+
+    /**
+     * Creates a new instance that may read and write files.
+     * 
+     * @param ctrl The controller used for all operations.
+     * @param out  Where the results of commands are printed.
+     */
+    CommandExecutor(Controller ctrl, PrintStream out) {
+        this(ctrl, out, true);
+    }
+
+    /**
+     * Creates a new instance.
+     * 
+     * @param ctrl              The controller used for all operations.
+     * @param out               Where the results of commands are printed.
+     * @param fileAccessAllowed <code>true</code> if commands may read and write
+     *                          files named by the user. Must be
+     *                          <code>false</code> when commands come from
+     *                          untrusted clients.
+     */
+    CommandExecutor(Controller ctrl, PrintStream out, boolean fileAccessAllowed) {
+        this.ctrl = ctrl;
+        this.out = out;
+        this.fileAccessAllowed = fileAccessAllowed;
+    }
+
+    /**
+     * Performs the specified command.
+     * 
+     * @param cmdLine The command to perform.
+     * @return <code>false</code> if the command was to quit, otherwise
+     *         <code>true</code>.
+     * @throws Exception If the command failed.
+     */
+    boolean execute(CmdLine cmdLine) throws Exception {
+        switch (cmdLine.getCmd()) {
+            case HELP:
+                for (Command command : Command.values()) {
+                    if (command == Command.ILLEGAL_COMMAND) {
+                        continue;
+                    }
+                    out.println(command.toString().toLowerCase());
+                }
+                break;
+            case QUIT:
+                return false;
+            case RENT:
+                int rentalID = ctrl.rentInstrument(cmdLine.getIntParameter(0), cmdLine.getIntParameter(1),
+                        cmdLine.getDateParameter(2).toString());
+                out.println("Created rental " + rentalID);
+                break;
+            case TERMINATE:
+                terminate(cmdLine);
+                break;
+            case HISTORY:
+                printHistory(cmdLine);
+                break;
+            case IMPORT:
+                copyCsv(cmdLine, true);
+                break;
+            case EXPORT:
+                copyCsv(cmdLine, false);
+                break;
+            case REPORT:
+                report(cmdLine);
+                break;
+            case BOOK:
+                int seatsLeft = ctrl.bookLesson(cmdLine.getIntParameter(0), cmdLine.getIntParameter(1));
+                out.println("Booked lesson " + cmdLine.getIntParameter(1) + ", " + seatsLeft + " seats left");
+                break;
+            case STATS:
+                printStats(ctrl.getMetrics());
+                break;
+            case LIST:
+                List<? extends InstrumentDTO> instruments = null;
+                if (cmdLine.getParameterCount() == 0) {
+                    instruments = ctrl.findInstrumentsByAvailability();
+                } else {
+                    instruments = ctrl.findInstrumentsByAvailabilityAndType(cmdLine.getParameter(0));
+                }
+                for (InstrumentDTO instrument : instruments) {
+                    out.println(instrument.toString());
+                }
+                break;
+            default:
+                out.println("illegal command");
+        }
+        return true;
+    }
+
+    /**
+     * Handles the three forms of the terminate command: <code>terminate 7</code>,
+     * <code>terminate 7 9 12-20</code> and <code>terminate student 3</code>.
+     */
+    private void terminate(CmdLine cmdLine) throws InstrumentException, CmdLineException {
+        if (cmdLine.isParameter(0, STUDENT_PARAM)) {
+            printTerminated(ctrl.terminateRentalsOfStudent(cmdLine.getIntParameter(1)));
+            return;
+        }
+        if (cmdLine.getParameterCount() <= 1 && !cmdLine.isRangeParameter(0)) {
+            ctrl.markRentalAsTerminated(cmdLine.getIntParameter(0));
+            return;
+        }
+        int[] firstRentalIDs = new int[cmdLine.getParameterCount()];
+        int[] lastRentalIDs = new int[cmdLine.getParameterCount()];
+        for (int i = 0; i < cmdLine.getParameterCount(); i++) {
+            int[] range = cmdLine.getRangeParameter(i);
+            firstRentalIDs[i] = range[0];
+            lastRentalIDs[i] = range[1];
+        }
+        printTerminated(ctrl.terminateRentalsInRanges(firstRentalIDs, lastRentalIDs));
+    }
+
+    /**
+     * Handles <code>history [table|csv|json] [file]</code>. The rentals are
+     * printed as a table on the output of this executor, unless another format or
+     * a file is specified.
+     */
+    private void printHistory(CmdLine cmdLine) throws RentalException, IOException {
+        OutputFormat format = OutputFormat.TABLE;
+        int fileParam = 0;
+        for (OutputFormat candidate : OutputFormat.values()) {
+            if (cmdLine.isParameter(0, candidate.name())) {
+                format = candidate;
+                fileParam = 1;
+            }
+        }
+        String fileName = cmdLine.getParameter(fileParam);
+        if (fileName == null) {
+            streamHistory(format.newRenderer(new PrintStreamWriter(out), HistoryPrinter.COLUMNS));
+            return;
+        }
+        if (!fileAccessAllowed) {
+            out.println("File access is not allowed");
+            return;
+        }
+        try (Writer file = new OutputStreamWriter(Files.newOutputStream(Path.of(fileName)),
+                StandardCharsets.UTF_8)) {
+            long count = streamHistory(format.newRenderer(file, HistoryPrinter.COLUMNS));
+            out.println("Wrote " + count + " rentals to " + fileName);
+        }
+    }
+
+    private long streamHistory(RowRenderer renderer) throws RentalException {
+        HistoryPrinter printer = new HistoryPrinter(renderer);
+        ctrl.streamRentals().subscribe(printer);
+        return printer.awaitCompletion();
+    }
+
+    /**
+     * Handles <code>import table file</code> and <code>export table file</code>.
+     */
+    private void copyCsv(CmdLine cmdLine, boolean importing) throws SoundgoodDBException {
+        String table = cmdLine.getParameter(0);
+        String fileName = cmdLine.getParameter(1);
+        if (table == null || fileName == null) {
+            out.println("Usage: " + cmdLine.getCmd().name().toLowerCase() + " "
+                    + String.join("|", ctrl.findCsvTables()) + " file");
+            return;
+        }
+        if (!fileAccessAllowed) {
+            out.println("File access is not allowed");
+            return;
+        }
+        String tableName = table.toLowerCase();
+        if (importing) {
+            out.println("Imported " + ctrl.importCsv(tableName, fileName) + " rows into " + tableName);
+        } else {
+            out.println("Exported " + ctrl.exportCsv(tableName, fileName) + " rows from " + tableName);
+        }
+    }
+
+    /**
+     * Handles the report commands: <code>report lessons [year]</code>,
+     * <code>report siblings [max]</code>, <code>report instructors [year month]</code>,
+     * <code>report ensembles</code>, <code>report refresh</code> and
+     * <code>report invalidate</code>. Year and month default to the current ones.
+     * The lessons and instructors reports also take a period,
+     * <code>from to</code>, where <code>to</code> is the day after the period.
+     */
+    private void report(CmdLine cmdLine) throws SoundgoodDBException, CmdLineException, IOException {
+        LocalDate today = LocalDate.now();
+        if (cmdLine.isParameter(0, LESSONS_REPORT) && cmdLine.isDateParameter(1)) {
+            printReport(ctrl.getLessonReport(cmdLine.getDateParameter(1), cmdLine.getDateParameter(2)));
+        } else if (cmdLine.isParameter(0, LESSONS_REPORT)) {
+            int year = cmdLine.getParameterCount() > 1 ? cmdLine.getIntParameter(1) : today.getYear();
+            printReport(ctrl.getMonthlyLessonReport(year));
+        } else if (cmdLine.isParameter(0, SIBLINGS_REPORT)) {
+            int maxSiblings = cmdLine.getParameterCount() > 1 ? cmdLine.getIntParameter(1) : DEFAULT_MAX_SIBLINGS;
+            printReport(ctrl.getSiblingReport(maxSiblings));
+        } else if (cmdLine.isParameter(0, INSTRUCTORS_REPORT) && cmdLine.isDateParameter(1)) {
+            printReport(ctrl.getInstructorLessonReport(cmdLine.getDateParameter(1), cmdLine.getDateParameter(2)));
+        } else if (cmdLine.isParameter(0, INSTRUCTORS_REPORT)) {
+            int year = cmdLine.getParameterCount() > 1 ? cmdLine.getIntParameter(1) : today.getYear();
+            int month = cmdLine.getParameterCount() > 2 ? cmdLine.getIntParameter(2) : today.getMonthValue();
+            printReport(ctrl.getInstructorLessonReport(year, month));
+        } else if (cmdLine.isParameter(0, ENSEMBLES_REPORT)) {
+            printReport(ctrl.getEnsembleSeatReport());
+        } else if (cmdLine.isParameter(0, REFRESH_REPORTS)) {
+            ctrl.refreshReports();
+            out.println("Reports refreshed");
+        } else if (cmdLine.isParameter(0, INVALIDATE_REPORTS)) {
+            ctrl.invalidateReports();
+            out.println("Report cache emptied");
+        } else {
+            out.println("Usage: report lessons [year | from to] | siblings [max] | instructors [year month | from to]"
+                    + " | ensembles | refresh | invalidate");
+        }
+    }
+
+    private void printReport(Report report) throws IOException {
+        RowRenderer.Column[] columns = new RowRenderer.Column[report.getColumns().size()];
+        for (int column = 0; column < columns.length; column++) {
+            int width = 0;
+            for (int row = 0; row < report.getRowCount(); row++) {
+                width = Math.max(width, String.valueOf(report.getValue(row, column)).length());
+            }
+            columns[column] = new RowRenderer.Column(report.getColumns().get(column), width);
+        }
+        RowRenderer renderer = OutputFormat.TABLE.newRenderer(new PrintStreamWriter(out), columns);
+        renderer.begin();
+        for (int row = 0; row < report.getRowCount(); row++) {
+            renderer.beginRow();
+            for (int column = 0; column < columns.length; column++) {
+                renderValue(renderer, report.getValue(row, column));
+            }
+            renderer.endRow();
+        }
+        renderer.finish();
+    }
+
+    private void renderValue(RowRenderer renderer, Object value) throws IOException {
+        if (value instanceof Integer || value instanceof Long || value instanceof Short) {
+            renderer.value(((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            renderer.value(((Boolean) value).booleanValue());
+        } else if (value instanceof Timestamp) {
+            renderer.value((Timestamp) value);
+        } else {
+            renderer.value(value == null ? null : value.toString());
+        }
+    }
+
+    private void printStats(MetricsMXBean metrics) {
+        out.println(String.format("%-45s %8s %6s %10s %8s %8s %8s %8s", "operation", "count", "failed", "rows",
+                "mean ms", "p50 ms", "p99 ms", "max ms"));
+        for (OperationStats operation : metrics.getOperations()) {
+            if (operation.getCount() > 0) {
+                out.println(operation);
+            }
+        }
+        out.println("commits: " + metrics.getCommits() + ", rollbacks: " + metrics.getRollbacks() + ", retries: "
+                + metrics.getRetries() + ", retries exhausted: " + metrics.getRetriesExhausted());
+    }
+
+    private void printTerminated(List<Integer> rentalIDs) {
+        if (rentalIDs.size() <= MAX_PRINTED_RENTAL_IDS) {
+            out.println("Terminated " + rentalIDs.size() + " rentals: " + rentalIDs);
+        } else {
+            out.println("Terminated " + rentalIDs.size() + " rentals: " + rentalIDs.subList(0, MAX_PRINTED_RENTAL_IDS)
+                    + " and " + (rentalIDs.size() - MAX_PRINTED_RENTAL_IDS) + " more");
+        }
+    }
+
+    /**
+     * Writes to a print stream in the stream's own encoding. Closing the writer
+     * leaves the stream open.
+     */
+    private static class PrintStreamWriter extends Writer {
+        private final PrintStream out;
+
+        PrintStreamWriter(PrintStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) {
+            out.append(CharBuffer.wrap(chars, offset, length));
+        }
+
+        @Override
+        public void flush() {
+            out.flush();
+        }
+
+        @Override
+        public void close() {
+            flush();
+        }
+    }
+}
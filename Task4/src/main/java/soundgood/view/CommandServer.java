@@ -0,0 +1,159 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.view;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+import soundgood.controller.Controller;
+import soundgood.controller.TaskExecutors;
+
+/**
+ * Serves the same commands as <code>BlockingInterpreter</code> to any number of
+ * clients connected over TCP, for example with <code>nc host port</code>. Each
+ * client is handled by its own thread (a virtual thread when the JVM supports
+ * them), and all clients share one controller, so they also share its
+ * connection pool and caches. The protocol is line based: the client sends one
+ * command per line, and the server answers with the output of the command
+ * followed by a new prompt.
+ */
+public class CommandServer {
+    private static final String PROMPT = "> ";
+    private final Controller ctrl;
+    private final InetSocketAddress address;
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+    private volatile ServerSocket serverSocket;
+
+    /**
+     * Creates a new instance that listens on the specified address.
+     * 
+     * @param ctrl        The controller used by all clients.
+     * @param bindAddress The local address to listen on, <code>null</code> means
+     *                    the loopback address.
+     * @param port        The port to listen on.
+     */
+    public CommandServer(Controller ctrl, InetAddress bindAddress, int port) {
+        this.ctrl = ctrl;
+        this.address = new InetSocketAddress(
+                bindAddress == null ? InetAddress.getLoopbackAddress() : bindAddress, port);
+    }
+
+    /**
+     * Accepts and serves clients. This method will not return until the server
+     * has been stopped by calling <code>stop()</code>.
+     * 
+     * @throws IOException If unable to listen on the address of this server.
+     */
+    public void serve() throws IOException {
+        ExecutorService clientExecutor = TaskExecutors.newThreadPerTaskExecutor("soundgood-client");
+        try (ServerSocket listener = new ServerSocket()) {
+            listener.setReuseAddress(true);
+            listener.bind(address);
+            serverSocket = listener;
+            System.out.println("Serving commands on " + listener.getLocalSocketAddress());
+            while (!listener.isClosed()) {
+                Socket client;
+                try {
+                    client = listener.accept();
+                } catch (SocketException closed) {
+                    break;
+                }
+                clients.add(client);
+                clientExecutor.execute(() -> handleClient(client));
+            }
+        } finally {
+            for (Socket client : clients) {
+                closeQuietly(client);
+            }
+            clientExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Stops accepting new clients and disconnects all connected clients.
+     */
+    public void stop() {
+        ServerSocket listener = serverSocket;
+        if (listener != null) {
+            try {
+                listener.close();
+            } catch (IOException ignored) {
+                // The server is stopping anyway.
+            }
+        }
+    }
+
+    private void handleClient(Socket client) {
+        try (client;
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+                PrintStream out = new PrintStream(new BufferedOutputStream(client.getOutputStream()), false,
+                        StandardCharsets.UTF_8)) {
+            CommandExecutor executor = new CommandExecutor(ctrl, out, false);
+            boolean keepReceivingCmds = true;
+            while (keepReceivingCmds) {
+                out.print(PROMPT);
+                out.flush();
+                String line = in.readLine();
+                if (line == null) {
+                    break;
+                }
+                try {
+                    keepReceivingCmds = executor.execute(new CmdLine(line));
+                } catch (Exception e) {
+                    out.println("Operation failed");
+                    out.println(e.getMessage());
+                } finally {
+                    ctrl.endOngoingTransaction();
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            // The client disconnected, there is nobody left to report to.
+        } finally {
+            clients.remove(client);
+        }
+    }
+
+    private static void closeQuietly(Socket client) {
+        try {
+            client.close();
+        } catch (IOException ignored) {
+            // The client is disconnected anyway.
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package soundgood.view;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Renders rows as comma separated values, as specified by RFC 4180, with a
+ * header line. Text containing a comma, a quote or a line break is quoted.
+ */
+class CsvRenderer extends RowRenderer {
+    private static final char DELIMETER = ',';
+    private static final char QUOTE = '"';
+
+    /**
+     * Creates a new instance.
+     *
+     * @param out     Where the values are written.
+     * @param columns The columns of the rows.
+     */
+    CsvRenderer(Writer out, Column[] columns) {
+        super(out, columns);
+    }
+
+    @Override
+    void begin() throws IOException {
+        for (int i = 0; i < columns.length; i++) {
+            valueStart(i, true);
+            appendText(columns[i].getName());
+        }
+        rowEnd();
+    }
+
+    @Override
+    protected void rowStart() {
+    }
+
+    @Override
+    protected void rowEnd() throws IOException {
+        append('\r');
+        append('\n');
+    }
+
+    @Override
+    protected void valueStart(int column, boolean text) throws IOException {
+        if (column > 0) {
+            append(DELIMETER);
+        }
+    }
+
+    @Override
+    protected void valueEnd(int column, boolean text, int length) {
+    }
+
+    @Override
+    protected void missingValue(int column) throws IOException {
+        valueStart(column, false);
+    }
+
+    @Override
+    protected void appendText(String text) throws IOException {
+        if (!needsQuotes(text)) {
+            append(text);
+            return;
+        }
+        append(QUOTE);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == QUOTE) {
+                append(QUOTE);
+            }
+            append(c);
+        }
+        append(QUOTE);
+    }
+
+    private static boolean needsQuotes(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == DELIMETER || c == QUOTE || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
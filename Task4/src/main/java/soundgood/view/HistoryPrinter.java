@@ -0,0 +1,147 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.view;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+
+import soundgood.model.RentalDTO;
+import soundgood.model.RentalException;
+
+/**
+ * Prints rentals as they arrive from a publisher. Rows are requested in chunks,
+ * so that no more than one chunk is waiting to be printed at any time, and are
+ * written by a renderer, which buffers them.
+ */
+class HistoryPrinter implements Flow.Subscriber<RentalDTO> {
+    /**
+     * The columns of the printed rentals.
+     */
+    static final RowRenderer.Column[] COLUMNS = {
+        new RowRenderer.Column("rental_id", 9),
+        new RowRenderer.Column("student_id", 10),
+        new RowRenderer.Column("instrument_id", 13),
+        new RowRenderer.Column("start_date", 19),
+        new RowRenderer.Column("end_date", 19),
+        new RowRenderer.Column("duration", 8),
+        new RowRenderer.Column("terminated", 10),
+    };
+    private static final int CHUNK_SIZE = 256;
+    private final RowRenderer renderer;
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private Flow.Subscription subscription;
+    private int remainingInChunk;
+    private Throwable failure;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param renderer Writes the rentals, it must have been created with
+     *                 <code>COLUMNS</code>.
+     */
+    HistoryPrinter(RowRenderer renderer) {
+        this.renderer = renderer;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        try {
+            renderer.begin();
+        } catch (IOException ioe) {
+            stopWriting(ioe);
+            return;
+        }
+        requestChunk();
+    }
+
+    @Override
+    public void onNext(RentalDTO rental) {
+        try {
+            renderer.beginRow();
+            renderer.value(rental.getRentalID());
+            renderer.value(rental.getRentalStudentID());
+            renderer.value(rental.getRentalInstrumentID());
+            renderer.value(rental.getRentalStartDate());
+            renderer.value(rental.getRentalEndDate());
+            renderer.value(rental.getRentalDuration());
+            renderer.value(rental.getRentalTerminated());
+            renderer.endRow();
+        } catch (IOException ioe) {
+            stopWriting(ioe);
+            return;
+        }
+        if (--remainingInChunk == 0) {
+            requestChunk();
+        }
+    }
+
+    @Override
+    public void onError(Throwable cause) {
+        failure = cause;
+        finished.countDown();
+    }
+
+    @Override
+    public void onComplete() {
+        finished.countDown();
+    }
+
+    /**
+     * Blocks until all rentals have been printed, and flushes the renderer.
+     *
+     * @return The number of printed rentals.
+     * @throws RentalException If the rentals could not be read or written.
+     */
+    long awaitCompletion() throws RentalException {
+        try {
+            finished.await();
+        } catch (InterruptedException ie) {
+            subscription.cancel();
+            Thread.currentThread().interrupt();
+            throw new RentalException("Interrupted while showing rentals", ie);
+        }
+        if (failure != null) {
+            throw new RentalException("Unable to show rentals", failure);
+        }
+        try {
+            renderer.finish();
+        } catch (IOException ioe) {
+            throw new RentalException("Unable to show rentals", ioe);
+        }
+        return renderer.getRowCount();
+    }
+
+    private void stopWriting(IOException cause) {
+        subscription.cancel();
+        onError(cause);
+    }
+
+    private void requestChunk() {
+        remainingInChunk = CHUNK_SIZE;
+        subscription.request(CHUNK_SIZE);
+    }
+}
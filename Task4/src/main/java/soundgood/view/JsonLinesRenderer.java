@@ -0,0 +1,100 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package soundgood.view;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Renders each row as a JSON object on a line of its own, keyed by column name.
+ * Missing values are written as <code>null</code>.
+ */
+class JsonLinesRenderer extends RowRenderer {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Creates a new instance.
+     *
+     * @param out     Where the objects are written.
+     * @param columns The columns of the rows, whose names are used as keys.
+     */
+    JsonLinesRenderer(Writer out, Column[] columns) {
+        super(out, columns);
+    }
+
+    @Override
+    protected void rowStart() throws IOException {
+        append('{');
+    }
+
+    @Override
+    protected void rowEnd() throws IOException {
+        append('}');
+        append('\n');
+    }
+
+    @Override
+    protected void valueStart(int column, boolean text) throws IOException {
+        if (column > 0) {
+            append(',');
+        }
+        append('"');
+        appendText(columns[column].getName());
+        append('"');
+        append(':');
+        if (text) {
+            append('"');
+        }
+    }
+
+    @Override
+    protected void valueEnd(int column, boolean text, int length) throws IOException {
+        if (text) {
+            append('"');
+        }
+    }
+
+    @Override
+    protected void missingValue(int column) throws IOException {
+        valueStart(column, false);
+        append("null");
+    }
+
+    @Override
+    protected void appendText(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                append('\\');
+                append(c);
+            } else if (c < ' ') {
+                append("\\u00");
+                append(HEX_DIGITS[c >> 4]);
+                append(HEX_DIGITS[c & 0xF]);
+            } else {
+                append(c);
+            }
+        }
+    }
+}
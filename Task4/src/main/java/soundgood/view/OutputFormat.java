@@ -0,0 +1,68 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package soundgood.view;
+
+import java.io.Writer;
+
+/**
+ * The formats in which rows can be printed.
+ */
+enum OutputFormat {
+    /**
+     * A table with aligned columns, for reading on screen.
+     */
+    TABLE {
+        @Override
+        RowRenderer newRenderer(Writer out, RowRenderer.Column[] columns) {
+            return new TableRenderer(out, columns);
+        }
+    },
+    /**
+     * Comma separated values, with a header line.
+     */
+    CSV {
+        @Override
+        RowRenderer newRenderer(Writer out, RowRenderer.Column[] columns) {
+            return new CsvRenderer(out, columns);
+        }
+    },
+    /**
+     * One JSON object per line.
+     */
+    JSON {
+        @Override
+        RowRenderer newRenderer(Writer out, RowRenderer.Column[] columns) {
+            return new JsonLinesRenderer(out, columns);
+        }
+    };
+
+    /**
+     * Creates a renderer writing in this format.
+     *
+     * @param out     Where the rows are written.
+     * @param columns The columns of the rows.
+     * @return The new renderer.
+     */
+    abstract RowRenderer newRenderer(Writer out, RowRenderer.Column[] columns);
+}
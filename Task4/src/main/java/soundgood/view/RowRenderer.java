@@ -0,0 +1,365 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package soundgood.view;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+
+/**
+ * Writes rows of values in some output format. Values are written into one large
+ * character buffer, numbers and dates digit by digit, so no string is created per
+ * row or per value, and the underlying writer is only called when the buffer is
+ * full and when rendering is finished.
+ *
+ * A renderer is used by one thread at a time. Each row is written by calling
+ * <code>beginRow</code>, one <code>value</code> method per column, in column
+ * order, and <code>endRow</code>.
+ */
+abstract class RowRenderer {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_LONG_DIGITS = 20;
+    private final Writer out;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private final char[] digits = new char[MAX_LONG_DIGITS];
+    private int used;
+    private long flushedChars;
+    private int column;
+    private long valueStart;
+    private long written;
+    /**
+     * The columns of the rendered rows.
+     */
+    protected final Column[] columns;
+
+    /**
+     * A column of the rendered rows.
+     */
+    static final class Column {
+        private final String name;
+        private final int width;
+
+        /**
+         * Creates a new instance.
+         *
+         * @param name  The column name, which is also the key in JSON output.
+         * @param width The width of the column in table output.
+         */
+        Column(String name, int width) {
+            this.name = name;
+            this.width = Math.max(name.length(), width);
+        }
+
+        /**
+         * @return The column name.
+         */
+        String getName() {
+            return name;
+        }
+
+        /**
+         * @return The width of the column in table output.
+         */
+        int getWidth() {
+            return width;
+        }
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param out     Where the rows are written. It is flushed, but not closed, by
+     *                <code>finish</code>.
+     * @param columns The columns of the rendered rows.
+     */
+    protected RowRenderer(Writer out, Column[] columns) {
+        this.out = out;
+        this.columns = columns;
+    }
+
+    /**
+     * Writes whatever comes before the first row, like a header.
+     *
+     * @throws IOException If unable to write.
+     */
+    void begin() throws IOException {
+    }
+
+    /**
+     * Starts a new row.
+     *
+     * @throws IOException If unable to write.
+     */
+    final void beginRow() throws IOException {
+        column = 0;
+        rowStart();
+    }
+
+    /**
+     * Ends the current row.
+     *
+     * @throws IOException If unable to write.
+     */
+    final void endRow() throws IOException {
+        rowEnd();
+        written++;
+    }
+
+    /**
+     * Writes the value of the next column.
+     *
+     * @param value The value.
+     * @throws IOException If unable to write.
+     */
+    final void value(long value) throws IOException {
+        startValue(false);
+        appendLong(value);
+        endValue(false);
+    }
+
+    /**
+     * Writes the value of the next column.
+     *
+     * @param value The value.
+     * @throws IOException If unable to write.
+     */
+    final void value(boolean value) throws IOException {
+        startValue(false);
+        append(value ? "true" : "false");
+        endValue(false);
+    }
+
+    /**
+     * Writes the value of the next column.
+     *
+     * @param value The value, <code>null</code> is written as a missing value.
+     * @throws IOException If unable to write.
+     */
+    final void value(String value) throws IOException {
+        if (value == null) {
+            nullValue();
+            return;
+        }
+        startValue(true);
+        appendText(value);
+        endValue(true);
+    }
+
+    /**
+     * Writes the value of the next column, formatted
+     * <code>yyyy-MM-dd HH:mm:ss</code>.
+     *
+     * @param value The value, <code>null</code> is written as a missing value.
+     * @throws IOException If unable to write.
+     */
+    final void value(Timestamp value) throws IOException {
+        if (value == null) {
+            nullValue();
+            return;
+        }
+        LocalDateTime time = value.toLocalDateTime();
+        startValue(true);
+        appendPadded(time.getYear(), 4);
+        append('-');
+        appendPadded(time.getMonthValue(), 2);
+        append('-');
+        appendPadded(time.getDayOfMonth(), 2);
+        append(' ');
+        appendPadded(time.getHour(), 2);
+        append(':');
+        appendPadded(time.getMinute(), 2);
+        append(':');
+        appendPadded(time.getSecond(), 2);
+        endValue(true);
+    }
+
+    /**
+     * Writes all buffered output to the underlying writer, and flushes it.
+     *
+     * @throws IOException If unable to write.
+     */
+    final void finish() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * @return The number of rows written so far.
+     */
+    final long getRowCount() {
+        return written;
+    }
+
+    /**
+     * Called before the first value of each row.
+     *
+     * @throws IOException If unable to write.
+     */
+    protected abstract void rowStart() throws IOException;
+
+    /**
+     * Called after the last value of each row.
+     *
+     * @throws IOException If unable to write.
+     */
+    protected abstract void rowEnd() throws IOException;
+
+    /**
+     * Called before each value.
+     *
+     * @param column The index of the column.
+     * @param text   <code>true</code> if the value is text, <code>false</code> if
+     *               it is a number or a boolean.
+     * @throws IOException If unable to write.
+     */
+    protected abstract void valueStart(int column, boolean text) throws IOException;
+
+    /**
+     * Called after each value.
+     *
+     * @param column The index of the column.
+     * @param text   <code>true</code> if the value is text, <code>false</code> if
+     *               it is a number or a boolean.
+     * @param length The number of characters written for the value.
+     * @throws IOException If unable to write.
+     */
+    protected abstract void valueEnd(int column, boolean text, int length) throws IOException;
+
+    /**
+     * Writes a missing value.
+     *
+     * @param column The index of the column.
+     * @throws IOException If unable to write.
+     */
+    protected abstract void missingValue(int column) throws IOException;
+
+    /**
+     * Writes text, escaped as required by the output format. Unless overridden,
+     * the text is written as it is.
+     *
+     * @param text The text to write.
+     * @throws IOException If unable to write.
+     */
+    protected void appendText(String text) throws IOException {
+        append(text);
+    }
+
+    /**
+     * Writes one character.
+     *
+     * @param c The character to write.
+     * @throws IOException If unable to write.
+     */
+    protected final void append(char c) throws IOException {
+        if (used == buffer.length) {
+            flushBuffer();
+        }
+        buffer[used++] = c;
+    }
+
+    /**
+     * Writes the specified text as it is.
+     *
+     * @param text The text to write.
+     * @throws IOException If unable to write.
+     */
+    protected final void append(String text) throws IOException {
+        int length = text.length();
+        int copied = 0;
+        while (copied < length) {
+            if (used == buffer.length) {
+                flushBuffer();
+            }
+            int chunk = Math.min(length - copied, buffer.length - used);
+            text.getChars(copied, copied + chunk, buffer, used);
+            used += chunk;
+            copied += chunk;
+        }
+    }
+
+    /**
+     * Writes the specified character the specified number of times.
+     *
+     * @param c     The character to write.
+     * @param count The number of times to write it.
+     * @throws IOException If unable to write.
+     */
+    protected final void appendRepeated(char c, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            append(c);
+        }
+    }
+
+    private void startValue(boolean text) throws IOException {
+        valueStart(column, text);
+        valueStart = charsWritten();
+    }
+
+    private void endValue(boolean text) throws IOException {
+        int length = (int) (charsWritten() - valueStart);
+        valueEnd(column++, text, length);
+    }
+
+    private void nullValue() throws IOException {
+        missingValue(column++);
+    }
+
+    private long charsWritten() {
+        return flushedChars + used;
+    }
+
+    private void appendLong(long value) throws IOException {
+        if (value < 0) {
+            append('-');
+        }
+        int pos = digits.length;
+        long remaining = value;
+        do {
+            digits[--pos] = (char) ('0' + Math.abs(remaining % 10));
+            remaining /= 10;
+        } while (remaining != 0);
+        for (; pos < digits.length; pos++) {
+            append(digits[pos]);
+        }
+    }
+
+    private void appendPadded(int value, int width) throws IOException {
+        int pos = digits.length;
+        int remaining = value;
+        for (int i = 0; i < width || remaining != 0; i++) {
+            digits[--pos] = (char) ('0' + remaining % 10);
+            remaining /= 10;
+        }
+        for (; pos < digits.length; pos++) {
+            append(digits[pos]);
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, used);
+        flushedChars += used;
+        used = 0;
+    }
+}
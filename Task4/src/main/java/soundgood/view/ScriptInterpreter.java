@@ -0,0 +1,155 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package soundgood.view;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.EnumSet;
+import java.util.Set;
+
+import soundgood.controller.Controller;
+
+/**
+ * Performs commands read from a script, for example a file or a pipe, without
+ * prompting. Consecutive commands that change the database are grouped in
+ * batches that are committed together, each command in a batch only undoes its
+ * own changes if it fails. A command that fails because of concurrent
+ * transactions, for example in a deadlock, fails its whole batch instead. Any
+ * other command, and the end of the script, commits
+ * the ongoing batch first, so that it sees all previous changes. Failed
+ * commands are reported and skipped, and a summary is printed when the script
+ * has been read.
+ *
+ * Blank lines and lines starting with <code>#</code> are ignored.
+ */
+public class ScriptInterpreter {
+    private static final String COMMENT_PREFIX = "#";
+    private static final Set<Command> MUTATING_COMMANDS = EnumSet.of(Command.RENT, Command.TERMINATE, Command.BOOK);
+    private final Controller ctrl;
+    private final int batchSize;
+    private final PrintStream out;
+    private final PrintStream err;
+    private final CommandExecutor executor;
+    private int succeeded = 0;
+    private int failed = 0;
+    private int pendingInBatch = 0;
+
+    /**
+     * Creates a new instance that prints command output to
+     * <code>System.out</code> and failures to <code>System.err</code>.
+     * 
+     * @param ctrl      The controller used for all operations.
+     * @param batchSize The maximum number of commands committed together.
+     */
+    public ScriptInterpreter(Controller ctrl, int batchSize) {
+        this.ctrl = ctrl;
+        this.batchSize = Math.max(1, batchSize);
+        this.out = System.out;
+        this.err = System.err;
+        this.executor = new CommandExecutor(ctrl, out);
+    }
+
+    /**
+     * Performs all commands in the specified script, and prints a summary.
+     * Stops early if the script contains the <code>quit</code> command.
+     * 
+     * @param script The script to read.
+     * @return <code>true</code> if all commands succeeded.
+     * @throws IOException If unable to read the script.
+     */
+    public boolean run(Reader script) throws IOException {
+        long startTime = System.nanoTime();
+        BufferedReader in = new BufferedReader(script);
+        ctrl.beginBatch();
+        try {
+            String line;
+            int lineNo = 0;
+            boolean keepReceivingCmds = true;
+            while (keepReceivingCmds && (line = in.readLine()) != null) {
+                lineNo++;
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith(COMMENT_PREFIX)) {
+                    continue;
+                }
+                keepReceivingCmds = execute(new CmdLine(trimmed), lineNo);
+            }
+            commitBatch();
+        } finally {
+            ctrl.endBatch();
+            out.flush();
+        }
+        printSummary(System.nanoTime() - startTime);
+        return failed == 0;
+    }
+
+    private boolean execute(CmdLine cmdLine, int lineNo) {
+        boolean mutating = MUTATING_COMMANDS.contains(cmdLine.getCmd());
+        if (!mutating) {
+            commitBatch();
+        }
+        try {
+            if (mutating) {
+                ctrl.beginBatchedOperation();
+            }
+            boolean keepReceivingCmds = executor.execute(cmdLine);
+            if (mutating) {
+                pendingInBatch++;
+            } else {
+                commitBatch();
+                succeeded++;
+            }
+            if (pendingInBatch >= batchSize) {
+                commitBatch();
+            }
+            return keepReceivingCmds;
+        } catch (Exception e) {
+            failed++;
+            err.println("Line " + lineNo + ": Operation failed: " + e.getMessage());
+            return true;
+        }
+    }
+
+    private void commitBatch() {
+        try {
+            ctrl.commitBatch();
+            succeeded += pendingInBatch;
+        } catch (Exception e) {
+            failed += pendingInBatch;
+            if (pendingInBatch > 0) {
+                err.println("Batch of " + pendingInBatch + " commands failed: " + e.getMessage());
+            }
+        }
+        pendingInBatch = 0;
+    }
+
+    private void printSummary(long elapsedNanos) {
+        double elapsedSeconds = elapsedNanos / 1_000_000_000.0;
+        int total = succeeded + failed;
+        double opsPerSecond = elapsedSeconds > 0 ? total / elapsedSeconds : 0;
+        err.printf("%d ok, %d failed, %.3f s, %.1f ops/s%n", succeeded, failed, elapsedSeconds, opsPerSecond);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Leif Lindbäck <leifl@kth.se>.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package soundgood.view;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Renders rows as a table with left aligned columns, a header and a separator
+ * line. Values wider than their column are written in full, and push the rest of
+ * the row to the right.
+ */
+class TableRenderer extends RowRenderer {
+    private static final char SEPARATOR = '-';
+    private static final char PADDING = ' ';
+
+    /**
+     * Creates a new instance.
+     *
+     * @param out     Where the table is written.
+     * @param columns The columns of the table.
+     */
+    TableRenderer(Writer out, Column[] columns) {
+        super(out, columns);
+    }
+
+    @Override
+    void begin() throws IOException {
+        for (int i = 0; i < columns.length; i++) {
+            valueStart(i, true);
+            append(columns[i].getName());
+            valueEnd(i, true, columns[i].getName().length());
+        }
+        rowEnd();
+        for (int i = 0; i < columns.length; i++) {
+            valueStart(i, true);
+            appendRepeated(SEPARATOR, columns[i].getWidth());
+        }
+        rowEnd();
+    }
+
+    @Override
+    protected void rowStart() {
+    }
+
+    @Override
+    protected void rowEnd() throws IOException {
+        append('\n');
+    }
+
+    @Override
+    protected void valueStart(int column, boolean text) throws IOException {
+        if (column > 0) {
+            append(PADDING);
+        }
+    }
+
+    @Override
+    protected void valueEnd(int column, boolean text, int length) throws IOException {
+        pad(column, length);
+    }
+
+    @Override
+    protected void missingValue(int column) throws IOException {
+        valueStart(column, true);
+        pad(column, 0);
+    }
+
+    private void pad(int column, int length) throws IOException {
+        // the last column is not padded, to avoid trailing blanks
+        if (column < columns.length - 1) {
+            appendRepeated(PADDING, columns[column].getWidth() - length);
+        }
+    }
+}
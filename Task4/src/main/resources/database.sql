@@ -6,7 +6,8 @@ CREATE TABLE student (
     email VARCHAR(320),
     street VARCHAR(250),
     zip VARCHAR(50),
-    city VARCHAR(250)
+    city VARCHAR(250),
+    active_rentals INT NOT NULL DEFAULT 0 -- Maintained by rental_limit_trigger
 );
 
 -- Table: sibling
@@ -61,6 +62,9 @@ CREATE TABLE rental (
     --CONSTRAINT rental_end_date__limit2 CHECK (rental_end_date >= rental_start_date)
 );
 
+-- An instrument can only have one ongoing rental, also when rented concurrently
+CREATE UNIQUE INDEX rental_active_instrument_idx ON rental (instrument_id) WHERE terminated = 0;
+
 -- Table: instructor
 CREATE TABLE instructor (
     instructor_id SERIAL PRIMARY KEY,
@@ -127,32 +131,54 @@ CREATE TABLE lesson (
 CREATE TABLE student_lesson (
     student_id INT NOT NULL,
     lesson_id INT NOT NULL,
+    enrollment_id BIGSERIAL UNIQUE, -- Order of enrollment, used by the history ETL
     PRIMARY KEY (student_id, lesson_id),
     FOREIGN KEY (student_id) REFERENCES student(student_id) ON DELETE CASCADE,
     FOREIGN KEY (lesson_id) REFERENCES lesson(lesson_id) ON DELETE CASCADE
 );
 
+-- Table: etl_watermark, the last enrollment copied by each ETL job
+CREATE TABLE etl_watermark (
+    job VARCHAR(50) PRIMARY KEY,
+    high_water BIGINT NOT NULL,
+    updated_at TIMESTAMP NOT NULL DEFAULT NOW()
+);
+
 CREATE OR REPLACE FUNCTION check_rental_limit()
 RETURNS trigger AS $$
 BEGIN
-    -- Skip check for terminations (as we are about to terminate a rental)
-    IF NEW.terminated = 0 THEN
-        -- Check if the student already has 2 active rentals
-        IF (SELECT COUNT(*) 
-            FROM rental 
-            WHERE student_id = NEW.student_id 
-              AND terminated = 0) >= 2 THEN
-            RAISE EXCEPTION 'A student can only rent up to 2 instruments at a time.';
+    -- A rental that starts being active takes one of the student's two slots.
+    -- The conditional update locks the student row, so concurrent rentals by the
+    -- same student are checked one at a time.
+    IF (TG_OP = 'INSERT' AND NEW.terminated = 0)
+       OR (TG_OP = 'UPDATE' AND OLD.terminated = 1 AND NEW.terminated = 0) THEN
+        UPDATE student
+        SET active_rentals = active_rentals + 1
+        WHERE student_id = NEW.student_id AND active_rentals < 2;
+        IF NOT FOUND AND EXISTS (SELECT 1 FROM student WHERE student_id = NEW.student_id) THEN
+            RAISE EXCEPTION 'A student can only rent up to 2 instruments at a time.'
+                USING ERRCODE = 'SG001';
         END IF;
     END IF;
 
+    -- A rental that stops being active frees one slot.
+    IF (TG_OP = 'UPDATE' AND OLD.terminated = 0 AND NEW.terminated = 1)
+       OR (TG_OP = 'DELETE' AND OLD.terminated = 0) THEN
+        UPDATE student
+        SET active_rentals = active_rentals - 1
+        WHERE student_id = OLD.student_id;
+    END IF;
+
+    IF TG_OP = 'DELETE' THEN
+        RETURN OLD;
+    END IF;
     RETURN NEW;
 END;
 $$ LANGUAGE plpgsql;
 
 -- Trigger
 CREATE TRIGGER rental_limit_trigger
-BEFORE INSERT OR UPDATE ON rental
+BEFORE INSERT OR UPDATE OF terminated OR DELETE ON rental
 FOR EACH ROW
 EXECUTE FUNCTION check_rental_limit();
 
@@ -198,7 +224,7 @@ BEGIN
     -- Check if rental_end_date is before rental_start_date
     IF NEW.rental_end_date < NEW.rental_start_date THEN
         RAISE EXCEPTION 'End date must be greater than or equal to start date. Rental Start: %, Rental End: %',
-            NEW.rental_start_date, NEW.rental_end_date;
+            NEW.rental_start_date, NEW.rental_end_date USING ERRCODE = 'SG002';
     END IF;
     RETURN NEW;
 END;
@@ -217,7 +243,7 @@ BEGIN
     -- Check if rental_end_date is within 12 months from rental_start_date
     IF NEW.rental_end_date > NEW.rental_start_date + INTERVAL '12 months' THEN
         RAISE EXCEPTION 'End date must be within 12 months from start date. Rental Start: %, Rental End: %',
-            NEW.rental_start_date, NEW.rental_end_date;
+            NEW.rental_start_date, NEW.rental_end_date USING ERRCODE = 'SG003';
     END IF;
     RETURN NEW;
 END;
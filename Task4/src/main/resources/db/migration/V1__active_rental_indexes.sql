@@ -0,0 +1,17 @@
+-- Indexes for the statements in SoundgoodDAO. The partial indexes only contain
+-- ongoing rentals, so they stay small however long the rental history grows.
+
+-- An instrument can only have one ongoing rental, also when rented concurrently
+CREATE UNIQUE INDEX IF NOT EXISTS rental_active_instrument_idx ON rental (instrument_id) WHERE terminated = 0;
+
+-- Ongoing rentals of a student, used by the rent quota check
+CREATE INDEX IF NOT EXISTS rental_active_student_idx ON rental (student_id) WHERE terminated = 0;
+
+-- Complete rental history of an instrument
+CREATE INDEX IF NOT EXISTS rental_instrument_idx ON rental (instrument_id);
+
+-- Complete rental history of a student
+CREATE INDEX IF NOT EXISTS rental_student_idx ON rental (student_id);
+
+-- Case insensitive search on instrument type
+CREATE INDEX IF NOT EXISTS instrument_lower_type_idx ON instrument (LOWER(type));
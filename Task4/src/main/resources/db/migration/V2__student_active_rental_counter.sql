@@ -0,0 +1,45 @@
+-- Keeps the number of ongoing rentals of each student in the student table, so
+-- that the rent quota is checked by reading one row instead of counting rentals.
+
+ALTER TABLE student ADD COLUMN IF NOT EXISTS active_rentals INT NOT NULL DEFAULT 0;
+
+UPDATE student s
+SET active_rentals = (SELECT COUNT(*) FROM rental r WHERE r.student_id = s.student_id AND r.terminated = 0);
+
+CREATE OR REPLACE FUNCTION check_rental_limit()
+RETURNS trigger AS $$
+BEGIN
+    -- A rental that starts being active takes one of the student's two slots.
+    -- The conditional update locks the student row, so concurrent rentals by the
+    -- same student are checked one at a time.
+    IF (TG_OP = 'INSERT' AND NEW.terminated = 0)
+       OR (TG_OP = 'UPDATE' AND OLD.terminated = 1 AND NEW.terminated = 0) THEN
+        UPDATE student
+        SET active_rentals = active_rentals + 1
+        WHERE student_id = NEW.student_id AND active_rentals < 2;
+        IF NOT FOUND AND EXISTS (SELECT 1 FROM student WHERE student_id = NEW.student_id) THEN
+            RAISE EXCEPTION 'A student can only rent up to 2 instruments at a time.';
+        END IF;
+    END IF;
+
+    -- A rental that stops being active frees one slot.
+    IF (TG_OP = 'UPDATE' AND OLD.terminated = 0 AND NEW.terminated = 1)
+       OR (TG_OP = 'DELETE' AND OLD.terminated = 0) THEN
+        UPDATE student
+        SET active_rentals = active_rentals - 1
+        WHERE student_id = OLD.student_id;
+    END IF;
+
+    IF TG_OP = 'DELETE' THEN
+        RETURN OLD;
+    END IF;
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS rental_limit_trigger ON rental;
+
+CREATE TRIGGER rental_limit_trigger
+BEFORE INSERT OR UPDATE OF terminated OR DELETE ON rental
+FOR EACH ROW
+EXECUTE FUNCTION check_rental_limit();
@@ -0,0 +1,35 @@
+-- Lets the history ETL append only the enrollments made since its last run.
+-- Each enrollment gets an increasing ID, and the ETL records the highest ID it
+-- has copied to historical_lessons in etl_watermark, in the same transaction as
+-- the copied rows.
+
+ALTER TABLE student_lesson ADD COLUMN IF NOT EXISTS enrollment_id BIGSERIAL;
+CREATE UNIQUE INDEX IF NOT EXISTS student_lesson_enrollment_idx ON student_lesson (enrollment_id);
+
+CREATE TABLE IF NOT EXISTS historical_lessons (
+    historical_id SERIAL PRIMARY KEY,
+    lesson_type VARCHAR(20) NOT NULL,
+    genre VARCHAR(50),
+    instrument VARCHAR(50),
+    lesson_price NUMERIC(10, 2) NOT NULL,
+    student_name VARCHAR(100) NOT NULL,
+    student_email VARCHAR(100) NOT NULL
+);
+
+-- The copied enrollment, so that no enrollment is copied twice
+ALTER TABLE historical_lessons ADD COLUMN IF NOT EXISTS enrollment_id BIGINT;
+CREATE UNIQUE INDEX IF NOT EXISTS historical_lessons_enrollment_idx ON historical_lessons (enrollment_id);
+
+CREATE TABLE IF NOT EXISTS etl_watermark (
+    job VARCHAR(50) PRIMARY KEY,
+    high_water BIGINT NOT NULL,
+    updated_at TIMESTAMP NOT NULL DEFAULT NOW()
+);
+
+-- If historical_lessons was already filled by historicalData.sql, it holds all
+-- enrollments made until now, so the ETL starts after them.
+INSERT INTO etl_watermark (job, high_water)
+SELECT 'historical_lessons',
+       CASE WHEN EXISTS (SELECT 1 FROM historical_lessons) THEN COALESCE(MAX(enrollment_id), 0) ELSE 0 END
+FROM student_lesson
+ON CONFLICT (job) DO NOTHING;
@@ -0,0 +1,39 @@
+-- Materialized aggregates behind the reports of queries.sql, so that a report
+-- reads a few precomputed rows instead of aggregating the lesson history. The
+-- views are refreshed with REFRESH MATERIALIZED VIEW CONCURRENTLY, which needs a
+-- unique index on each view, and does not block reports while refreshing.
+
+-- Lessons per month and lesson type
+CREATE MATERIALIZED VIEW IF NOT EXISTS report_monthly_lessons AS
+SELECT DATE_TRUNC('month', l.lesson_start)::DATE AS month,
+       COUNT(*) AS total,
+       COUNT(*) FILTER (WHERE lp.lesson_type = 'individual') AS individual,
+       COUNT(*) FILTER (WHERE lp.lesson_type = 'group') AS group_lessons,
+       COUNT(*) FILTER (WHERE lp.lesson_type = 'ensemble') AS ensemble
+FROM lesson l
+LEFT JOIN lesson_price lp ON l.lesson_price_id = lp.lesson_price_id
+GROUP BY DATE_TRUNC('month', l.lesson_start);
+CREATE UNIQUE INDEX IF NOT EXISTS report_monthly_lessons_month_idx ON report_monthly_lessons (month);
+
+-- Number of students with each number of siblings
+CREATE MATERIALIZED VIEW IF NOT EXISTS report_sibling_counts AS
+SELECT no_of_siblings, COUNT(*) AS student_count
+FROM (
+    SELECT s.student_id, COUNT(sb.sibling_id) AS no_of_siblings
+    FROM student s
+    LEFT JOIN sibling sb ON sb.student_id = s.student_id
+    GROUP BY s.student_id
+) student_sibling_counts
+GROUP BY no_of_siblings;
+CREATE UNIQUE INDEX IF NOT EXISTS report_sibling_counts_idx ON report_sibling_counts (no_of_siblings);
+
+-- Lessons per instructor and month
+CREATE MATERIALIZED VIEW IF NOT EXISTS report_instructor_lessons AS
+SELECT DATE_TRUNC('month', l.lesson_start)::DATE AS month,
+       i.instructor_id,
+       i.name,
+       COUNT(*) AS total_lessons
+FROM instructor i
+JOIN lesson l ON l.instructor_id = i.instructor_id
+GROUP BY DATE_TRUNC('month', l.lesson_start), i.instructor_id, i.name;
+CREATE UNIQUE INDEX IF NOT EXISTS report_instructor_lessons_idx ON report_instructor_lessons (month, instructor_id);
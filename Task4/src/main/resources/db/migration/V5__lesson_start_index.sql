@@ -0,0 +1,6 @@
+-- Serves the reports over a period of lessons, which filter on a half-open
+-- range of lesson_start. The price and instructor are part of the index, so the
+-- lessons of a period are counted by type or by instructor from the index
+-- entries of that period alone, however long the lesson history is.
+CREATE INDEX IF NOT EXISTS lesson_start_price_instructor_idx
+    ON lesson (lesson_start, lesson_price_id, instructor_id);
@@ -0,0 +1,60 @@
+-- Gives each rental rule its own SQLSTATE, so that the application can tell a
+-- reached rent quota from an invalid end date. All three used to raise the
+-- generic P0001.
+--   SG001  the student already rents 2 instruments
+--   SG002  the end date is before the start date
+--   SG003  the end date is more than 12 months after the start date
+
+CREATE OR REPLACE FUNCTION check_rental_limit()
+RETURNS trigger AS $$
+BEGIN
+    -- A rental that starts being active takes one of the student's two slots.
+    -- The conditional update locks the student row, so concurrent rentals by the
+    -- same student are checked one at a time.
+    IF (TG_OP = 'INSERT' AND NEW.terminated = 0)
+       OR (TG_OP = 'UPDATE' AND OLD.terminated = 1 AND NEW.terminated = 0) THEN
+        UPDATE student
+        SET active_rentals = active_rentals + 1
+        WHERE student_id = NEW.student_id AND active_rentals < 2;
+        IF NOT FOUND AND EXISTS (SELECT 1 FROM student WHERE student_id = NEW.student_id) THEN
+            RAISE EXCEPTION 'A student can only rent up to 2 instruments at a time.'
+                USING ERRCODE = 'SG001';
+        END IF;
+    END IF;
+
+    -- A rental that stops being active frees one slot.
+    IF (TG_OP = 'UPDATE' AND OLD.terminated = 0 AND NEW.terminated = 1)
+       OR (TG_OP = 'DELETE' AND OLD.terminated = 0) THEN
+        UPDATE student
+        SET active_rentals = active_rentals - 1
+        WHERE student_id = OLD.student_id;
+    END IF;
+
+    IF TG_OP = 'DELETE' THEN
+        RETURN OLD;
+    END IF;
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION check_rental_end_date_validity()
+RETURNS TRIGGER AS $$
+BEGIN
+    IF NEW.rental_end_date < NEW.rental_start_date THEN
+        RAISE EXCEPTION 'End date must be greater than or equal to start date. Rental Start: %, Rental End: %',
+            NEW.rental_start_date, NEW.rental_end_date USING ERRCODE = 'SG002';
+    END IF;
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION check_rental_end_date_limit()
+RETURNS TRIGGER AS $$
+BEGIN
+    IF NEW.rental_end_date > NEW.rental_start_date + INTERVAL '12 months' THEN
+        RAISE EXCEPTION 'End date must be within 12 months from start date. Rental Start: %, Rental End: %',
+            NEW.rental_start_date, NEW.rental_end_date USING ERRCODE = 'SG003';
+    END IF;
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
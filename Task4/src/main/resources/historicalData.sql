@@ -1,5 +1,8 @@
 -- Historical Data (Higher grade)
-INSERT INTO historical_lessons (lesson_type, genre, instrument, lesson_price, student_name, student_email)
+-- Copies every enrollment that has not been copied before, so running it again
+-- does not duplicate rows. The ETL in Task4 appends new enrollments incrementally.
+INSERT INTO historical_lessons (lesson_type, genre, instrument, lesson_price, student_name, student_email,
+    enrollment_id)
 SELECT 
     lp.lesson_type, -- Lesson type
     CASE 
@@ -12,7 +15,8 @@ SELECT
     END AS instrument, -- Instrument type for non-ensemble lessons
     lp.price AS lesson_price, -- Price of the lesson
     s.name AS student_name, -- Student's name
-    s.email AS student_email -- Student's email
+    s.email AS student_email, -- Student's email
+    sl.enrollment_id
 FROM 
     lesson l
 JOIN 
@@ -26,4 +30,5 @@ ON
 JOIN 
     student s
 ON 
-    sl.student_id = s.student_id;
\ No newline at end of file
+    sl.student_id = s.student_id
+ON CONFLICT (enrollment_id) DO NOTHING;
\ No newline at end of file
@@ -16,11 +16,12 @@ LEFT JOIN
 ON
     lesson.lesson_price_id = lesson_price.lesson_price_id
 WHERE 
-    EXTRACT(YEAR FROM lesson.lesson_start) = 2024 -- changeable year filter
+    lesson.lesson_start >= DATE '2024-01-01' -- changeable period, the end is not included
+    AND lesson.lesson_start < DATE '2025-01-01'
 GROUP BY 
-    EXTRACT(MONTH FROM lesson.lesson_start), Month
+    DATE_TRUNC('month', lesson.lesson_start), Month
 ORDER BY 
-    EXTRACT(MONTH FROM lesson.lesson_start);
+    DATE_TRUNC('month', lesson.lesson_start);
 
 
 
@@ -70,8 +71,8 @@ JOIN
 ON 
     instructor.instructor_id = lesson.instructor_id
 WHERE 
-    EXTRACT(YEAR FROM lesson.lesson_start) = EXTRACT(YEAR FROM CURRENT_DATE) --changable
-    AND EXTRACT(MONTH FROM lesson.lesson_start) = EXTRACT(MONTH FROM CURRENT_DATE) --changable
+    lesson.lesson_start >= DATE_TRUNC('month', CURRENT_DATE) --changable, the end is not included
+    AND lesson.lesson_start < DATE_TRUNC('month', CURRENT_DATE) + INTERVAL '1 month'
 GROUP BY 
     instructor.instructor_id, instructor.name
 HAVING 